@@ -0,0 +1,165 @@
+package com.cappella.csv;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.cappella.model.Problems;
+import com.cappella.model.SubTask;
+import com.cappella.model.TaskData;
+
+/**
+ * Benchmarks for the CsvClient parsing hot paths.
+ * Run with: mvn -P benchmark test-compile exec:exec
+ * Arguments for JMH go in jmh.args, for example
+ * -Djmh.args="CsvClientBenchmark.parseGrantCsvToTasks -p rows=1000 -prof gc"
+ *
+ * The files are written by {@link GrantFiles}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CsvClientBenchmark {
+
+    private static final Path FIXTURE = Paths.get("src", "test", "resources", "production.csv");
+
+    @State(Scope.Benchmark)
+    public static class GrantFile {
+
+        @Param({"1000", "10000", "100000", "1000000"})
+        int rows;
+
+        CsvClient csv = new CsvClient();
+        Path file;
+
+        @Setup(Level.Trial)
+        public void writeFile() throws IOException {
+            file = GrantFiles.write(Files.createTempFile("grants-" + rows + "-", ".csv"), rows);
+        }
+
+        @TearDown(Level.Trial)
+        public void deleteFile() throws IOException {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class GrantRecords {
+
+        CsvClient csv = new CsvClient();
+        List<CSVRecord> records;
+        List<String> dueDates = new ArrayList<>();
+        List<String> subTaskDueDates = new ArrayList<>();
+
+        @Setup(Level.Trial)
+        public void readRecords() throws IOException {
+            records = readFixture();
+            for (CSVRecord record : records) {
+                addIfSet(dueDates, record, "Funder Full proposal deadline");
+                addIfSet(subTaskDueDates, record, "Next task deadline");
+            }
+        }
+
+        private static void addIfSet(List<String> values, CSVRecord record, String header) {
+            if (record.isSet(header) && !record.get(header).isEmpty()) {
+                values.add(record.get(header));
+            }
+        }
+    }
+
+    /**
+     * The Problems the parsing reports to, cleared before each iteration
+     * rather than made for each call so that its allocation is not counted
+     * in the parsing. It keeps the details of only its last few problems so
+     * it does not grow during an iteration.
+     */
+    @State(Scope.Thread)
+    public static class Reported {
+
+        Problems problems = new Problems();
+
+        @Setup(Level.Iteration)
+        public void clear() {
+            problems.clear();
+        }
+    }
+
+    /**
+     * Cycles through the fixture values so each call sees different input.
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+
+        int next;
+
+        <T> T next(List<T> values) {
+            if (next >= values.size()) {
+                next = 0;
+            }
+            return values.get(next++);
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 3)
+    @Measurement(iterations = 5)
+    public List<TaskData> parseGrantCsvToTasks(GrantFile grantFile, Reported reported) throws IOException {
+        try (InputStream is = Files.newInputStream(grantFile.file)) {
+            return grantFile.csv.parseGrantCsvToTasks(is, reported.problems);
+        }
+    }
+
+    @Benchmark
+    public TaskData parseTask(GrantRecords grantRecords, Cursor cursor, Reported reported) {
+        return grantRecords.csv.parseTask(cursor.next(grantRecords.records), reported.problems);
+    }
+
+    @Benchmark
+    public LocalDate parseGrantDueDate(GrantRecords grantRecords, Cursor cursor, Reported reported) {
+        return grantRecords.csv.parseGrantDueDate(cursor.next(grantRecords.dueDates), reported.problems);
+    }
+
+    @Benchmark
+    public SubTask parseSubTaskDueDate(GrantRecords grantRecords, Cursor cursor, Reported reported) {
+        SubTask subTask = new SubTask();
+        subTask.setName("Draft report");
+        grantRecords.csv.parseSubTaskDueDate(subTask, cursor.next(grantRecords.subTaskDueDates), reported.problems);
+        return subTask;
+    }
+
+    private static List<CSVRecord> readFixture() throws IOException {
+        try (Reader reader = Files.newBufferedReader(FIXTURE, StandardCharsets.UTF_8);
+             CSVParser parser = new CSVParser(reader, CSVFormat.DEFAULT.withFirstRecordAsHeader().withTrim())) {
+            return parser.getRecords();
+        }
+    }
+}
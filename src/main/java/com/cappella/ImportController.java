@@ -0,0 +1,132 @@
+package com.cappella;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.file.NoSuchFileException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.multipart.MultipartFile;
+
+import com.cappella.csv.CsvClient;
+import com.cappella.imports.ImportJob;
+import com.cappella.imports.ImportService;
+
+@Controller
+public class ImportController {
+
+	static final long DEFAULT_STREAM_TIMEOUT_MINUTES = 60;
+
+	private final CsvClient csv;
+	private final ImportService imports;
+	// how long POST /imports/stream waits for its import, which reads the body of the request
+	@Value("${imports.stream.timeout.minutes:" + DEFAULT_STREAM_TIMEOUT_MINUTES + "}")
+	private long streamTimeoutMinutes = DEFAULT_STREAM_TIMEOUT_MINUTES;
+
+	public ImportController(CsvClient csv, ImportService imports) {
+		this.csv = csv;
+		this.imports = imports;
+	}
+
+	/**
+	 * Accepts a grant CSV file and returns 202 Accepted with the job as soon
+	 * as the file is received. The import runs in the background, poll the
+	 * Location for its progress.
+	 * The file is imported for the tenant given, or the default tenant. 429 Too
+	 * Many Requests is returned while too many imports are waiting for the
+	 * tenant's token.
+	 */
+	@PostMapping("/imports")
+	public @ResponseBody ResponseEntity<ImportJob> importCsv(@RequestParam("file") MultipartFile file,
+			@RequestParam(value = "tenant", required = false) String tenant) throws IOException {
+		if (file.isEmpty() || !csv.hasCSVFormat(file)) {
+			return ResponseEntity.status(HttpStatus.UNSUPPORTED_MEDIA_TYPE).build();
+		}
+		if (tenant != null && !imports.hasTenant(tenant)) {
+			return ResponseEntity.badRequest().build();
+		}
+		ImportJob job;
+		try {
+			job = tenant == null ? imports.submit(file) : imports.submit(tenant, file);
+		} catch (RejectedExecutionException e) {
+			return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS).build();
+		}
+		return ResponseEntity.accepted().location(URI.create("/imports/" + job.getId())).body(job);
+	}
+
+	/**
+	 * Imports a grant CSV file sent as the body of the request, it is parsed
+	 * as it arrives instead of being buffered like a multipart upload. The
+	 * request is released from its thread while the import waits and runs,
+	 * and 200 OK with the finished job is returned once the whole body has
+	 * been imported. The request only waits imports.stream.timeout.minutes,
+	 * then 503 Service Unavailable is returned with the job, and the import
+	 * fails if it still has to read the body.
+	 */
+	@PostMapping(value = "/imports/stream", consumes = "text/csv")
+	public @ResponseBody DeferredResult<ResponseEntity<ImportJob>> importCsvStream(InputStream body,
+			@RequestParam(value = "tenant", required = false) String tenant,
+			@RequestParam(value = "fileName", required = false) String fileName) {
+		DeferredResult<ResponseEntity<ImportJob>> result = new DeferredResult<>(
+				TimeUnit.MINUTES.toMillis(streamTimeoutMinutes));
+		if (tenant != null && !imports.hasTenant(tenant)) {
+			result.setResult(ResponseEntity.badRequest().build());
+			return result;
+		}
+		ImportJob job;
+		try {
+			job = imports.submit(tenant == null ? ImportService.DEFAULT_TENANT : tenant, fileName, body);
+		} catch (RejectedExecutionException e) {
+			result.setResult(ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS).build());
+			return result;
+		}
+		URI location = URI.create("/imports/" + job.getId());
+		result.onTimeout(() -> result.setResult(ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+				.location(location).body(job)));
+		job.whenDone().thenAccept(done -> result.setResult(ResponseEntity.ok().location(location).body(done)));
+		return result;
+	}
+
+	/**
+	 * Imports a grant CSV file which is already in imports.local.directory on
+	 * the server, given by its path in that directory. Like an upload the
+	 * import runs in the background. 403 Forbidden is returned for a path
+	 * outside of the directory.
+	 */
+	@PostMapping("/imports/local")
+	public @ResponseBody ResponseEntity<ImportJob> importLocalCsv(@RequestParam("path") String path,
+			@RequestParam(value = "tenant", required = false) String tenant) throws IOException {
+		if (tenant != null && !imports.hasTenant(tenant)) {
+			return ResponseEntity.badRequest().build();
+		}
+		ImportJob job;
+		try {
+			job = imports.submitLocal(tenant == null ? ImportService.DEFAULT_TENANT : tenant, path);
+		} catch (NoSuchFileException e) {
+			return ResponseEntity.notFound().build();
+		} catch (IllegalArgumentException e) {
+			return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+		} catch (RejectedExecutionException e) {
+			return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS).build();
+		}
+		return ResponseEntity.accepted().location(URI.create("/imports/" + job.getId())).body(job);
+	}
+
+	@GetMapping("/imports/{id}")
+	public @ResponseBody ResponseEntity<ImportJob> importStatus(@PathVariable("id") String id) {
+		ImportJob job = imports.getJob(id);
+		return job == null ? ResponseEntity.notFound().build() : ResponseEntity.ok(job);
+	}
+
+}
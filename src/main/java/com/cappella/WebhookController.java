@@ -0,0 +1,46 @@
+package com.cappella;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+
+import com.cappella.asana.AsanaWebhookService;
+
+@Controller
+public class WebhookController {
+
+	static final String HOOK_SECRET = "X-Hook-Secret";
+	static final String HOOK_SIGNATURE = "X-Hook-Signature";
+
+	private final AsanaWebhookService webhooks;
+
+	public WebhookController(AsanaWebhookService webhooks) {
+		this.webhooks = webhooks;
+	}
+
+	/**
+	 * Receives the events of the webhook of an Asana project.
+	 * The first request is the handshake, which is answered with its
+	 * X-Hook-Secret, every later one must be signed with that secret.
+	 * https://developers.asana.com/docs/webhooks
+	 */
+	@PostMapping("/webhooks/asana/{projectGid}")
+	public ResponseEntity<Void> receive(@PathVariable("projectGid") String projectGid,
+			@RequestHeader(value = HOOK_SECRET, required = false) String secret,
+			@RequestHeader(value = HOOK_SIGNATURE, required = false) String signature,
+			@RequestBody(required = false) byte[] body) {
+		if (secret != null) {
+			return webhooks.handshake(projectGid, secret)
+					? ResponseEntity.ok().header(HOOK_SECRET, secret).build()
+					: ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+		}
+		return webhooks.receive(projectGid, body == null ? new byte[0] : body, signature)
+				? ResponseEntity.ok().build()
+				: ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+	}
+
+}
@@ -0,0 +1,308 @@
+package com.cappella.asana;
+
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+import com.asana.models.NextPage;
+import com.asana.models.Project;
+import com.asana.models.ResultBodyCollection;
+import com.asana.models.Section;
+import com.asana.models.Task;
+import com.asana.models.Workspace;
+import com.google.api.client.util.DateTime;
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * Talks to the Asana REST API with the non-blocking java.net.http.HttpClient
+ * instead of the thread-per-request com.asana.Client.
+ * https://developers.asana.com/docs/overview
+ *
+ * Every call returns a CompletableFuture straight away and no thread waits
+ * while the request is on the wire or while it waits for the rate limit, so
+ * the number of calls in flight is not tied to the number of threads.
+ * The one HttpClient keeps its connections open between calls and uses
+ * HTTP/2 when Asana offers it, so calls in flight at the same time share a
+ * connection.
+ *
+ * The calls go through the AsanaRateLimiter like the calls made with the
+ * Client, and fail with an AsanaHttpException when Asana answers with an
+ * error status. Only the operations AsanaClient uses are here.
+ */
+class AsanaAsyncTransport {
+
+    static final String DEFAULT_BASE_URL = "https://app.asana.com/api/1.0";
+
+    private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(10);
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(60);
+    private static final String HTTP_GET = "GET";
+    private static final String HTTP_POST = "POST";
+    private static final String RETRY_AFTER = "Retry-After";
+    private static final String DATA = "data";
+    private static final String ERRORS = "errors";
+    private static final String NEXT_PAGE = "next_page";
+    private static final String OFFSET = "offset";
+    private static final String LIMIT = "limit";
+    private static final String OPT_FIELDS = "opt_fields";
+    private static final String OPT_PRETTY = "opt_pretty";
+    private static final String GID = "gid";
+    private static final String NAME = "name";
+    private static final String DUE_ON = "due_on";
+    private static final String NUM_SUBTASKS = "num_subtasks";
+    private static final String MEMBERSHIPS = "memberships";
+    private static final String PROJECT = "project";
+    private static final String SECTION = "section";
+    // Asana rejects a limit above 100
+    private static final int MAX_LIMIT = 100;
+
+    private final HttpClient http;
+    private final String baseUrl;
+    private final String authorization;
+    private final AsanaRateLimiter limiter;
+    private final boolean pretty;
+    private final Gson gson = new Gson();
+
+    AsanaAsyncTransport(String baseUrl, String personalAccessToken, AsanaRateLimiter limiter, boolean pretty) {
+        this.http = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(CONNECT_TIMEOUT)
+                .build();
+        this.baseUrl = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
+        this.authorization = "Bearer " + personalAccessToken;
+        this.limiter = limiter;
+        this.pretty = pretty;
+    }
+
+    CompletableFuture<List<Workspace>> getWorkspaces(List<String> fields) {
+        return getAll("getWorkspaces", "/workspaces", fields, AsanaAsyncTransport::toWorkspace);
+    }
+
+    CompletableFuture<List<Project>> getProjects(String workspaceGid, List<String> fields) {
+        return getAll("getProjects", "/workspaces/" + workspaceGid + "/projects?archived=false", fields,
+                AsanaAsyncTransport::toProject);
+    }
+
+    CompletableFuture<List<Section>> getSectionsForProject(String projectGid, List<String> fields) {
+        return getAll("getSectionsForProject", "/projects/" + projectGid + "/sections", fields,
+                AsanaAsyncTransport::toSection);
+    }
+
+    CompletableFuture<Section> createSectionForProject(String projectGid, String name, List<String> fields) {
+        return send("createSectionForProject", 1, HTTP_POST, withFields("/projects/" + projectGid + "/sections",
+                fields), Collections.singletonMap(NAME, name))
+                .thenApply(body -> toSection(body.getAsJsonObject(DATA)));
+    }
+
+    /**
+     * One page of the tasks in the project, starting at the offset from the
+     * previous page or at the beginning if the offset is null.
+     *
+     * @param projectGid
+     * @param fields
+     * @param limit
+     * @param offset
+     * @return CompletableFuture<ResultBodyCollection<Task>>
+     */
+    CompletableFuture<ResultBodyCollection<Task>> getTasksForProject(String projectGid, List<String> fields,
+                                                                     int limit, String offset) {
+        String path = withFields("/projects/" + projectGid + "/tasks?" + LIMIT + "=" + Math.min(limit, MAX_LIMIT),
+                fields);
+        if (offset != null) {
+            path += "&" + OFFSET + "=" + encode(offset);
+        }
+        return send("getTasksForProject", 1, HTTP_GET, path, null).thenApply(body -> {
+            ResultBodyCollection<Task> page = new ResultBodyCollection<>();
+            page.data = new ArrayList<>();
+            for (JsonElement task : body.getAsJsonArray(DATA)) {
+                page.data.add(toTask(task.getAsJsonObject()));
+            }
+            page.nextPage = toNextPage(body);
+            return page;
+        });
+    }
+
+    /**
+     * Sends the actions to the batch API, each action counts against the
+     * rate limit. The future completes with the result of each action in
+     * the order of the actions.
+     *
+     * @param actions
+     * @return CompletableFuture<JsonArray>
+     */
+    CompletableFuture<JsonArray> batch(List<Map<String, Object>> actions) {
+        return send("batch", actions.size(), HTTP_POST, "/batch",
+                Collections.singletonMap("actions", actions))
+                .thenApply(body -> body.getAsJsonArray(DATA));
+    }
+
+    /**
+     * Reads every page of a list.
+     */
+    private <T> CompletableFuture<List<T>> getAll(String operation, String path, List<String> fields,
+                                                  Function<JsonObject, T> convert) {
+        String first = withFields(path + (path.contains("?") ? "&" : "?") + LIMIT + "=" + MAX_LIMIT, fields);
+        return getPages(operation, first, null, convert, new ArrayList<>());
+    }
+
+    private <T> CompletableFuture<List<T>> getPages(String operation, String path, String offset,
+                                                    Function<JsonObject, T> convert, List<T> items) {
+        String page = offset == null ? path : path + "&" + OFFSET + "=" + encode(offset);
+        return send(operation, 1, HTTP_GET, page, null).thenCompose(body -> {
+            for (JsonElement item : body.getAsJsonArray(DATA)) {
+                items.add(convert.apply(item.getAsJsonObject()));
+            }
+            NextPage nextPage = toNextPage(body);
+            if (nextPage == null || nextPage.offset == null) {
+                return CompletableFuture.completedFuture(items);
+            }
+            return getPages(operation, path, nextPage.offset, convert, items);
+        });
+    }
+
+    /**
+     * Sends one request once the rate limit allows, retrying it like
+     * AsanaRateLimiter.execute, and completes with the JSON body of the
+     * response.
+     *
+     * @param operation used in the log
+     * @param permits
+     * @param method
+     * @param path relative to the base URL, including the query
+     * @param data sent as the "data" of the body, null for no body
+     * @return CompletableFuture<JsonObject>
+     */
+    CompletableFuture<JsonObject> send(String operation, int permits, String method, String path, Object data) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(baseUrl + withPretty(path)))
+                .timeout(REQUEST_TIMEOUT)
+                .header("Authorization", authorization)
+                .header("Accept", "application/json");
+        if (data == null) {
+            builder.method(method, HttpRequest.BodyPublishers.noBody());
+        } else {
+            builder.header("Content-Type", "application/json")
+                    .method(method, HttpRequest.BodyPublishers.ofString(
+                            gson.toJson(Collections.singletonMap(DATA, data)), StandardCharsets.UTF_8));
+        }
+        HttpRequest request = builder.build();
+        return limiter.executeAsync(operation, permits, () ->
+                http.sendAsync(request, HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8))
+                        .thenCompose(AsanaAsyncTransport::toBody));
+    }
+
+    private static CompletableFuture<JsonObject> toBody(HttpResponse<String> response) {
+        int status = response.statusCode();
+        JsonObject body;
+        try {
+            JsonElement parsed = JsonParser.parseString(response.body());
+            body = parsed.isJsonObject() ? parsed.getAsJsonObject() : new JsonObject();
+        } catch (RuntimeException e) {
+            body = new JsonObject();
+        }
+        if (status >= 200 && status < 300) {
+            return CompletableFuture.completedFuture(body);
+        }
+        long retryAfter = 0;
+        try {
+            retryAfter = response.headers().firstValue(RETRY_AFTER).map(String::trim).map(Long::parseLong)
+                    .orElse(0L);
+        } catch (NumberFormatException e) {
+            // a Retry-After date is treated as missing
+        }
+        return CompletableFuture.failedFuture(new AsanaHttpException(status, retryAfter,
+                response.request().method() + " " + response.request().uri().getPath() + " " + body.get(ERRORS)));
+    }
+
+    private String withPretty(String path) {
+        return pretty ? path + (path.contains("?") ? "&" : "?") + OPT_PRETTY + "=true" : path;
+    }
+
+    private static String withFields(String path, List<String> fields) {
+        if (fields == null) {
+            return path;
+        }
+        return path + (path.contains("?") ? "&" : "?") + OPT_FIELDS + "=" + encode(String.join(",", fields));
+    }
+
+    private static String encode(String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8);
+    }
+
+    private static NextPage toNextPage(JsonObject body) {
+        JsonElement next = body.get(NEXT_PAGE);
+        if (next == null || !next.isJsonObject()) {
+            return null;
+        }
+        NextPage nextPage = new NextPage();
+        nextPage.offset = getString(next.getAsJsonObject(), OFFSET);
+        return nextPage;
+    }
+
+    private static Workspace toWorkspace(JsonObject json) {
+        Workspace workspace = new Workspace();
+        workspace.gid = getString(json, GID);
+        workspace.name = getString(json, NAME);
+        return workspace;
+    }
+
+    private static Project toProject(JsonObject json) {
+        Project project = new Project();
+        project.gid = getString(json, GID);
+        project.name = getString(json, NAME);
+        return project;
+    }
+
+    static Section toSection(JsonObject json) {
+        Section section = new Section();
+        section.gid = getString(json, GID);
+        section.name = getString(json, NAME);
+        return section;
+    }
+
+    /**
+     * Reads the fields asked for with AsanaClient.TASK_LIST_FIELDS.
+     */
+    static Task toTask(JsonObject json) {
+        Task task = new Task();
+        task.gid = getString(json, GID);
+        task.name = getString(json, NAME);
+        String dueOn = getString(json, DUE_ON);
+        task.dueOn = dueOn == null ? null : DateTime.parseRfc3339(dueOn);
+        JsonElement numSubtasks = json.get(NUM_SUBTASKS);
+        task.numSubtasks = numSubtasks == null || numSubtasks.isJsonNull() ? 0 : numSubtasks.getAsInt();
+        JsonElement memberships = json.get(MEMBERSHIPS);
+        if (memberships != null && memberships.isJsonArray()) {
+            task.memberships = new ArrayList<>();
+            for (JsonElement element : memberships.getAsJsonArray()) {
+                JsonObject membershipJson = element.getAsJsonObject();
+                Task.Membership membership = new Task.Membership();
+                if (membershipJson.has(PROJECT) && membershipJson.get(PROJECT).isJsonObject()) {
+                    membership.project = toProject(membershipJson.getAsJsonObject(PROJECT));
+                }
+                if (membershipJson.has(SECTION) && membershipJson.get(SECTION).isJsonObject()) {
+                    membership.section = toSection(membershipJson.getAsJsonObject(SECTION));
+                }
+                task.memberships.add(membership);
+            }
+        }
+        return task;
+    }
+
+    private static String getString(JsonObject json, String member) {
+        JsonElement value = json.get(member);
+        return value == null || value.isJsonNull() ? null : value.getAsString();
+    }
+}
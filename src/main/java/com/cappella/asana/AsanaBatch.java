@@ -0,0 +1,458 @@
+package com.cappella.asana;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.IntPredicate;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.asana.Client;
+import com.asana.requests.ItemRequest;
+import com.cappella.metrics.ImportMetrics;
+import com.cappella.model.Problems;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+/**
+ * Collects task and section actions and sends them to the Asana batch API
+ * https://developers.asana.com/docs/batch-api
+ * which accepts up to MAX_ACTIONS actions in a single request.
+ * A full batch is sent as soon as it is collected, the remaining actions are
+ * sent by flush(). Batches are sent on the Executor so several can be in
+ * flight at once.
+ * The callback of an action is run with the "data" of its result when the
+ * action succeeded, a task for a POST or PUT and a list for a GET, every page
+ * of which is read before its callback is run. When it failed the failure handler is run with the
+ * status code, 0 if the whole batch failed, and unless the handler returns
+ * true the failure is added to the Problems. Callbacks may
+ * add further actions, for example to put a newly created task into a section.
+ * Each action counts against the rate limit, actions rejected with 429 Too Many
+ * Requests are sent again in a smaller batch.
+ * With an AsanaAsyncTransport the batches are sent without the Executor and
+ * up to maxInFlight batches wait for Asana at once without holding a thread,
+ * adding an action blocks while that many are in flight.
+ * Each action is timed in the ImportMetrics under its operation, from when
+ * its batch is sent until Asana answers, including any wait for the rate limit.
+ */
+class AsanaBatch {
+
+    static final int MAX_ACTIONS = 10;
+
+    private static final String BATCH_PATH = "/batch";
+    private static final String BATCH_ACTIONS = "actions";
+    private static final String BATCH_METHOD = "method";
+    private static final String BATCH_RELATIVE_PATH = "relative_path";
+    private static final String BATCH_DATA = "data";
+    private static final String BATCH_OPTIONS = "options";
+    private static final String BATCH_FIELDS = "fields";
+    private static final String BATCH_LIMIT = "limit";
+    private static final String BATCH_OFFSET = "offset";
+    private static final String BATCH_NEXT_PAGE = "next_page";
+    private static final String HTTP_GET = "GET";
+    // Asana rejects a limit above 100
+    private static final int MAX_LIMIT = 100;
+    private static final String BATCH_BODY = "body";
+    private static final String BATCH_STATUS_CODE = "status_code";
+    private static final String BATCH_ERRORS = "errors";
+    private static final String BATCH_HEADERS = "headers";
+    private static final String RETRY_AFTER = "Retry-After";
+    private static final int TOO_MANY_REQUESTS = 429;
+    private static final int NOT_FOUND = 404;
+
+    private final Logger LOGGER = LoggerFactory.getLogger(getClass());
+
+    private final Client client;
+    private final AsanaAsyncTransport transport;
+    private final Semaphore inFlightBatches;
+    private final AsanaRateLimiter limiter;
+    private final Executor executor;
+    private final Problems problems;
+    private volatile ImportMetrics metrics = ImportMetrics.NONE;
+    private List<Action> pending = new ArrayList<>();
+    private final List<CompletableFuture<Void>> inFlight = new ArrayList<>();
+    private final AtomicInteger notFound = new AtomicInteger();
+
+    AsanaBatch(Client client, AsanaRateLimiter limiter, Executor executor, Problems problems) {
+        this(client, null, 0, limiter, executor, problems);
+    }
+
+    /**
+     * The batches are sent through the transport unless it is null, in
+     * which case they are sent with the Client on the Executor.
+     *
+     * @param client
+     * @param transport
+     * @param maxInFlight only used with the transport
+     * @param limiter
+     * @param executor
+     * @param problems
+     */
+    AsanaBatch(Client client, AsanaAsyncTransport transport, int maxInFlight, AsanaRateLimiter limiter,
+               Executor executor, Problems problems) {
+        this.client = client;
+        this.transport = transport;
+        this.inFlightBatches = transport == null ? null : new Semaphore(Math.max(1, maxInFlight));
+        this.limiter = limiter;
+        this.executor = executor;
+        this.problems = problems;
+    }
+
+    void setMetrics(ImportMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * The fields are the only fields Asana returns in the "data" passed to
+     * the callback, the callback and failure handler may be null.
+     *
+     * @param operation the name of the action in the metrics, such as createTask
+     * @param method
+     * @param relativePath
+     * @param data
+     * @param fields
+     * @param callback
+     * @param failure
+     */
+    void add(String operation, String method, String relativePath, Map<String, Object> data, List<String> fields,
+             Consumer<JsonObject> callback, IntPredicate failure) {
+        Consumer<JsonObject> dataCallback = callback == null ? null : body -> {
+            JsonElement result = body.get(BATCH_DATA);
+            callback.accept(result != null && result.isJsonObject() ? result.getAsJsonObject() : new JsonObject());
+        };
+        add(new Action(operation, method, relativePath, data, options(fields, null), dataCallback, failure));
+    }
+
+    /**
+     * Reads a list, such as the subtasks of a task, 100 items a page. Each
+     * following page is read by an action in a later batch, and the callback
+     * is run with the items of every page once the last one has been read.
+     * The fields are the only fields Asana returns for each item in the
+     * list passed to the callback, the failure handler may be null and is
+     * run at most once, for the first page which failed.
+     *
+     * @param operation
+     * @param relativePath
+     * @param fields
+     * @param callback
+     * @param failure
+     */
+    void addGet(String operation, String relativePath, List<String> fields, Consumer<JsonArray> callback,
+                IntPredicate failure) {
+        addPage(operation, relativePath, fields, null, new JsonArray(), callback, failure);
+    }
+
+    private void addPage(String operation, String relativePath, List<String> fields, String offset, JsonArray items,
+                         Consumer<JsonArray> callback, IntPredicate failure) {
+        Map<String, Object> options = options(fields, MAX_LIMIT);
+        if (offset != null) {
+            options.put(BATCH_OFFSET, offset);
+        }
+        add(new Action(operation, HTTP_GET, relativePath, null, options, body -> {
+            JsonElement page = body.get(BATCH_DATA);
+            if (page != null && page.isJsonArray()) {
+                items.addAll(page.getAsJsonArray());
+            }
+            String nextOffset = getNextOffset(body);
+            if (nextOffset != null) {
+                addPage(operation, relativePath, fields, nextOffset, items, callback, failure);
+            } else {
+                callback.accept(items);
+            }
+        }, failure));
+    }
+
+    /**
+     * Will return null if the body is the last page of a list.
+     *
+     * @param body
+     * @return String
+     */
+    private static String getNextOffset(JsonObject body) {
+        JsonElement nextPage = body.get(BATCH_NEXT_PAGE);
+        if (nextPage != null && nextPage.isJsonObject()) {
+            JsonElement offset = nextPage.getAsJsonObject().get(BATCH_OFFSET);
+            if (offset != null && offset.isJsonPrimitive()) {
+                return offset.getAsString();
+            }
+        }
+        return null;
+    }
+
+    private void add(Action action) {
+        List<Action> full = null;
+        synchronized (this) {
+            pending.add(action);
+            if (pending.size() >= MAX_ACTIONS) {
+                full = pending;
+                pending = new ArrayList<>();
+            }
+        }
+        if (full != null) {
+            submit(full);
+        }
+    }
+
+    /**
+     * Sends the actions that are still pending and waits until every batch,
+     * including the actions added by callbacks, has been answered by Asana.
+     */
+    void flush() {
+        while (true) {
+            List<Action> remaining = null;
+            CompletableFuture<?>[] waitFor;
+            synchronized (this) {
+                if (!pending.isEmpty()) {
+                    remaining = pending;
+                    pending = new ArrayList<>();
+                }
+            }
+            if (remaining != null) {
+                submit(remaining);
+            }
+            synchronized (this) {
+                if (inFlight.isEmpty()) {
+                    return;
+                }
+                waitFor = inFlight.toArray(new CompletableFuture<?>[0]);
+                inFlight.clear();
+            }
+            CompletableFuture.allOf(waitFor).join();
+        }
+    }
+
+    /**
+     * The number of actions Asana answered with 404 Not Found.
+     *
+     * @return int
+     */
+    int getNotFoundCount() {
+        return notFound.get();
+    }
+
+    private void submit(List<Action> actions) {
+        CompletableFuture<Void> future;
+        if (transport == null) {
+            future = CompletableFuture.runAsync(() -> send(actions), executor);
+        } else {
+            inFlightBatches.acquireUninterruptibly();
+            future = sendAsync(actions, 0, inFlightBatches::release);
+        }
+        synchronized (this) {
+            inFlight.add(future);
+        }
+    }
+
+    private void send(List<Action> actions) {
+        send(actions, 0);
+    }
+
+    private void send(List<Action> actions, int attempt) {
+        long start = System.nanoTime();
+        JsonArray results;
+        try {
+            JsonElement response = limiter.execute("batch", actions.size(), () ->
+                    new ItemRequest<>(client.tasks, JsonElement.class, BATCH_PATH, "POST")
+                            .data(BATCH_ACTIONS, toBatchActions(actions))
+                            .execute());
+            results = response.getAsJsonArray();
+        } catch (Exception e) {
+            failed(actions, e, start);
+            return;
+        }
+        List<Action> rateLimited = handleResults(actions, results, attempt, start);
+        if (!rateLimited.isEmpty()) {
+            send(rateLimited, attempt + 1);
+        }
+    }
+
+    /**
+     * The batch stops counting as in flight when Asana answers, before the
+     * callbacks run, since a callback may have to wait to add a batch.
+     */
+    private CompletableFuture<Void> sendAsync(List<Action> actions, int attempt, Runnable answered) {
+        long start = System.nanoTime();
+        return transport.batch(toBatchActions(actions))
+                .whenComplete((results, error) -> answered.run())
+                .handle((results, error) -> {
+                    if (error != null) {
+                        failed(actions, error instanceof CompletionException && error.getCause() != null
+                                ? error.getCause() : error, start);
+                        return CompletableFuture.<Void>completedFuture(null);
+                    }
+                    List<Action> rateLimited = handleResults(actions, results, attempt, start);
+                    return rateLimited.isEmpty() ? CompletableFuture.<Void>completedFuture(null)
+                            : sendAsync(rateLimited, attempt + 1, () -> { });
+                })
+                .thenCompose(next -> next);
+    }
+
+    private static List<Map<String, Object>> toBatchActions(List<Action> actions) {
+        List<Map<String, Object>> body = new ArrayList<>();
+        for (Action action : actions) {
+            body.add(action.toBatchAction());
+        }
+        return body;
+    }
+
+    private void failed(List<Action> actions, Throwable e, long start) {
+        problems.addError(Problems.ERROR_FROM_ASANA, e.toString());
+        LOGGER.debug("error sending batch of " + actions.size() + " actions " + e.toString());
+        long elapsed = System.nanoTime() - start;
+        for (Action action : actions) {
+            metrics.asanaCall(action.operation, elapsed, ImportMetrics.OUTCOME_ERROR);
+            action.failed(0);
+        }
+    }
+
+    /**
+     * Runs the callback or failure handler of each action.
+     *
+     * @param actions
+     * @param results
+     * @param attempt
+     * @param start when the batch was sent
+     * @return List<Action> the actions rejected by the rate limit which should be sent again
+     */
+    private List<Action> handleResults(List<Action> actions, JsonArray results, int attempt, long start) {
+        List<Action> rateLimited = new ArrayList<>();
+        long retryAfter = 0;
+        long elapsed = System.nanoTime() - start;
+        for (int i = 0; i < actions.size(); i++) {
+            Action action = actions.get(i);
+            if (results == null || i >= results.size()) {
+                action.failed(0);
+                problems.addError(Problems.ERROR_FROM_ASANA, "No batch result for " + action);
+                continue;
+            }
+            JsonObject result = results.get(i).getAsJsonObject();
+            int status = result.get(BATCH_STATUS_CODE).getAsInt();
+            metrics.asanaCall(action.operation, elapsed, status >= 200 && status < 300
+                    ? ImportMetrics.OUTCOME_SUCCESS : ImportMetrics.OUTCOME_ERROR);
+            JsonObject resultBody = result.has(BATCH_BODY) && result.get(BATCH_BODY).isJsonObject()
+                    ? result.getAsJsonObject(BATCH_BODY) : new JsonObject();
+            if (status == TOO_MANY_REQUESTS && attempt < limiter.getMaxRetries()) {
+                metrics.asanaRetry(action.operation, "rate_limited");
+                rateLimited.add(action);
+                retryAfter = Math.max(retryAfter, getRetryAfter(result));
+            } else if (status >= 200 && status < 300) {
+                if (action.callback != null) {
+                    try {
+                        action.callback.accept(resultBody);
+                    } catch (RuntimeException e) {
+                        problems.addError(Problems.ERROR_FROM_ASANA, e.toString());
+                        LOGGER.debug("error handling batch result " + action + " " + e.toString());
+                    }
+                }
+            } else {
+                if (status == NOT_FOUND) {
+                    notFound.incrementAndGet();
+                }
+                if (!action.failed(status)) {
+                    problems.addError(Problems.ERROR_FROM_ASANA, status + " " + action + " "
+                            + resultBody.get(BATCH_ERRORS));
+                    LOGGER.debug("error from batch action " + action + " " + status);
+                }
+            }
+        }
+        if (!rateLimited.isEmpty()) {
+            limiter.onRateLimited(retryAfter);
+            LOGGER.debug("rate limited " + rateLimited.size() + " batch actions retry " + (attempt + 1));
+        }
+        return rateLimited;
+    }
+
+    private static Map<String, Object> options(List<String> fields, Integer limit) {
+        Map<String, Object> options = new HashMap<>();
+        if (fields != null) {
+            options.put(BATCH_FIELDS, fields);
+        }
+        if (limit != null) {
+            options.put(BATCH_LIMIT, limit);
+        }
+        return options;
+    }
+
+    /**
+     * Will return 0 if the result does not have a Retry-After header.
+     *
+     * @param result
+     * @return long seconds
+     */
+    private long getRetryAfter(JsonObject result) {
+        JsonElement headers = result.get(BATCH_HEADERS);
+        if (headers != null && headers.isJsonObject()) {
+            for (Map.Entry<String, JsonElement> header : headers.getAsJsonObject().entrySet()) {
+                if (RETRY_AFTER.equalsIgnoreCase(header.getKey())) {
+                    try {
+                        return Long.parseLong(header.getValue().getAsString().trim());
+                    } catch (RuntimeException e) {
+                        return 0;
+                    }
+                }
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * A single request inside a batch.
+     */
+    private static class Action {
+
+        private final String operation;
+        private final String method;
+        private final String relativePath;
+        private final Map<String, Object> data;
+        private final Map<String, Object> options;
+        // run with the body of the result, its "data" and for a list its "next_page"
+        private final Consumer<JsonObject> callback;
+        private final IntPredicate failure;
+
+        Action(String operation, String method, String relativePath, Map<String, Object> data,
+               Map<String, Object> options, Consumer<JsonObject> callback, IntPredicate failure) {
+            this.operation = operation;
+            this.method = method;
+            this.relativePath = relativePath;
+            this.data = data;
+            this.options = options;
+            this.callback = callback;
+            this.failure = failure;
+        }
+
+        /**
+         * @param status
+         * @return true if the failure handler dealt with the failure
+         */
+        boolean failed(int status) {
+            return failure != null && failure.test(status);
+        }
+
+        Map<String, Object> toBatchAction() {
+            Map<String, Object> action = new HashMap<>();
+            action.put(BATCH_METHOD, method);
+            action.put(BATCH_RELATIVE_PATH, relativePath);
+            if (data != null) {
+                action.put(BATCH_DATA, data);
+            }
+            if (!options.isEmpty()) {
+                action.put(BATCH_OPTIONS, options);
+            }
+            return action;
+        }
+
+        @Override
+        public String toString() {
+            return method + " " + relativePath;
+        }
+    }
+}
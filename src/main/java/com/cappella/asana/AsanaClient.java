@@ -1,34 +1,69 @@
 package com.cappella.asana;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.IntPredicate;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import javax.annotation.PostConstruct;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import com.asana.Client;
+import com.asana.errors.NotFoundError;
 import com.asana.models.Project;
-import com.asana.models.ResultBody;
 import com.asana.models.ResultBodyCollection;
 import com.asana.models.Section;
 import com.asana.models.Task;
 import com.asana.models.Workspace;
 import com.asana.requests.CollectionRequest;
 import com.asana.requests.ItemRequest;
+import com.cappella.metrics.ImportMetrics;
 import com.cappella.model.Problems;
+import com.cappella.model.SubTask;
+import com.cappella.model.SyncSummary;
 import com.cappella.model.TaskData;
+import com.google.api.client.util.DateTime;
+import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
 
 /**
  * This class handles the communication with Asana.
  * It currently uses a Personal Access Token
  * https://developers.asana.com/docs/personal-access-token
+ * Calls are made with the java-asana Client, or with the non-blocking
+ * AsanaAsyncTransport when asana.transport is http.
  * The workspace name and project name must be valid for the Asana workspace
  * or communication will fail.
  *
@@ -41,20 +76,117 @@ public class AsanaClient {
     private static final String ASANA_PRETTY = "pretty";
     private static final String ASANA_NAME = "name";
     private static final String ASANA_DUE_ON = "due_on";
-    private static final String ASANA_SECTION = "section";
+    private static final String ASANA_GID = "gid";
     private static final String ASANA_TASK = "task";
     private static final String ASANA_WORKSPACE = "workspace";
-    private static final String ASANA_PROJECT = "project";
+    private static final String ASANA_PROJECTS = "projects";
+    private static final String ASANA_FIELDS = "fields";
+    private static final String ASANA_LIMIT = "limit";
+    private static final String ASANA_OFFSET = "offset";
+    private static final String ASANA_RESOURCE = "resource";
+    private static final String ASANA_RESOURCE_TYPE = "resource_type";
+    private static final String ASANA_SECTION = "section";
+    private static final String ASANA_TARGET = "target";
+    private static final String ASANA_FILTERS = "filters";
+    
+    // Asana rejects a limit above 100
+    static final int DEFAULT_PAGE_SIZE = 100;
+    static final int DEFAULT_UPSERT_CONCURRENCY = 4;
+    static final int DEFAULT_CACHE_TTL_SECONDS = 600;
+    static final int DEFAULT_CACHE_MAX_SIZE = 100;
+    static final int DEFAULT_PIPELINE_QUEUE_SIZE = 1000;
+    static final int DEFAULT_JOURNAL_CHECKPOINT_ROWS = 500;
+    private static final long PIPELINE_SHUTDOWN_SECONDS = 30;
+    
+    private static final String HTTP_GET = "GET";
+    private static final String HTTP_POST = "POST";
+    private static final String HTTP_PUT = "PUT";
+    private static final String HTTP_DELETE = "DELETE";
+    private static final int FORBIDDEN = 403;
+    private static final int NOT_FOUND = 404;
+    // The fields each call asks Asana for, Asana always returns the gid as well.
+    // Only asking for what is used keeps the responses, and parsing them, small.
+    private static final List<String> WORKSPACE_FIELDS = Collections.singletonList(ASANA_NAME);
+    private static final List<String> PROJECT_FIELDS = Collections.singletonList(ASANA_NAME);
+    private static final List<String> SECTION_FIELDS = Collections.singletonList(ASANA_NAME);
+    private static final List<String> TASK_RESULT_FIELDS = Collections.singletonList(ASANA_NAME);
+    // the fields needed to tell whether a task in Asana differs from the TaskData
+    private static final List<String> TASK_LIST_FIELDS = Arrays.asList(ASANA_NAME, ASANA_DUE_ON,
+            "memberships.project", "memberships.section.name", "num_subtasks");
+    private static final List<String> SUBTASK_FIELDS = Arrays.asList(ASANA_NAME, ASANA_DUE_ON);
+    // numSubtasks of a Task that was not read with TASK_LIST_FIELDS
+    private static final int UNKNOWN_SUBTASKS = -1;
     
     private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd",
             Locale.ENGLISH);
     
+    private static final String ASANA_MAX_RETRIES = "max_retries";
+    private static final String ASANA_BASE_URL = "base_url";
+    // asana.transport values, the java-asana Client or the non-blocking AsanaAsyncTransport
+    static final String TRANSPORT_CLIENT = "client";
+    static final String TRANSPORT_HTTP = "http";
+    // marks the end of the tasks handed from the parsing thread to the sync
+    private static final TaskData END_OF_TASKS = new TaskData();
+    
     private final Client client;
+    private final String personalAccessToken;
+    private final AsanaRateLimiter limiter;
+    // null unless asana.transport is http
+    private AsanaAsyncTransport transport;
+    private ImportMetrics metrics = ImportMetrics.NONE;
+    // name -> workspace, workspace gid/name -> project and project gid -> sections
+    private final TtlCache<String, Workspace> workspaceCache;
+    private final TtlCache<String, Project> projectCache;
+    private final TtlCache<String, Map<String, Section>> sectionCache;
+    // project gid -> mirror kept by the AsanaWebhookService, empty unless webhooks are configured
+    private final Map<String, ProjectMirror> mirrors = new ConcurrentHashMap<>();
+    // "<project gid>/<section name>" -> the section being created
+    private final Map<String, CompletableFuture<Section>> sectionCreates = new ConcurrentHashMap<>();
+    
+    @Value("${asana.rate.limit.per.minute:" + AsanaRateLimiter.DEFAULT_REQUESTS_PER_MINUTE + "}")
+    private int rateLimitPerMinute = AsanaRateLimiter.DEFAULT_REQUESTS_PER_MINUTE;
+    
+    @Value("${asana.max.retries:" + AsanaRateLimiter.DEFAULT_MAX_RETRIES + "}")
+    private int maxRetries = AsanaRateLimiter.DEFAULT_MAX_RETRIES;
+    
+    @Value("${asana.cache.ttl.seconds:" + DEFAULT_CACHE_TTL_SECONDS + "}")
+    private int cacheTtlSeconds = DEFAULT_CACHE_TTL_SECONDS;
+    
+    @Value("${asana.cache.max.size:" + DEFAULT_CACHE_MAX_SIZE + "}")
+    private int cacheMaxSize = DEFAULT_CACHE_MAX_SIZE;
+    
+    // one GrantTaskIndex file per project is kept here, no index is kept when blank
+    @Value("${asana.index.directory:}")
+    private String indexDirectory;
+    
+    // one ImportJournal file per project is kept here, imports are not resumable when blank
+    @Value("${asana.journal.directory:}")
+    private String journalDirectory;
+    
+    @Value("${asana.journal.checkpoint.rows:" + DEFAULT_JOURNAL_CHECKPOINT_ROWS + "}")
+    private int journalCheckpointRows = DEFAULT_JOURNAL_CHECKPOINT_ROWS;
+    
+    // pretty printed responses are only worth their extra bytes when debugging
+    @Value("${asana.pretty:false}")
+    private boolean pretty;
+    
+    @Value("${asana.page.size:" + DEFAULT_PAGE_SIZE + "}")
+    private int pageSize = DEFAULT_PAGE_SIZE;
+    
+    @Value("${asana.upsert.concurrency:" + DEFAULT_UPSERT_CONCURRENCY + "}")
+    private int upsertConcurrency = DEFAULT_UPSERT_CONCURRENCY;
+    
+    @Value("${asana.pipeline.queue.size:" + DEFAULT_PIPELINE_QUEUE_SIZE + "}")
+    private int pipelineQueueSize = DEFAULT_PIPELINE_QUEUE_SIZE;
+    
+    @Value("${asana.transport:" + TRANSPORT_CLIENT + "}")
+    private String transportName = TRANSPORT_CLIENT;
+    
+    // only changed to talk to a stand-in for Asana, such as the MockAsanaServer of the tests
+    @Value("${asana.base.url:" + AsanaAsyncTransport.DEFAULT_BASE_URL + "}")
+    private String baseUrl = AsanaAsyncTransport.DEFAULT_BASE_URL;
     
     // TODO
-    // * handle pagination
-    // * add subtasks
-    // * update subtasks
     // * once Description is added to TaskData need to update/insert it here
     
     /**
@@ -64,6 +196,93 @@ public class AsanaClient {
      */
     public AsanaClient(@Value("${asana.token}") String personalAccessToken) {
         client = Client.accessToken(personalAccessToken);
+        this.personalAccessToken = personalAccessToken;
+        // retries are handled by the AsanaRateLimiter so it can see every 429
+        client.options.put(ASANA_MAX_RETRIES, 0);
+        limiter = new AsanaRateLimiter(rateLimitPerMinute, maxRetries);
+        long cacheTtlMillis = TimeUnit.SECONDS.toMillis(cacheTtlSeconds);
+        workspaceCache = new TtlCache<>(cacheTtlMillis, cacheMaxSize);
+        projectCache = new TtlCache<>(cacheTtlMillis, cacheMaxSize);
+        sectionCache = new TtlCache<>(cacheTtlMillis, cacheMaxSize);
+    }
+    
+    /**
+     * Times the calls to Asana, without it nothing is recorded.
+     *
+     * @param metrics
+     */
+    @Autowired(required = false)
+    public void setMetrics(ImportMetrics metrics) {
+        this.metrics = metrics;
+        limiter.setMetrics(metrics);
+    }
+    
+    @PostConstruct
+    void configure() {
+        limiter.configure(rateLimitPerMinute, maxRetries);
+        long cacheTtlMillis = TimeUnit.SECONDS.toMillis(cacheTtlSeconds);
+        workspaceCache.configure(cacheTtlMillis, cacheMaxSize);
+        projectCache.configure(cacheTtlMillis, cacheMaxSize);
+        sectionCache.configure(cacheTtlMillis, cacheMaxSize);
+        client.options.put(ASANA_BASE_URL, baseUrl);
+        transport = TRANSPORT_HTTP.equalsIgnoreCase(transportName)
+                ? new AsanaAsyncTransport(baseUrl, personalAccessToken, limiter, pretty)
+                : null;
+    }
+    
+    /**
+     * A client for another token with the settings of this one, but its own
+     * rate budget, caches and transport, so imports for another organization
+     * do not use up the requests of this token.
+     * Only the projects of this client are mirrored from webhooks.
+     *
+     * @param token
+     * @param requestsPerMinute allowed by the Asana plan of the token
+     * @return AsanaClient
+     */
+    public AsanaClient forToken(String token, int requestsPerMinute) {
+        AsanaClient other = new AsanaClient(token);
+        other.rateLimitPerMinute = requestsPerMinute;
+        other.maxRetries = maxRetries;
+        other.cacheTtlSeconds = cacheTtlSeconds;
+        other.cacheMaxSize = cacheMaxSize;
+        other.indexDirectory = indexDirectory;
+        other.journalDirectory = journalDirectory;
+        other.journalCheckpointRows = journalCheckpointRows;
+        other.pretty = pretty;
+        other.pageSize = pageSize;
+        other.upsertConcurrency = upsertConcurrency;
+        other.pipelineQueueSize = pipelineQueueSize;
+        other.transportName = transportName;
+        other.baseUrl = baseUrl;
+        other.setMetrics(metrics);
+        other.configure();
+        return other;
+    }
+    
+    public int getRateLimitPerMinute() {
+        return rateLimitPerMinute;
+    }
+    
+    /**
+     * Hits, misses and evictions of the workspace, project and section caches
+     * keyed like "projects.hits".
+     *
+     * @return Map<String, Long>
+     */
+    public Map<String, Long> getLookupCacheStats() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        addCacheStats(stats, "workspaces", workspaceCache);
+        addCacheStats(stats, "projects", projectCache);
+        addCacheStats(stats, "sections", sectionCache);
+        return stats;
+    }
+    
+    private void addCacheStats(Map<String, Long> stats, String name, TtlCache<?, ?> cache) {
+        stats.put(name + ".hits", cache.getHits());
+        stats.put(name + ".misses", cache.getMisses());
+        stats.put(name + ".evictions", cache.getEvictions());
+        stats.put(name + ".size", (long) cache.size());
     }
     
     /**
@@ -76,33 +295,59 @@ public class AsanaClient {
      * Problems is a list of all warnings and errors encountered during communication
      * with Asana.
      *
+     * The SyncSummary returned counts the tasks inserted, updated and skipped
+     * because they already matched Asana.
+     *
+     * @param workspaceName
+     * @param projectName
+     * @param tasks
+     * @param problems
+     * @return SyncSummary
+     */
+    public SyncSummary updateOrInsertGrantTasks(String workspaceName, String projectName, List<TaskData> tasks,
+                                                Problems problems) {
+        return updateOrInsertGrantTasks(workspaceName, projectName, tasks, problems, new SyncSummary());
+    }
+
+    /**
+     * As above but counts into the summary given, so that the progress
+     * can be read while the tasks are being sent to Asana.
+     *
      * @param workspaceName
      * @param projectName
      * @param tasks
      * @param problems
+     * @param summary
+     * @return SyncSummary
      */
-    public void updateOrInsertGrantTasks(String workspaceName, String projectName, List<TaskData> tasks,
-                                         Problems problems) {
+    public SyncSummary updateOrInsertGrantTasks(String workspaceName, String projectName, List<TaskData> tasks,
+                                                Problems problems, SyncSummary summary) {
         // TODO - ensure all parameters are not null
         Workspace workspace = getWorkspace(workspaceName, problems);
         if (workspace != null) {
             Project project = getProject(workspace, projectName, problems);
             if (project != null) {
-                updateOrInsertTasks(workspace, project, tasks, problems);
+                updateOrInsertTasks(workspace, project, tasks, summary, problems);
             }
         }
+        return summary;
     }
     
     Workspace getWorkspace(String workspaceName, Problems problems) {
-        Workspace workspace = null;
+        Workspace workspace = workspaceCache.get(workspaceName);
+        if (workspace != null) {
+            return workspace;
+        }
         try {
-            List<Workspace> workspaces = client.workspaces.getWorkspaces()
-                    .option(ASANA_PRETTY, true)
-                    .execute();
+            List<Workspace> workspaces = transport != null ? join(transport.getWorkspaces(WORKSPACE_FIELDS))
+                    : limiter.execute("getWorkspaces", () ->
+                            select(client.workspaces.getWorkspaces(), WORKSPACE_FIELDS)
+                                    .execute());
+            // cache every workspace since the whole list has been read anyway
             for (Workspace temp : workspaces) {
+                workspaceCache.put(temp.name, temp);
                 if (temp.name.equals(workspaceName)) {
                     workspace = temp;
-                    return workspace;
                 }
             }
         } catch (Exception e) {
@@ -116,18 +361,27 @@ public class AsanaClient {
     }
     
     Project getProject(Workspace workspace, String projectName, Problems problems) {
-        Project project = null;
+        Project project = projectCache.get(workspace.gid + "/" + projectName);
+        if (project != null) {
+            return project;
+        }
         try {
-            List<Project> projects = client.projects.getProjects(false, null, workspace.gid)
-                    .option(ASANA_PRETTY, true)
-                    .execute();
+            List<Project> projects = transport != null
+                    ? join(transport.getProjects(workspace.gid, PROJECT_FIELDS))
+                    : limiter.execute("getProjects", () ->
+                            select(client.projects.getProjects(false, null, workspace.gid), PROJECT_FIELDS)
+                                    .execute());
+            // cache every project since the whole list has been read anyway
             for (Project temp : projects) {
+                projectCache.put(workspace.gid + "/" + temp.name, temp);
                 if (temp.name.equals(projectName)) {
                     project = temp;
-                    break;
                 }
             }
         } catch (Exception e) {
+            if (isNotFound(e)) {
+                invalidateWorkspace(workspace.gid);
+            }
             problems.addError(Problems.ERROR_FROM_ASANA, e.toString());
             LOGGER.debug("error getting project " + e.toString());
         }
@@ -141,56 +395,644 @@ public class AsanaClient {
     /**
      * The flow for updating or inserting is:
      * 1 - Get the list of tasks that exist in Asana. Asana only returns a list.
+     *     This is skipped when every task is already in the GrantTaskIndex,
+     *     and the ProjectMirror is used instead when it is fresh.
      * 2 - Put the list from Asana into a map so it is easy to see if the
      *     tasks passed in are existing and so should be updated.
      * 3 - Iterate over the list of tasks passed in.
      *       a. Ensure the task has a name.  Without a name it is malformed and must be ignored.
-     *       b. If it exists in the map from Asana then update it.
-     *       c. Else insert it.
+     *       b. If it is in the index with the same content it is skipped, unless the
+     *          tasks from Asana are at hand and do not have it any more.
+     *       c. If it exists in the map from Asana then update whatever differs,
+     *          or skip it when nothing differs.
+     *       d. If it is only in the index update the task with the gid from the index.
+     *       e. Else insert it.
+     * 4 - Send the updates and inserts to Asana in batches.
+     * 5 - Record the gid and content of every task Asana accepted in the index,
+     *     and remove the grants which are no longer in the tasks passed in.
+     *
+     * Up to asana.upsert.concurrency batches are sent to Asana at the same time,
+     * each on its own thread unless asana.transport is http.
+     * The calls for one task keep their order since an inserted task is only
+     * put into its section once Asana has returned the new task.
      *
      * @param workspace
      * @param project
      * @param tasks
+     * @param summary
      * @param problems
      */
-    void updateOrInsertTasks(Workspace workspace, Project project, List<TaskData> tasks, Problems problems){
-        List<Task> projectTasks = getProjectTasks(project, problems);
-        Map<String, Task> taskMap = null;
-        if (projectTasks != null) {
-            taskMap = new HashMap<>();
-            for (Task temp : projectTasks) {
-                taskMap.put(temp.name, temp);
+    void updateOrInsertTasks(Workspace workspace, Project project, List<TaskData> tasks, SyncSummary summary,
+                             Problems problems){
+        GrantTaskIndex index = openIndex(project, problems);
+        ExecutorService batches = Executors.newFixedThreadPool(Math.max(1, upsertConcurrency));
+        try {
+            boolean readTasks = index == null || !isEveryTaskIndexed(index, tasks);
+            if (!readTasks) {
+                LOGGER.debug("every task is indexed, not reading the project tasks");
+            }
+            // the whole list is known so the project tasks are read on this thread
+            SyncContext sync = prepareSync(workspace, project, readTasks, index, null, batches, Runnable::run,
+                    summary, problems);
+            long start = System.nanoTime();
+            for (TaskData taskData : tasks) {
+                upsertTask(sync, taskData);
+                if (sync.isTaskMapFailed()) {
+                    LOGGER.info("stopped the import, the tasks in project " + project.gid + " could not be read");
+                    break;
+                }
+            }
+            finishSync(sync, start);
+            if (index != null && !problems.getErrors().containsKey(Problems.ERROR_PARSING_CSV_FILE)) {
+                Set<String> keys = new HashSet<>();
+                for (TaskData taskData : tasks) {
+                    keys.add(GrantTaskIndex.key(taskData));
+                }
+                retainIndexed(sync, keys);
+            }
+        } finally {
+            batches.shutdown();
+            closeIndex(index);
+        }
+    }
+    
+    /**
+     * The same as updateOrInsertGrantTasks with a List, except that each task
+     * is sent to Asana as soon as the Stream produces it instead of after the
+     * whole CSV file has been parsed.
+     *
+     * The Stream is consumed on its own thread and the tasks are handed over
+     * through a queue of asana.pipeline.queue.size tasks, so parsing waits
+     * when Asana falls behind. While the first rows are being parsed the
+     * workspace, project and sections are looked up and the tasks in the
+     * project are read, so the import takes about as long as the slower of
+     * parsing and sending rather than both.
+     *
+     * Unlike parseGrantCsvToTasks, the tasks parsed before a record which
+     * can not be parsed have already been sent to Asana.
+     *
+     * @param workspaceName
+     * @param projectName
+     * @param tasks
+     * @param problems
+     * @param summary
+     * @return SyncSummary
+     */
+    public SyncSummary updateOrInsertGrantTasks(String workspaceName, String projectName, Stream<TaskData> tasks,
+                                                Problems problems, SyncSummary summary) {
+        return updateOrInsertGrantTasks(workspaceName, projectName, tasks, null, problems, summary);
+    }
+    
+    /**
+     * As above, and when asana.journal.directory is set the progress of the
+     * import is kept in an ImportJournal for the importKey, so that importing
+     * the same file again after a crash or a failure resumes where it stopped.
+     * The tasks must be numbered by their row in increasing order, like the
+     * ones CsvClient parses, and the importKey must change with the content of
+     * the file, such as a digest of it.
+     *
+     * Every asana.journal.checkpoint.rows tasks the import waits for the calls
+     * in flight and records the last row, a rerun skips the rows up to it. The
+     * tasks inserted after it are recorded as Asana returns them, a rerun
+     * updates those instead of inserting them again. Once a task fails no
+     * further checkpoints are recorded, so a rerun sends it again. The journal
+     * is removed when the whole file has been imported.
+     *
+     * @param workspaceName
+     * @param projectName
+     * @param tasks
+     * @param importKey null for an import which can not be resumed
+     * @param problems
+     * @param summary
+     * @return SyncSummary
+     */
+    public SyncSummary updateOrInsertGrantTasks(String workspaceName, String projectName, Stream<TaskData> tasks,
+                                                String importKey, Problems problems, SyncSummary summary) {
+        return updateOrInsertGrantTasks(workspaceName, projectName, tasks, importKey, true, problems, summary);
+    }
+    
+    /**
+     * As above, where everyGrant is false when the Stream leaves out some of
+     * the grants of the file, such as the rows unchanged since the previous
+     * import. Otherwise, once the whole file has been imported, the grants
+     * which are not in it are removed from the GrantTaskIndex.
+     *
+     * @param workspaceName
+     * @param projectName
+     * @param tasks
+     * @param importKey null for an import which can not be resumed
+     * @param everyGrant true if the Stream has every grant of the file
+     * @param problems
+     * @param summary
+     * @return SyncSummary
+     */
+    public SyncSummary updateOrInsertGrantTasks(String workspaceName, String projectName, Stream<TaskData> tasks,
+                                                String importKey, boolean everyGrant, Problems problems,
+                                                SyncSummary summary) {
+        BlockingQueue<TaskData> queue = new ArrayBlockingQueue<>(Math.max(1, pipelineQueueSize));
+        ExecutorService pipeline = Executors.newCachedThreadPool();
+        Future<?> producer = pipeline.submit(() -> produceTasks(tasks, queue, problems));
+        try {
+            Workspace workspace = getWorkspace(workspaceName, problems);
+            Project project = workspace == null ? null : getProject(workspace, projectName, problems);
+            if (project != null) {
+                updateOrInsertTasks(workspace, project, queue, pipeline, importKey, everyGrant, summary,
+                        problems);
+            }
+        } finally {
+            // stops the parsing if the project could not be found, and waits so the
+            // Stream is not in use when the caller closes it
+            producer.cancel(true);
+            pipeline.shutdownNow();
+            try {
+                pipeline.awaitTermination(PIPELINE_SHUTDOWN_SECONDS, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return summary;
+    }
+    
+    private void produceTasks(Stream<TaskData> tasks, BlockingQueue<TaskData> queue, Problems problems) {
+        try {
+            tasks.forEach(taskData -> {
+                try {
+                    queue.put(taskData);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new CancellationException("import stopped");
+                }
+            });
+        } catch (CancellationException e) {
+            LOGGER.debug("stopped parsing tasks");
+        } catch (RuntimeException e) {
+            problems.addError(Problems.ERROR_PARSING_CSV_FILE, e.toString());
+            LOGGER.debug("error parsing tasks " + e.toString());
+        } finally {
+            if (!Thread.currentThread().isInterrupted()) {
+                try {
+                    queue.put(END_OF_TASKS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+    
+    private void updateOrInsertTasks(Workspace workspace, Project project, BlockingQueue<TaskData> queue,
+                                     Executor lookups, String importKey, boolean everyGrant, SyncSummary summary,
+                                     Problems problems) {
+        GrantTaskIndex index = openIndex(project, problems);
+        ImportJournal journal = openJournal(project, importKey, problems);
+        ExecutorService batches = Executors.newFixedThreadPool(Math.max(1, upsertConcurrency));
+        try {
+            // without an index every task has to be looked up in the project tasks,
+            // with one they are only read once a task is not in the index
+            SyncContext sync = prepareSync(workspace, project, index == null, index, journal, batches, lookups,
+                    summary, problems);
+            long start = System.nanoTime();
+            long resumeAfter = journal == null ? 0 : journal.getCheckpoint();
+            if (resumeAfter > 0) {
+                problems.addWarning(Problems.WARNING_IMPORT_RESUMED, "Resumed after row " + resumeAfter);
+                LOGGER.info("resuming the import into project " + project.gid + " after row " + resumeAfter);
+            }
+            // a task is dropped once Asana has answered its calls, only the index
+            // keys are kept, to remove the grants which are no longer in the file
+            Set<String> keys = index != null && everyGrant && resumeAfter == 0 ? new HashSet<>() : null;
+            long lastRow = resumeAfter;
+            boolean complete = false;
+            int sinceCheckpoint = 0;
+            try {
+                for (TaskData taskData = queue.take(); taskData != END_OF_TASKS; taskData = queue.take()) {
+                    if (taskData.getRowNumber() <= resumeAfter) {
+                        // synced by the run which was stopped
+                        summary.addSkipped();
+                        continue;
+                    }
+                    lastRow = taskData.getRowNumber();
+                    if (keys != null) {
+                        keys.add(GrantTaskIndex.key(taskData));
+                    }
+                    upsertTask(sync, taskData);
+                    if (sync.isTaskMapFailed()) {
+                        LOGGER.info("stopped the import, the tasks in project " + project.gid + " could not be read");
+                        break;
+                    }
+                    if (journal != null && ++sinceCheckpoint >= journalCheckpointRows) {
+                        checkpoint(sync, taskData.getRowNumber());
+                        sinceCheckpoint = 0;
+                    }
+                }
+                complete = !sync.isTaskMapFailed()
+                        && !problems.getErrors().containsKey(Problems.ERROR_PARSING_CSV_FILE);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                problems.addError(Problems.ERROR_FROM_ASANA, "import interrupted");
+            }
+            finishSync(sync, start);
+            if (complete && keys != null) {
+                retainIndexed(sync, keys);
+            }
+            if (journal != null) {
+                finishJournal(sync, lastRow, complete);
+            }
+        } finally {
+            batches.shutdown();
+            closeIndex(index);
+            closeJournal(journal);
+        }
+    }
+    
+    /**
+     * Waits for every call of the tasks up to the row, writes their index
+     * entries to disk and records the row as the checkpoint, unless a task
+     * has failed.
+     *
+     * @param sync
+     * @param row
+     */
+    private void checkpoint(SyncContext sync, long row) {
+        sync.batch.flush();
+        flushIndex(sync);
+        if (sync.failedTasks.isEmpty()) {
+            try {
+                sync.journal.checkpoint(row);
+            } catch (IOException e) {
+                sync.problems.addWarning(Problems.WARNING_JOURNAL_NOT_AVAILABLE, e.toString());
+                LOGGER.debug("error writing journal " + e.toString());
+            }
+        }
+    }
+    
+    /**
+     * Removes the journal once every row of the file has been synced,
+     * otherwise records the last row as the checkpoint if no task failed.
+     *
+     * @param sync
+     * @param lastRow
+     * @param complete true if every row of the file was read
+     */
+    private void finishJournal(SyncContext sync, long lastRow, boolean complete) {
+        try {
+            if (complete && sync.failedTasks.isEmpty()) {
+                sync.journal.delete();
+            } else if (sync.failedTasks.isEmpty()) {
+                sync.journal.checkpoint(lastRow);
+            }
+        } catch (IOException e) {
+            sync.problems.addWarning(Problems.WARNING_JOURNAL_NOT_AVAILABLE, e.toString());
+            LOGGER.debug("error writing journal " + e.toString());
+        }
+    }
+    
+    /**
+     * Creates the SyncContext for the project. The tasks in the project are
+     * read on the lookups Executor, straight away when readTasks is true so
+     * that they are read while the sections are looked up, otherwise once
+     * SyncContext.startTaskMap is called. When the ProjectMirror of the
+     * project is fresh the tasks and sections are taken from it instead.
+     *
+     * @param workspace
+     * @param project
+     * @param readTasks
+     * @param index
+     * @param journal null unless the import can be resumed
+     * @param batches
+     * @param lookups
+     * @param summary
+     * @param problems
+     * @return SyncContext
+     */
+    SyncContext prepareSync(Workspace workspace, Project project, boolean readTasks, GrantTaskIndex index,
+                            ImportJournal journal, Executor batches, Executor lookups, SyncSummary summary,
+                            Problems problems) {
+        ProjectMirror mirror = getFreshMirror(project.gid);
+        Supplier<CompletableFuture<Map<String, Task>>> taskMapLoader = mirror != null
+                ? () -> CompletableFuture.completedFuture(mirror.getTaskMap())
+                : () -> CompletableFuture.supplyAsync(() -> getProjectTaskMap(project, lookups, problems), lookups);
+        // the tasks of a fresh mirror cost nothing, and they let index entries be checked
+        CompletableFuture<Map<String, Task>> taskMap = readTasks || mirror != null ? taskMapLoader.get() : null;
+        Map<String, Section> sectionMap = mirror != null ? mirror.getSectionMap()
+                : getSectionMap(project.gid, problems);
+        AsanaBatch batch = new AsanaBatch(client, transport, upsertConcurrency, limiter, batches, problems);
+        batch.setMetrics(metrics);
+        return new SyncContext(workspace, project, sectionMap, taskMap, taskMapLoader, index, journal, batch,
+                summary, problems);
+    }
+    
+    void upsertTask(SyncContext sync, TaskData taskData) {
+        // the only requirement for tasks is that they must have a name
+        if (taskData.getName() != null) {
+            updateOrInsertTask(sync, taskData);
+        } else {
+            sync.problems.addWarning(Problems.WARNING_TASKDATA_MISSING_NAME, null, taskData.getRowNumber(), null);
+        }
+    }
+    
+    /**
+     * Waits for every batch to be sent and writes the index entries of the
+     * tasks to disk.
+     *
+     * @param sync
+     * @param start
+     */
+    void finishSync(SyncContext sync, long start) {
+        sync.batch.flush();
+        if (sync.batch.getNotFoundCount() > 0) {
+            // a section or task was removed from Asana since it was cached
+            sectionCache.invalidate(sync.project.gid);
+        }
+        flushIndex(sync);
+        LOGGER.info("synced tasks " + sync.summary + " in "
+                + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms with "
+                + upsertConcurrency + " workers");
+    }
+    
+    /**
+     * Will return a null GrantTaskIndex if asana.index.directory is not set
+     * or the index can not be read.
+     *
+     * @param project
+     * @param problems
+     * @return GrantTaskIndex
+     */
+    GrantTaskIndex openIndex(Project project, Problems problems) {
+        GrantTaskIndex index = null;
+        if (isIndexing()) {
+            try {
+                index = GrantTaskIndex.open(Paths.get(indexDirectory, project.gid + ".idx"));
+            } catch (IOException e) {
+                problems.addWarning(Problems.WARNING_INDEX_NOT_AVAILABLE, e.toString());
+                LOGGER.debug("error opening index " + e.toString());
             }
         }
-        Map<String, Section> sectionMap = getSectionMap(project.gid, problems);
+        return index;
+    }
+    
+    private boolean isEveryTaskIndexed(GrantTaskIndex index, List<TaskData> tasks) {
         for (TaskData taskData : tasks) {
-            // the only requirement for tasks is that they must have a name
-            if (taskData.getName() != null) {
-                updateOrInsertTask(workspace, project, sectionMap, taskMap, taskData, problems);
-            } else {
-                problems.addWarning(Problems.WARNING_TASKDATA_MISSING_NAME, null);
-                
+            if (taskData.getName() != null && index.get(taskData) == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    private void indexTask(SyncContext sync, TaskData taskData, String gid) {
+        if (sync.index != null) {
+            try {
+                sync.index.put(taskData, gid, GrantTaskIndex.contentHash(taskData));
+            } catch (IOException e) {
+                sync.problems.addWarning(Problems.WARNING_INDEX_NOT_AVAILABLE, e.toString());
+                LOGGER.debug("error writing index " + e.toString());
+            }
+        }
+    }
+    
+    private void flushIndex(SyncContext sync) {
+        if (sync.index != null) {
+            try {
+                sync.index.flush();
+            } catch (IOException e) {
+                sync.problems.addWarning(Problems.WARNING_INDEX_NOT_AVAILABLE, e.toString());
+                LOGGER.debug("error writing index " + e.toString());
+            }
+        }
+    }
+    
+    /**
+     * Removes the grants which are not in the file from the index, so that
+     * a grant which is added back to the CSV later is looked up in Asana.
+     *
+     * @param sync
+     * @param keys the index key of every grant of the CSV file
+     */
+    private void retainIndexed(SyncContext sync, Set<String> keys) {
+        if (sync.index != null) {
+            try {
+                int removed = sync.index.retainOnly(keys);
+                if (removed > 0) {
+                    sync.index.flush();
+                    LOGGER.debug("removed " + removed + " grants which are not in the file from the index");
+                }
+            } catch (IOException e) {
+                sync.problems.addWarning(Problems.WARNING_INDEX_NOT_AVAILABLE, e.toString());
+                LOGGER.debug("error writing index " + e.toString());
+            }
+        }
+    }
+    
+    private void removeIndexed(SyncContext sync, TaskData taskData) {
+        if (sync.index != null) {
+            try {
+                sync.index.remove(taskData);
+            } catch (IOException e) {
+                sync.problems.addWarning(Problems.WARNING_INDEX_NOT_AVAILABLE, e.toString());
+                LOGGER.debug("error writing index " + e.toString());
+            }
+        }
+    }
+    
+    /**
+     * Will return null if the task is not in the index, or if the tasks in
+     * the project are at hand and none of them has the name of the task.
+     * The task was then deleted or moved out of the project in Asana since
+     * it was indexed, so its entry is removed and it is looked up again.
+     *
+     * @param sync
+     * @param taskData
+     * @return GrantTaskIndex.Entry
+     */
+    private GrantTaskIndex.Entry getIndexed(SyncContext sync, TaskData taskData) {
+        GrantTaskIndex.Entry indexed = sync.index == null ? null : sync.index.get(taskData);
+        if (indexed != null) {
+            Map<String, Task> taskMap = sync.getTaskMapIfStarted();
+            if (taskMap != null && !taskMap.containsKey(taskData.getName())) {
+                removeIndexed(sync, taskData);
+                return null;
+            }
+        }
+        return indexed;
+    }
+    
+    /**
+     * Adds the task to the ProjectMirror of the project, so the next import
+     * finds it before its webhook events arrive.
+     * A task with a call Asana did not accept is only added with its gid
+     * and name, so the next import sends everything again.
+     *
+     * @param sync
+     * @param taskData
+     * @param gid
+     * @param failed
+     */
+    private void mirrorTask(SyncContext sync, TaskData taskData, String gid, boolean failed) {
+        ProjectMirror mirror = mirrors.get(sync.project.gid);
+        if (mirror == null) {
+            return;
+        }
+        Task synced = toTask(gid, taskData.getName());
+        Task known = mirror.getTask(gid);
+        if (!failed) {
+            synced.dueOn = taskData.getDueDate() != null
+                    ? DateTime.parseRfc3339(taskData.getDueDate().format(DATE_FORMATTER))
+                    : known == null ? null : known.dueOn;
+            Section section = taskData.getAsanaSection() == null ? null
+                    : sync.sectionMap.get(taskData.getAsanaSection());
+            if (section != null) {
+                Task.Membership membership = new Task.Membership();
+                membership.project = sync.project;
+                membership.section = section;
+                synced.memberships = Collections.singletonList(membership);
+            } else if (known != null) {
+                synced.memberships = known.memberships;
+            }
+            // the subtasks Asana has are only known when none were synced
+            if (taskData.getSubTasks().isEmpty() && known != null) {
+                synced.numSubtasks = known.numSubtasks;
+            }
+        }
+        mirror.putTask(synced);
+    }
+    
+    /**
+     * Will return a null ImportJournal if asana.journal.directory is not set,
+     * there is no importKey or the journal can not be read.
+     *
+     * @param project
+     * @param importKey
+     * @param problems
+     * @return ImportJournal
+     */
+    ImportJournal openJournal(Project project, String importKey, Problems problems) {
+        ImportJournal journal = null;
+        if (isJournaling() && importKey != null) {
+            try {
+                journal = ImportJournal.open(Paths.get(journalDirectory, project.gid + ".journal"), importKey);
+            } catch (IOException e) {
+                problems.addWarning(Problems.WARNING_JOURNAL_NOT_AVAILABLE, e.toString());
+                LOGGER.debug("error opening journal " + e.toString());
+            }
+        }
+        return journal;
+    }
+    
+    /**
+     * @return boolean true if the gids of the grant tasks are kept in a GrantTaskIndex file per project
+     */
+    public boolean isIndexing() {
+        return indexDirectory != null && !indexDirectory.isBlank();
+    }
+    
+    /**
+     * @return boolean true if imports with an importKey can be resumed
+     */
+    public boolean isJournaling() {
+        return journalDirectory != null && !journalDirectory.isBlank();
+    }
+    
+    private void closeJournal(ImportJournal journal) {
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                LOGGER.debug("error closing journal " + e.toString());
             }
         }
     }
     
-    List<Task> getProjectTasks(Project project, Problems problems) {
-        List<Task> projectTasks = null;
+    private void closeIndex(GrantTaskIndex index) {
+        if (index != null) {
+            try {
+                index.close();
+            } catch (IOException e) {
+                LOGGER.debug("error closing index " + e.toString());
+            }
+        }
+    }
+    
+    /**
+     * Reads every page of tasks in the project and maps them by name.
+     * While one page is being put into the map the next page is already
+     * being fetched on the prefetch Executor, unless it runs tasks on the
+     * calling thread or asana.transport is http.
+     * Will return a null Map if any page could not be read from Asana.
+     *
+     * @param project
+     * @param prefetch
+     * @param problems
+     * @return Map<String, Task>
+     */
+    Map<String, Task> getProjectTaskMap(Project project, Executor prefetch, Problems problems) {
+        Map<String, Task> taskMap = null;
         try {
-            // get the existing tasks from Asana
-            // result.nextPage.offset is offsset for pagination
-            CollectionRequest<Task> request = client.tasks.getTasksForProject(project.gid, null)
-                    .option(ASANA_PRETTY, true);
-            ResultBodyCollection<Task> result = request.executeRaw();
-            projectTasks = result.data;
-            if (result.nextPage != null) {
-                // TODO need to handle pagination if nextPage is not null
+            long start = System.nanoTime();
+            int pages = 0;
+            Map<String, Task> pagedTaskMap = new HashMap<>();
+            CompletableFuture<ResultBodyCollection<Task>> nextPage = fetchProjectTaskPage(project, null, prefetch);
+            while (nextPage != null) {
+                ResultBodyCollection<Task> page = nextPage.join();
+                pages++;
+                // request the following page before indexing this one
+                if (page.nextPage != null && page.nextPage.offset != null) {
+                    nextPage = fetchProjectTaskPage(project, page.nextPage.offset, prefetch);
+                } else {
+                    nextPage = null;
+                }
+                for (Task temp : page.data) {
+                    pagedTaskMap.put(temp.name, temp);
+                }
             }
+            taskMap = pagedTaskMap;
+            LOGGER.info("read " + taskMap.size() + " project tasks in " + pages + " pages in "
+                    + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
         } catch (Exception e) {
-            problems.addError(Problems.ERROR_FROM_ASANA, e.toString());
-            LOGGER.debug("error getting project tasks " + e.toString());
+            Throwable cause = e instanceof CompletionException ? e.getCause() : e;
+            if (cause instanceof UncheckedIOException) {
+                cause = cause.getCause();
+            }
+            if (isNotFound(cause)) {
+                invalidateProject(project.gid);
+            }
+            problems.addError(Problems.ERROR_FROM_ASANA, cause.toString());
+            LOGGER.debug("error getting project tasks " + cause.toString());
         }
-        return projectTasks;
+        return taskMap;
+    }
+    
+    /**
+     * Fetches one page of project tasks, starting at the offset from the
+     * previous page or at the beginning if the offset is null.
+     *
+     * @param project
+     * @param offset
+     * @param executor
+     * @return CompletableFuture<ResultBodyCollection<Task>>
+     */
+    CompletableFuture<ResultBodyCollection<Task>> fetchProjectTaskPage(Project project, String offset,
+                                                                       Executor executor) {
+        if (transport != null) {
+            return transport.getTasksForProject(project.gid, TASK_LIST_FIELDS, pageSize, offset);
+        }
+        return CompletableFuture.supplyAsync(() -> {
+            long start = System.nanoTime();
+            try {
+                ResultBodyCollection<Task> result = limiter.execute("getTasksForProject", () -> {
+                    CollectionRequest<Task> request = select(client.tasks.getTasksForProject(project.gid, null),
+                            TASK_LIST_FIELDS)
+                            .option(ASANA_LIMIT, pageSize);
+                    if (offset != null) {
+                        request = request.option(ASANA_OFFSET, offset);
+                    }
+                    return request.executeRaw();
+                });
+                LOGGER.debug("fetched page of " + result.data.size() + " project tasks in "
+                        + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+                return result;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, executor);
     }
     
     Section getOrCreateSectionGid(String sectionName, Map<String, Section> sectionMap, String projectGid,
@@ -200,18 +1042,18 @@ public class AsanaClient {
         Section section = null;
         try {
             if (sectionName != null && !sectionName.isBlank()) {
-                Section existingSection = sectionMap.get(sectionName);
-                if (existingSection != null) {
-                    section = existingSection;
-                } else {
-                    Section newSection = client.sections.createSectionForProject(projectGid)
-                            .data(ASANA_NAME, sectionName)
-                            .option(ASANA_PRETTY, true)
-                            .execute();
-                    sectionMap.put(sectionName, newSection);
-                    section = newSection;
+                section = sectionMap.get(sectionName);
+                if (section == null) {
+                    section = createSection(sectionName, sectionMap, projectGid);
                 }
             }
+        } catch (CompletionException | IOException e) {
+            Throwable cause = e instanceof CompletionException ? e.getCause() : e;
+            if (isNotFound(cause)) {
+                invalidateProject(projectGid);
+            }
+            problems.addError(Problems.ERROR_FROM_ASANA, cause.toString());
+            LOGGER.debug("error setting section " + cause.toString());
         } catch (Exception e) {
             problems.addError(Problems.ERROR_FROM_ASANA, e.toString());
             LOGGER.debug("error setting section " + e.toString());
@@ -219,104 +1061,593 @@ public class AsanaClient {
         return section;
     }
     
+    /**
+     * Creates the section and adds it to the map. Only one worker creates a
+     * section, the others wanting it meanwhile wait for its create call,
+     * which is made without holding a lock of the map.
+     *
+     * @param sectionName
+     * @param sectionMap
+     * @param projectGid
+     * @return Section
+     * @throws IOException if this worker's create call failed
+     * @throws CompletionException if the create call of another worker failed
+     */
+    private Section createSection(String sectionName, Map<String, Section> sectionMap, String projectGid)
+            throws IOException {
+        String key = projectGid + "/" + sectionName;
+        CompletableFuture<Section> create = new CompletableFuture<>();
+        CompletableFuture<Section> inFlight = sectionCreates.putIfAbsent(key, create);
+        if (inFlight != null) {
+            return inFlight.join();
+        }
+        try {
+            // created by another worker since this one looked
+            Section section = sectionMap.get(sectionName);
+            if (section == null) {
+                section = transport != null
+                        ? join(transport.createSectionForProject(projectGid, sectionName, SECTION_FIELDS))
+                        : limiter.execute("createSectionForProject", () ->
+                                select(client.sections.createSectionForProject(projectGid), SECTION_FIELDS)
+                                        .data(ASANA_NAME, sectionName)
+                                        .execute());
+                sectionMap.put(sectionName, section);
+                ProjectMirror mirror = mirrors.get(projectGid);
+                if (mirror != null) {
+                    mirror.putSection(section);
+                }
+            }
+            create.complete(section);
+            return section;
+        } catch (IOException | RuntimeException e) {
+            create.completeExceptionally(e);
+            throw e;
+        } finally {
+            // only once the section is in the map, so a later worker finds it there
+            sectionCreates.remove(key, create);
+        }
+    }
+    
     Map<String, Section> getSectionMap(String projectGid, Problems problems) {
         // Create map of sections since we don't want to create new ones if they already
-        // exist.
-        Map<String, Section> sectionMap = new HashMap<>();
+        // exist. The map is shared by the upsert workers and new sections are added
+        // to it, so the cached map stays current.
+        Map<String, Section> sectionMap = sectionCache.get(projectGid);
+        if (sectionMap != null) {
+            return sectionMap;
+        }
+        sectionMap = new ConcurrentHashMap<>();
         try {
-            List<Section> sections = client.sections.getSectionsForProject(projectGid)
-                    .option(ASANA_PRETTY, true)
-                    .execute();
-            for (Section section : sections) {
+            for (Section section : fetchSections(projectGid)) {
                 sectionMap.put(section.name, section);
             }
+            sectionCache.put(projectGid, sectionMap);
         } catch (Exception e) {
+            if (isNotFound(e)) {
+                invalidateProject(projectGid);
+            }
             problems.addError(Problems.ERROR_FROM_ASANA, e.toString());
             LOGGER.debug("error getting sections for map " + e.toString());
         }
         return sectionMap;
     }
     
-    void updateOrInsertTask(Workspace workspace, Project project, Map<String, Section> sectionMap,
-                            Map<String, Task> taskMap, TaskData taskData, Problems problems){
+    private List<Section> fetchSections(String projectGid) throws IOException {
+        return transport != null
+                ? join(transport.getSectionsForProject(projectGid, SECTION_FIELDS))
+                : limiter.execute("getSectionsForProject", () ->
+                        select(client.sections.getSectionsForProject(projectGid), SECTION_FIELDS)
+                                .execute());
+    }
+    
+    private static boolean isNotFound(Throwable e) {
+        return e instanceof NotFoundError || e instanceof AsanaHttpException && ((AsanaHttpException) e).isNotFound();
+    }
+    
+    /**
+     * Waits for a call made through the AsanaAsyncTransport and throws its
+     * error like a call made with the Client would.
+     *
+     * @param future
+     * @return T
+     * @throws IOException
+     */
+    private static <T> T join(CompletableFuture<T> future) throws IOException {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw e;
+        }
+    }
+    
+    /**
+     * Called when Asana answers 404 Not Found for the workspace.
+     *
+     * @param workspaceGid
+     */
+    void invalidateWorkspace(String workspaceGid) {
+        workspaceCache.invalidateValues(workspace -> workspace.gid.equals(workspaceGid));
+        projectCache.clear();
+    }
+    
+    /**
+     * Called when Asana answers 404 Not Found for the project or one of its sections.
+     *
+     * @param projectGid
+     */
+    void invalidateProject(String projectGid) {
+        projectCache.invalidateValues(project -> project.gid.equals(projectGid));
+        sectionCache.invalidate(projectGid);
+    }
+    
+    /**
+     * Starts keeping a ProjectMirror of the project, it is not used by the
+     * imports until resyncMirror has filled it.
+     *
+     * @param projectGid
+     * @param maxAgeNanos
+     * @return ProjectMirror
+     */
+    ProjectMirror mirrorProject(String projectGid, long maxAgeNanos) {
+        return mirrors.computeIfAbsent(projectGid, gid -> new ProjectMirror(gid, maxAgeNanos));
+    }
+    
+    void stopMirroring(String projectGid) {
+        mirrors.remove(projectGid);
+    }
+    
+    /**
+     * Will return null unless a fresh ProjectMirror of the project is kept.
+     *
+     * @param projectGid
+     * @return ProjectMirror
+     */
+    ProjectMirror getFreshMirror(String projectGid) {
+        ProjectMirror mirror = mirrors.get(projectGid);
+        return mirror != null && mirror.isFresh() ? mirror : null;
+    }
+    
+    /**
+     * Reads the whole project into the mirror, the events applied to the
+     * mirror meanwhile are kept.
+     *
+     * @param mirror
+     * @param problems
+     * @return boolean false if the project could not be read, the mirror is then left as it was
+     */
+    boolean resyncMirror(ProjectMirror mirror, Problems problems) {
+        mirror.beginResync();
+        Project project = new Project();
+        project.gid = mirror.getProjectGid();
+        // the pages are read one after another on the thread of the resync
+        Map<String, Task> taskMap = getProjectTaskMap(project, Runnable::run, problems);
+        List<Section> sections = null;
+        if (taskMap != null) {
+            try {
+                sections = fetchSections(project.gid);
+            } catch (Exception e) {
+                problems.addError(Problems.ERROR_FROM_ASANA, e.toString());
+                LOGGER.debug("error getting sections for mirror " + e.toString());
+            }
+        }
+        if (taskMap == null || sections == null) {
+            mirror.abortResync();
+            return false;
+        }
+        mirror.replace(taskMap.values(), sections);
+        return true;
+    }
+    
+    /**
+     * Reads the tasks and sections Asana sent events for into the mirror,
+     * in batches. A task is removed from the mirror when Asana no longer has
+     * it or it is no longer in the project. The mirror is marked stale if
+     * any of them could not be read.
+     *
+     * @param mirror
+     * @param taskGids
+     * @param sectionGids
+     */
+    void refreshMirror(ProjectMirror mirror, Collection<String> taskGids, Collection<String> sectionGids) {
+        Problems problems = new Problems();
+        ExecutorService batches = Executors.newFixedThreadPool(Math.max(1, upsertConcurrency));
+        try {
+            AsanaBatch batch = new AsanaBatch(client, transport, upsertConcurrency, limiter, batches, problems);
+            batch.setMetrics(metrics);
+            for (String gid : taskGids) {
+                batch.add("getTask", HTTP_GET, "/tasks/" + gid, null, TASK_LIST_FIELDS, result -> {
+                    Task task = AsanaAsyncTransport.toTask(result);
+                    if (isInProject(task, mirror.getProjectGid())) {
+                        mirror.putTask(task);
+                    } else {
+                        mirror.removeTask(gid);
+                    }
+                }, status -> mirrorFailed(mirror, status, () -> mirror.removeTask(gid)));
+            }
+            for (String gid : sectionGids) {
+                batch.add("getSection", HTTP_GET, "/sections/" + gid, null, SECTION_FIELDS,
+                        result -> mirror.putSection(AsanaAsyncTransport.toSection(result)),
+                        status -> mirrorFailed(mirror, status, () -> mirror.removeSection(gid)));
+            }
+            batch.flush();
+        } finally {
+            batches.shutdown();
+        }
+        if (!problems.getErrors().isEmpty()) {
+            mirror.markStale();
+            LOGGER.debug("error refreshing mirror of project " + mirror.getProjectGid() + " "
+                    + problems.getErrors());
+        }
+    }
+    
+    private static boolean mirrorFailed(ProjectMirror mirror, int status, Runnable notFound) {
+        if (status == NOT_FOUND) {
+            notFound.run();
+        } else {
+            mirror.markStale();
+        }
+        return true;
+    }
+    
+    private static boolean isInProject(Task task, String projectGid) {
+        if (task.memberships != null) {
+            for (Task.Membership membership : task.memberships) {
+                if (membership.project != null && projectGid.equals(membership.project.gid)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Asks Asana to send the task and section events of the project to the
+     * target. Asana first sends the handshake to the target and only creates
+     * the webhook once the target has answered it.
+     * https://developers.asana.com/docs/establish-a-webhook
+     *
+     * @param projectGid
+     * @param target
+     * @return String the gid of the webhook
+     * @throws IOException
+     */
+    String createWebhook(String projectGid, String target) throws IOException {
+        List<Map<String, Object>> filters = Arrays.asList(
+                Collections.singletonMap(ASANA_RESOURCE_TYPE, ASANA_TASK),
+                Collections.singletonMap(ASANA_RESOURCE_TYPE, ASANA_SECTION));
+        if (transport != null) {
+            Map<String, Object> data = new HashMap<>();
+            data.put(ASANA_RESOURCE, projectGid);
+            data.put(ASANA_TARGET, target);
+            data.put(ASANA_FILTERS, filters);
+            JsonObject body = join(transport.send("createWebhook", 1, HTTP_POST, "/webhooks", data));
+            return body.getAsJsonObject("data").get(ASANA_GID).getAsString();
+        }
+        return limiter.execute("createWebhook", () -> client.webhooks.createWebhook()
+                .data(ASANA_RESOURCE, projectGid)
+                .data(ASANA_TARGET, target)
+                .data(ASANA_FILTERS, filters)
+                .execute()).gid;
+    }
+    
+    void deleteWebhook(String webhookGid) throws IOException {
+        if (transport != null) {
+            join(transport.send("deleteWebhook", 1, HTTP_DELETE, "/webhooks/" + webhookGid, null));
+        } else {
+            limiter.execute("deleteWebhook", () -> client.webhooks.deleteWebhook(webhookGid).execute());
+        }
+    }
+    
+    void updateOrInsertTask(SyncContext sync, TaskData taskData){
+        // the task is counted, indexed and mirrored once, when Asana has answered all of its calls
+        TaskCalls calls = new TaskCalls(sync.batch, done -> finishTask(sync, taskData, done));
+        GrantTaskIndex.Entry indexed = getIndexed(sync, taskData);
+        if (indexed != null && indexed.getHash() == GrantTaskIndex.contentHash(taskData)) {
+            // nothing has changed since the task was last synced
+            taskData.setAsanaData(toTask(indexed.getGid(), taskData.getName()));
+            taskData.setAsanaSection(taskData.getSection());
+            calls.queued();
+            return;
+        }
+        // inserted by an earlier run of the same import which was stopped
+        String createdGid = sync.journal == null ? null : sync.journal.getCreatedGid(taskData.getRowNumber());
+        String knownGid = createdGid != null ? createdGid : indexed == null ? null : indexed.getGid();
+        // a task with a known gid does not wait for the project tasks unless they are already being read
+        Map<String, Task> taskMap = knownGid == null ? sync.getTaskMap() : sync.getTaskMapIfStarted();
+        if (knownGid == null && taskMap == null) {
+            // the project tasks could not be read, inserting the task could add a second copy of it
+            sync.failedTasks.add(taskData);
+            return;
+        }
         if (taskMap != null && taskMap.containsKey(taskData.getName())) {
             Task existingTask = taskMap.get(taskData.getName());
             taskData.setAsanaData(existingTask);
-            updateTask(project, taskData, existingTask, sectionMap, problems);
+            updateTask(sync, taskData, existingTask, calls, null);
+        } else if (knownGid != null) {
+            // only the gid is known so everything is sent, and if the task
+            // was deleted from Asana it is inserted again, with the same calls
+            // so it is only counted as inserted
+            Task existingTask = toTask(knownGid, taskData.getName());
+            taskData.setAsanaData(existingTask);
+            AtomicBoolean reinserted = new AtomicBoolean();
+            updateTask(sync, taskData, existingTask, calls, () -> {
+                if (reinserted.compareAndSet(false, true)) {
+                    taskData.setAsanaData(null);
+                    insertTask(sync, taskData, calls);
+                }
+            });
         } else {
-            insertTask(workspace, project, taskData, sectionMap, problems);
+            insertTask(sync, taskData, calls);
         }
+        calls.queued();
     }
     
-    void updateTask(Project project, TaskData taskData, Task existingTask, Map<String, Section> sectionMap,
-                    Problems problems) {
-        try {
-            // TODO - add description
-            if (taskData.getDueDate() != null) {
-                Task updateTask = client.tasks.updateTask(existingTask.gid)
-                        .data(ASANA_DUE_ON, taskData.getDueDate().format(DATE_FORMATTER))
-                        .option(ASANA_PRETTY, true)
-                        .execute();
-                taskData.setAsanaData(updateTask);
-            }
-            // adding a task to a section will remove it from the section it is already
-            // in, thus add and update are the same action
-            Section section = getOrCreateSectionGid(taskData.getSection(), sectionMap, project.gid, problems);
-            if (section != null) {
-                JsonElement addTaskToSectionResult = client.sections.addTaskForSection(section.gid)
-                        .data(ASANA_TASK, existingTask.gid)
-                        .option(ASANA_PRETTY, true)
-                        .execute();
-                taskData.setAsanaSection(section.name);
-            }
-            // getting subtasks is a specific call
-            // creating subtasks is a specific call
-            // updating or deleting subtasks should use the task calls,
-            // since subtasks are simply task objects with other tasks as the parent
-            
-            // get subtasks
-            // iterate over them and see if the ones in the taskData are in Asana
-            // if so update
-            // else create
-        } catch (Exception e) {
-            problems.addError(Problems.ERROR_FROM_ASANA, e.toString());
-            LOGGER.debug("error updating task " + e.toString());
+    /**
+     * Counts the task as inserted once Asana has created it, as updated if
+     * it accepted a change and as skipped when nothing differed. A task whose
+     * every call failed is not counted.
+     * Then the task is written to the index, unless a call failed, and to
+     * the ProjectMirror, so nothing of it is kept once the import moves on.
+     *
+     * @param sync
+     * @param taskData
+     * @param calls
+     */
+    private void finishTask(SyncContext sync, TaskData taskData, TaskCalls calls) {
+        boolean failed = sync.failedTasks.contains(taskData);
+        if (calls.isCreated()) {
+            sync.summary.addInserted();
+        } else if (calls.isChanged()) {
+            sync.summary.addUpdated();
+        } else if (!failed) {
+            sync.summary.addSkipped();
+        }
+        Task asanaData = taskData.getAsanaData();
+        if (asanaData != null && asanaData.gid != null) {
+            if (!failed) {
+                indexTask(sync, taskData, asanaData.gid);
+            }
+            mirrorTask(sync, taskData, asanaData.gid, failed);
         }
     }
     
-    void insertTask(Workspace workspace, Project project, TaskData taskData, Map<String, Section> sectionMap,
-                    Problems problems) {
-        try {
-            // create the task
-            // TODO - need to check that due_on isn't null
-            // TODO - need to add description
-            ItemRequest<Task> newTaskRequest = client.tasks.createTask()
-                    .data(ASANA_NAME, taskData.getName())
-                    .data(ASANA_WORKSPACE, workspace.gid)
-                    .option(ASANA_PRETTY, true);
-            if (taskData.getDueDate() != null) {
-                newTaskRequest = newTaskRequest.data(ASANA_DUE_ON, taskData.getDueDate().format(DATE_FORMATTER));
-            }
-            ResultBody<Task> newTaskResult = newTaskRequest.executeRaw();
-            Task newTask = newTaskResult.data;
+    /**
+     * Only the parts of the task which differ from the existing task in Asana
+     * are sent, when nothing differs no calls are made.
+     * The subtasks of the task are only read from Asana when the existing
+     * task may have subtasks, and they are read in the same batches as the
+     * updates of other tasks rather than with a call per task.
+     * If Asana answers 404 Not Found for the task and notFound is not null
+     * then notFound is run instead of reporting the error. On 404 Not Found
+     * or 403 Forbidden the task is removed from the index, so the next import
+     * looks it up in the project tasks instead of trusting the gid.
+     *
+     * @param sync
+     * @param taskData
+     * @param existingTask
+     * @param calls
+     * @param notFound
+     */
+    void updateTask(SyncContext sync, TaskData taskData, Task existingTask, TaskCalls calls, Runnable notFound) {
+        IntPredicate failure = status -> {
+            if (status == NOT_FOUND || status == FORBIDDEN) {
+                removeIndexed(sync, taskData);
+            }
+            if (status == NOT_FOUND && notFound != null) {
+                notFound.run();
+                return true;
+            }
+            sync.failedTasks.add(taskData);
+            return false;
+        };
+        // TODO - add description
+        if (isDueDateChanged(taskData, existingTask)) {
+            Map<String, Object> data = new HashMap<>();
+            data.put(ASANA_DUE_ON, taskData.getDueDate().format(DATE_FORMATTER));
+            calls.add("updateTask", HTTP_PUT, "/tasks/" + existingTask.gid, data, TASK_RESULT_FIELDS, result -> {
+                taskData.setAsanaData(toTask(result));
+                calls.changed();
+            }, failure);
+        }
+        String sectionName = taskData.getSection();
+        if (sectionName != null && !sectionName.isBlank()) {
+            if (sectionName.equals(getSectionName(existingTask, sync.project))) {
+                taskData.setAsanaSection(sectionName);
+            } else {
+                // adding a task to a section will remove it from the section it is already
+                // in, thus add and update are the same action
+                Section section = getOrCreateSectionGid(sectionName, sync.sectionMap, sync.project.gid,
+                        sync.problems);
+                if (section != null) {
+                    addTaskToSection(calls, section, existingTask.gid, taskData, failure);
+                }
+            }
+        }
+        if (existingTask.numSubtasks == 0) {
+            // none of the subtasks can exist yet
+            createSubTasks(calls, existingTask.gid, taskData.getSubTasks(), failure);
+        } else if (!taskData.getSubTasks().isEmpty()) {
+            calls.addGet("getSubtasksForTask", "/tasks/" + existingTask.gid + "/subtasks", SUBTASK_FIELDS,
+                    subTasks -> updateSubTasks(calls, taskData, existingTask.gid, subTasks, failure), failure);
+        }
+    }
+    
+    /**
+     * Subtasks are matched by name with the subtasks already in Asana.
+     * A matching subtask only has its due date changed when it differs and,
+     * like tasks, a subtask without a due date never clears it in Asana.
+     * Subtasks which are in Asana but not in the TaskData are left alone.
+     *
+     * @param calls
+     * @param taskData
+     * @param parentGid
+     * @param existingSubTasks the subtasks read from Asana with SUBTASK_FIELDS
+     * @param failure
+     */
+    void updateSubTasks(TaskCalls calls, TaskData taskData, String parentGid, JsonArray existingSubTasks,
+                        IntPredicate failure) {
+        Map<String, JsonObject> existingByName = new HashMap<>();
+        for (JsonElement existing : existingSubTasks) {
+            JsonObject subTask = existing.getAsJsonObject();
+            if (subTask.has(ASANA_NAME) && !subTask.get(ASANA_NAME).isJsonNull()) {
+                existingByName.putIfAbsent(subTask.get(ASANA_NAME).getAsString(), subTask);
+            }
+        }
+        List<SubTask> missing = new ArrayList<>();
+        for (SubTask subTask : taskData.getSubTasks()) {
+            JsonObject existing = existingByName.get(subTask.getName());
+            if (existing == null) {
+                missing.add(subTask);
+            } else if (subTask.getDueDate() != null) {
+                String dueOn = subTask.getDueDate().format(DATE_FORMATTER);
+                JsonElement existingDueOn = existing.get(ASANA_DUE_ON);
+                if (existingDueOn == null || existingDueOn.isJsonNull()
+                        || !dueOn.equals(existingDueOn.getAsString())) {
+                    Map<String, Object> data = new HashMap<>();
+                    data.put(ASANA_DUE_ON, dueOn);
+                    calls.add("updateTask", HTTP_PUT, "/tasks/" + existing.get(ASANA_GID).getAsString(),
+                            data, TASK_RESULT_FIELDS, result -> calls.changed(), failure);
+                }
+            }
+        }
+        createSubTasks(calls, parentGid, missing, failure);
+    }
+    
+    private void createSubTasks(TaskCalls calls, String parentGid, List<SubTask> subTasks, IntPredicate failure) {
+        for (SubTask subTask : subTasks) {
+            Map<String, Object> data = new HashMap<>();
+            data.put(ASANA_NAME, subTask.getName());
+            if (subTask.getDueDate() != null) {
+                data.put(ASANA_DUE_ON, subTask.getDueDate().format(DATE_FORMATTER));
+            }
+            calls.add("createSubtaskForTask", HTTP_POST, "/tasks/" + parentGid + "/subtasks", data,
+                    TASK_RESULT_FIELDS, result -> calls.changed(), failure);
+        }
+    }
+    
+    /**
+     * A task without a due date never clears the due date in Asana, so it
+     * is only changed when the TaskData has a due date different from Asana.
+     *
+     * @param taskData
+     * @param existingTask
+     * @return boolean
+     */
+    boolean isDueDateChanged(TaskData taskData, Task existingTask) {
+        if (taskData.getDueDate() == null) {
+            return false;
+        }
+        String dueOn = existingTask.dueOn == null ? null : existingTask.dueOn.toString();
+        return !taskData.getDueDate().format(DATE_FORMATTER).equals(dueOn);
+    }
+    
+    /**
+     * Will return a null String if the task is not in a section of the project.
+     *
+     * @param existingTask
+     * @param project
+     * @return String
+     */
+    String getSectionName(Task existingTask, Project project) {
+        if (existingTask.memberships != null) {
+            for (Task.Membership membership : existingTask.memberships) {
+                if (membership.project != null && project.gid.equals(membership.project.gid)
+                        && membership.section != null) {
+                    return membership.section.name;
+                }
+            }
+        }
+        return null;
+    }
+    
+    void insertTask(SyncContext sync, TaskData taskData, TaskCalls calls) {
+        // create the task in the project
+        // TODO - need to add description
+        Map<String, Object> data = new HashMap<>();
+        data.put(ASANA_NAME, taskData.getName());
+        data.put(ASANA_WORKSPACE, sync.workspace.gid);
+        data.put(ASANA_PROJECTS, Collections.singletonList(sync.project.gid));
+        if (taskData.getDueDate() != null) {
+            data.put(ASANA_DUE_ON, taskData.getDueDate().format(DATE_FORMATTER));
+        }
+        Section section = getOrCreateSectionGid(taskData.getSection(), sync.sectionMap, sync.project.gid,
+                sync.problems);
+        IntPredicate failure = status -> {
+            sync.failedTasks.add(taskData);
+            return false;
+        };
+        calls.add("createTask", HTTP_POST, "/tasks", data, TASK_RESULT_FIELDS, result -> {
+            calls.created();
+            Task newTask = toTask(result);
             taskData.setAsanaData(newTask);
-            Section section = getOrCreateSectionGid(taskData.getSection(), sectionMap, project.gid, problems);
-            // set the project
-            ItemRequest<JsonElement> requestAddProjectForTask = client.tasks.addProjectForTask(newTask.gid)
-                    .data(ASANA_PROJECT, project.gid)
-                    .option(ASANA_PRETTY, true);
-            // determine if there is a section and if so add it as part of this call
+            if (sync.journal != null) {
+                try {
+                    sync.journal.created(taskData.getRowNumber(), newTask.gid);
+                } catch (IOException e) {
+                    sync.problems.addWarning(Problems.WARNING_JOURNAL_NOT_AVAILABLE, e.toString());
+                    LOGGER.debug("error writing journal " + e.toString());
+                }
+            }
+            // the section and subtasks need the gid of the new task so they go in a later batch
             if (section != null) {
-                // add section to the task
-                requestAddProjectForTask = requestAddProjectForTask.data(ASANA_SECTION, section.gid);
-                taskData.setAsanaSection(section.name);
+                addTaskToSection(calls, section, newTask.gid, taskData, failure);
             }
-            JsonElement json = requestAddProjectForTask.execute();
-            // subtasks are separate calls
-        } catch (Exception e) {
-            problems.addError(Problems.ERROR_FROM_ASANA, e.toString());
-            LOGGER.debug("error inserting task " + e.toString());
+            createSubTasks(calls, newTask.gid, taskData.getSubTasks(), failure);
+        }, failure);
+    }
+    
+    private void addTaskToSection(TaskCalls calls, Section section, String taskGid, TaskData taskData,
+                                  IntPredicate failure) {
+        Map<String, Object> data = new HashMap<>();
+        data.put(ASANA_TASK, taskGid);
+        calls.add("addTaskForSection", HTTP_POST, "/sections/" + section.gid + "/addTask", data, null, result -> {
+            taskData.setAsanaSection(section.name);
+            calls.changed();
+        }, failure);
+    }
+    
+    /**
+     * Batch results are only requested with the gid and name of the task.
+     *
+     * @param result
+     * @return Task
+     */
+    private Task toTask(JsonObject result) {
+        return toTask(result.get(ASANA_GID).getAsString(),
+                result.has(ASANA_NAME) ? result.get(ASANA_NAME).getAsString() : null);
+    }
+    
+    private Task toTask(String gid, String name) {
+        Task task = new Task();
+        task.gid = gid;
+        task.name = name;
+        task.numSubtasks = UNKNOWN_SUBTASKS;
+        return task;
+    }
+    
+    /**
+     * Asks Asana for only the fields given, or its default fields if they
+     * are null, and for a pretty printed response if asana.pretty is set.
+     *
+     * @param request
+     * @param fields
+     * @return CollectionRequest<T>
+     */
+    private <T> CollectionRequest<T> select(CollectionRequest<T> request, List<String> fields) {
+        if (fields != null) {
+            request = request.option(ASANA_FIELDS, fields);
+        }
+        return pretty ? request.option(ASANA_PRETTY, true) : request;
+    }
+    
+    private <T> ItemRequest<T> select(ItemRequest<T> request, List<String> fields) {
+        if (fields != null) {
+            request = request.option(ASANA_FIELDS, fields);
         }
+        return pretty ? request.option(ASANA_PRETTY, true) : request;
     }
     
     void deleteTasks(List<TaskData> tasks) {
@@ -325,10 +1656,13 @@ public class AsanaClient {
             // exist in Asana which is indicated by task.getAsanaData() != null
             if (task.getAsanaData() != null) {
                 try {
-                    JsonElement result = client.tasks.deleteTask(task.getAsanaData().gid)
-                            .option(ASANA_PRETTY, true)
-                            .execute();
+                    JsonElement result = limiter.execute("deleteTask", () ->
+                            select(client.tasks.deleteTask(task.getAsanaData().gid), null)
+                                    .execute());
                     LOGGER.debug("deleted task " + task.getName() + "  " + result.toString());
+                    for (ProjectMirror mirror : mirrors.values()) {
+                        mirror.removeTask(task.getAsanaData().gid);
+                    }
                 } catch (Exception e) {
                     LOGGER.debug(e.toString());
                     LOGGER.debug("error deleting task " + e.toString());
@@ -0,0 +1,55 @@
+package com.cappella.asana;
+
+import java.io.IOException;
+
+/**
+ * An error status answered by Asana to a call made through the
+ * AsanaAsyncTransport.
+ */
+class AsanaHttpException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    static final int NOT_FOUND = 404;
+    static final int TOO_MANY_REQUESTS = 429;
+    private static final int SERVER_ERROR = 500;
+
+    private final int status;
+    private final long retryAfter;
+
+    /**
+     * @param status
+     * @param retryAfter seconds from the Retry-After header, 0 if Asana did not send one
+     * @param message
+     */
+    AsanaHttpException(int status, long retryAfter, String message) {
+        super(status + " " + message);
+        this.status = status;
+        this.retryAfter = retryAfter;
+    }
+
+    int getStatus() {
+        return status;
+    }
+
+    long getRetryAfter() {
+        return retryAfter;
+    }
+
+    boolean isNotFound() {
+        return status == NOT_FOUND;
+    }
+
+    boolean isRateLimited() {
+        return status == TOO_MANY_REQUESTS;
+    }
+
+    /**
+     * Server errors are worth retrying, like RetryableAsanaError.
+     *
+     * @return boolean
+     */
+    boolean isRetryable() {
+        return status >= SERVER_ERROR;
+    }
+}
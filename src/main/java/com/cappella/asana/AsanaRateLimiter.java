@@ -0,0 +1,302 @@
+package com.cappella.asana;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.asana.errors.RateLimitEnforcedError;
+import com.asana.errors.RetryableAsanaError;
+import com.cappella.metrics.ImportMetrics;
+
+/**
+ * Every call to Asana goes through this class so that all of the threads
+ * talking to Asana share one request budget.
+ * https://developers.asana.com/docs/rate-limits
+ *
+ * The budget is a token bucket refilled at the current rate. The rate starts
+ * at the configured maximum, is halved when Asana answers 429 Too Many
+ * Requests, at most once per Retry-After, and slowly climbs back towards the
+ * maximum with every success.
+ * A 429 also holds back every caller until its Retry-After has passed.
+ * Calls failing with a 429 or another retryable error are retried up to
+ * maxRetries times, other retryable errors wait a jittered exponential backoff.
+ * The async versions wait on a delayed future instead of sleeping, so no
+ * thread is held while a call waits for the budget.
+ * Every attempt is timed in the ImportMetrics by operation, and so are the
+ * waits for the budget, the retries and the calls in flight.
+ */
+class AsanaRateLimiter {
+
+    static final int DEFAULT_REQUESTS_PER_MINUTE = 1500;
+    static final int DEFAULT_MAX_RETRIES = 5;
+
+    private static final double MIN_REQUESTS_PER_SECOND = 0.5;
+    private static final long BASE_BACKOFF_MILLIS = 500;
+    private static final long MAX_BACKOFF_MILLIS = 30_000;
+    private static final long DEFAULT_RETRY_AFTER_SECONDS = 30;
+    private static final String RATE_LIMITED = "rate_limited";
+    private static final String SERVER_ERROR = "server_error";
+
+    private final Logger LOGGER = LoggerFactory.getLogger(getClass());
+
+    private double maxPerSecond;
+    private double perSecond;
+    private double available;
+    private long lastRefill;
+    private long blockedUntil;
+    private volatile int maxRetries;
+    private volatile ImportMetrics metrics = ImportMetrics.NONE;
+
+    AsanaRateLimiter(int requestsPerMinute, int maxRetries) {
+        configure(requestsPerMinute, maxRetries);
+        this.available = maxPerSecond;
+        this.lastRefill = System.nanoTime();
+        this.blockedUntil = lastRefill;
+    }
+
+    void setMetrics(ImportMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    synchronized void configure(int requestsPerMinute, int maxRetries) {
+        this.maxPerSecond = Math.max(MIN_REQUESTS_PER_SECOND, requestsPerMinute / 60.0);
+        this.perSecond = maxPerSecond;
+        // allow a burst of up to one second of requests
+        this.available = Math.min(available, maxPerSecond);
+        this.maxRetries = Math.max(0, maxRetries);
+    }
+
+    /**
+     * Runs the call once the budget allows, retrying when Asana says it
+     * is safe to retry.
+     *
+     * @param operation used in the log
+     * @param permits the number of requests the call counts as
+     * @param call
+     * @return T
+     * @throws IOException the error from the last attempt
+     */
+    <T> T execute(String operation, int permits, AsanaCall<T> call) throws IOException {
+        for (int attempt = 0; ; attempt++) {
+            acquire(permits);
+            try {
+                T result = timed(operation, call);
+                onSuccess();
+                return result;
+            } catch (RateLimitEnforcedError e) {
+                if (attempt >= maxRetries) {
+                    throw e;
+                }
+                metrics.asanaRetry(operation, RATE_LIMITED);
+                onRateLimited(e.retryAfter);
+                LOGGER.debug("rate limited on " + operation + " retry " + (attempt + 1) + " after "
+                        + e.retryAfter + " s");
+            } catch (RetryableAsanaError e) {
+                if (attempt >= maxRetries) {
+                    throw e;
+                }
+                metrics.asanaRetry(operation, SERVER_ERROR);
+                long backoff = backoffMillis(attempt);
+                LOGGER.debug("retryable error on " + operation + " retry " + (attempt + 1) + " in "
+                        + backoff + " ms " + e.toString());
+                sleep(TimeUnit.MILLISECONDS.toNanos(backoff));
+            }
+        }
+    }
+
+    <T> T execute(String operation, AsanaCall<T> call) throws IOException {
+        return execute(operation, 1, call);
+    }
+
+    /**
+     * Async version of execute for calls made through the
+     * AsanaAsyncTransport, which fail with an AsanaHttpException. The
+     * returned future completes with the result or the error from the last
+     * attempt.
+     *
+     * @param operation used in the log
+     * @param permits the number of requests the call counts as
+     * @param call
+     * @return CompletableFuture<T>
+     */
+    <T> CompletableFuture<T> executeAsync(String operation, int permits, Supplier<CompletableFuture<T>> call) {
+        return executeAsync(operation, permits, call, 0);
+    }
+
+    private <T> CompletableFuture<T> executeAsync(String operation, int permits,
+                                                  Supplier<CompletableFuture<T>> call, int attempt) {
+        return acquireAsync(permits)
+                .thenCompose(ready -> timedAsync(operation, call))
+                .handle((result, error) -> {
+                    if (error == null) {
+                        onSuccess();
+                        return CompletableFuture.completedFuture(result);
+                    }
+                    Throwable cause = error instanceof CompletionException && error.getCause() != null
+                            ? error.getCause() : error;
+                    if (!(cause instanceof AsanaHttpException) || attempt >= maxRetries) {
+                        return CompletableFuture.<T>failedFuture(cause);
+                    }
+                    AsanaHttpException httpError = (AsanaHttpException) cause;
+                    if (httpError.isRateLimited()) {
+                        metrics.asanaRetry(operation, RATE_LIMITED);
+                        onRateLimited(httpError.getRetryAfter());
+                        LOGGER.debug("rate limited on " + operation + " retry " + (attempt + 1) + " after "
+                                + httpError.getRetryAfter() + " s");
+                        return executeAsync(operation, permits, call, attempt + 1);
+                    } else if (httpError.isRetryable()) {
+                        metrics.asanaRetry(operation, SERVER_ERROR);
+                        long backoff = backoffMillis(attempt);
+                        LOGGER.debug("retryable error on " + operation + " retry " + (attempt + 1) + " in "
+                                + backoff + " ms " + httpError.toString());
+                        return delay(TimeUnit.MILLISECONDS.toNanos(backoff))
+                                .thenCompose(ready -> executeAsync(operation, permits, call, attempt + 1));
+                    }
+                    return CompletableFuture.<T>failedFuture(cause);
+                })
+                .thenCompose(future -> future);
+    }
+
+    /**
+     * Completes once the permits are available.
+     *
+     * @param permits
+     * @return CompletableFuture<Void>
+     */
+    CompletableFuture<Void> acquireAsync(int permits) {
+        long wait = reserve(permits);
+        metrics.rateLimitWait(wait);
+        return delay(wait);
+    }
+
+    /**
+     * Blocks until the permits are available.
+     *
+     * @param permits
+     * @throws InterruptedIOException
+     */
+    void acquire(int permits) throws InterruptedIOException {
+        long wait = reserve(permits);
+        metrics.rateLimitWait(wait);
+        sleep(wait);
+    }
+
+    private <T> T timed(String operation, AsanaCall<T> call) throws IOException {
+        long start = System.nanoTime();
+        String outcome = ImportMetrics.OUTCOME_ERROR;
+        metrics.callStarted();
+        try {
+            T result = call.call();
+            outcome = ImportMetrics.OUTCOME_SUCCESS;
+            return result;
+        } finally {
+            metrics.callFinished();
+            metrics.asanaCall(operation, System.nanoTime() - start, outcome);
+        }
+    }
+
+    private <T> CompletableFuture<T> timedAsync(String operation, Supplier<CompletableFuture<T>> call) {
+        long start = System.nanoTime();
+        metrics.callStarted();
+        CompletableFuture<T> result;
+        try {
+            result = call.get();
+        } catch (RuntimeException e) {
+            result = CompletableFuture.failedFuture(e);
+        }
+        return result.whenComplete((value, error) -> {
+            metrics.callFinished();
+            metrics.asanaCall(operation, System.nanoTime() - start,
+                    error == null ? ImportMetrics.OUTCOME_SUCCESS : ImportMetrics.OUTCOME_ERROR);
+        });
+    }
+
+    /**
+     * Takes the permits from the bucket, going into debt if needed, and
+     * returns how many nanoseconds the caller must wait before using them.
+     *
+     * @param permits
+     * @return long
+     */
+    synchronized long reserve(int permits) {
+        long now = System.nanoTime();
+        available = Math.min(maxPerSecond, available + (now - lastRefill) / 1e9 * perSecond);
+        lastRefill = now;
+        available -= permits;
+        long wait = available >= 0 ? 0 : (long) (-available / perSecond * 1e9);
+        return Math.max(wait, blockedUntil - now);
+    }
+
+    synchronized void onSuccess() {
+        perSecond = Math.min(maxPerSecond, perSecond + maxPerSecond / 100);
+    }
+
+    /**
+     * @param retryAfterSeconds from the Retry-After header, 0 if Asana did not send one
+     */
+    synchronized void onRateLimited(long retryAfterSeconds) {
+        long now = System.nanoTime();
+        // the calls already in flight when Asana starts answering 429 get one each, they only halve the rate once
+        if (now - blockedUntil >= 0) {
+            perSecond = Math.max(MIN_REQUESTS_PER_SECOND, perSecond / 2);
+        }
+        long seconds = retryAfterSeconds > 0 ? retryAfterSeconds : DEFAULT_RETRY_AFTER_SECONDS;
+        blockedUntil = Math.max(blockedUntil, now + TimeUnit.SECONDS.toNanos(seconds));
+        // start from an empty bucket once the wait is over
+        available = Math.min(available, 0);
+    }
+
+    synchronized double getRequestsPerSecond() {
+        return perSecond;
+    }
+
+    int getMaxRetries() {
+        return maxRetries;
+    }
+
+    /**
+     * Exponential backoff with a random wait between half and all of the
+     * backoff so that retrying threads do not all wake up at once.
+     *
+     * @param attempt
+     * @return long
+     */
+    long backoffMillis(int attempt) {
+        long ceiling = Math.min(MAX_BACKOFF_MILLIS, BASE_BACKOFF_MILLIS << Math.min(attempt, 16));
+        return ThreadLocalRandom.current().nextLong(ceiling / 2, ceiling + 1);
+    }
+
+    private static CompletableFuture<Void> delay(long nanos) {
+        if (nanos <= 0) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return CompletableFuture.runAsync(() -> { },
+                CompletableFuture.delayedExecutor(nanos, TimeUnit.NANOSECONDS));
+    }
+
+    private void sleep(long nanos) throws InterruptedIOException {
+        if (nanos > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(nanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted waiting for the Asana rate limit");
+            }
+        }
+    }
+
+    /**
+     * A call to Asana made through the client.
+     */
+    @FunctionalInterface
+    interface AsanaCall<T> {
+        T call() throws IOException;
+    }
+}
@@ -0,0 +1,310 @@
+package com.cappella.asana;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import com.asana.models.Project;
+import com.asana.models.Workspace;
+import com.cappella.model.Problems;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+@Service
+/**
+ * Keeps a ProjectMirror of the configured project current with an Asana
+ * webhook, so imports do not have to list the whole project.
+ * https://developers.asana.com/docs/webhooks
+ *
+ * When asana.webhook.target.url is set the webhook is created once the
+ * application is ready, with the project gid added to the target url.
+ * Asana first sends a handshake with the secret it signs every later
+ * delivery with, a handshake is only accepted while the webhook is being
+ * created and a delivery is only accepted with a matching signature.
+ * The events only say which task or section changed, so those are read
+ * again from Asana, in batches, and put in the mirror.
+ * The mirror is read in full once the webhook exists and again every
+ * asana.webhook.resync.minutes to recover from events which were missed,
+ * creating the webhook is retried then if it failed. All of this runs on
+ * one thread, so events are applied in the order they arrived and never
+ * during a full read.
+ * The webhook is deleted when the application stops, a webhook left behind
+ * by a crash is removed by Asana once its deliveries keep being rejected.
+ */
+public class AsanaWebhookService {
+
+    static final int DEFAULT_RESYNC_MINUTES = 60;
+
+    private static final String SIGNATURE_ALGORITHM = "HmacSHA256";
+    private static final String TASK = "task";
+    private static final String SECTION = "section";
+    private static final String PROJECT = "project";
+    private static final String DELETED = "deleted";
+    private static final String REMOVED = "removed";
+
+    private final Logger LOGGER = LoggerFactory.getLogger(getClass());
+
+    private final AsanaClient asana;
+    // by project gid
+    private final Map<String, Registration> registrations = new ConcurrentHashMap<>();
+    private ScheduledExecutorService executor;
+
+    @Value("${asana.workspace.name}")
+    private String workspaceName;
+    @Value("${asana.project.name}")
+    private String projectName;
+    // the public url of the /webhooks/asana endpoint, no webhook is created when blank
+    @Value("${asana.webhook.target.url:}")
+    private String targetUrl;
+    @Value("${asana.webhook.resync.minutes:" + DEFAULT_RESYNC_MINUTES + "}")
+    private int resyncMinutes = DEFAULT_RESYNC_MINUTES;
+
+    public AsanaWebhookService(AsanaClient asana) {
+        this.asana = asana;
+    }
+
+    @PostConstruct
+    void configure() {
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "asana-webhooks");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (targetUrl != null && !targetUrl.isBlank()) {
+            register(targetUrl);
+        }
+    }
+
+    @PreDestroy
+    void shutdown() {
+        executor.shutdownNow();
+        for (Map.Entry<String, Registration> registration : registrations.entrySet()) {
+            asana.stopMirroring(registration.getKey());
+            if (registration.getValue().webhookGid != null) {
+                try {
+                    asana.deleteWebhook(registration.getValue().webhookGid);
+                } catch (IOException | RuntimeException e) {
+                    LOGGER.debug("error deleting webhook " + e.toString());
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates the webhook and fills the mirror in the background, then
+     * reads the mirror again every resyncMinutes.
+     *
+     * @param target the url of the /webhooks/asana endpoint
+     */
+    void register(String target) {
+        executor.scheduleWithFixedDelay(() -> resync(target), 0, Math.max(1, resyncMinutes), TimeUnit.MINUTES);
+    }
+
+    /**
+     * Accepts the handshake Asana sends while the webhook of the project
+     * is being created.
+     *
+     * @param projectGid
+     * @param secret the X-Hook-Secret
+     * @return boolean false if no webhook is being created for the project
+     */
+    public boolean handshake(String projectGid, String secret) {
+        Registration registration = registrations.get(projectGid);
+        if (registration == null || !registration.awaitingHandshake || secret == null || secret.isBlank()) {
+            return false;
+        }
+        registration.secret = secret;
+        LOGGER.info("webhook handshake for project " + projectGid);
+        return true;
+    }
+
+    /**
+     * Checks the signature of a delivery and queues its events to be
+     * applied to the mirror, Asana expects an answer within seconds.
+     *
+     * @param projectGid
+     * @param body
+     * @param signature the X-Hook-Signature
+     * @return boolean false if the delivery is not signed with the secret of the project
+     */
+    public boolean receive(String projectGid, byte[] body, String signature) {
+        Registration registration = registrations.get(projectGid);
+        String secret = registration == null ? null : registration.secret;
+        if (secret == null || signature == null || !MessageDigest.isEqual(
+                sign(secret, body).getBytes(StandardCharsets.UTF_8),
+                signature.trim().toLowerCase(Locale.ROOT).getBytes(StandardCharsets.UTF_8))) {
+            return false;
+        }
+        JsonArray events;
+        try {
+            events = JsonParser.parseString(new String(body, StandardCharsets.UTF_8)).getAsJsonObject()
+                    .getAsJsonArray("events");
+        } catch (RuntimeException e) {
+            registration.mirror.markStale();
+            LOGGER.debug("error reading webhook events " + e.toString());
+            return true;
+        }
+        // a heartbeat has no events
+        if (events != null && events.size() > 0) {
+            executor.execute(() -> apply(registration.mirror, events));
+        }
+        return true;
+    }
+
+    /**
+     * Removes the deleted tasks and sections from the mirror and reads the
+     * others again. A change to a subtask reads its parent again, since the
+     * mirror only counts the subtasks of a task.
+     *
+     * @param mirror
+     * @param events
+     */
+    void apply(ProjectMirror mirror, JsonArray events) {
+        Set<String> taskGids = new LinkedHashSet<>();
+        Set<String> sectionGids = new LinkedHashSet<>();
+        try {
+            for (JsonElement element : events) {
+                JsonObject event = element.getAsJsonObject();
+                String action = getString(event, "action");
+                JsonObject resource = event.getAsJsonObject("resource");
+                JsonObject parent = event.has("parent") && event.get("parent").isJsonObject()
+                        ? event.getAsJsonObject("parent") : null;
+                String type = getString(resource, "resource_type");
+                String gid = getString(resource, "gid");
+                String parentType = parent == null ? null : getString(parent, "resource_type");
+                if (TASK.equals(type)) {
+                    if (TASK.equals(parentType)) {
+                        String parentGid = getString(parent, "gid");
+                        if (mirror.getTask(parentGid) != null) {
+                            taskGids.add(parentGid);
+                        }
+                    } else if (DELETED.equals(action) || REMOVED.equals(action) && PROJECT.equals(parentType)) {
+                        taskGids.remove(gid);
+                        mirror.removeTask(gid);
+                    } else {
+                        taskGids.add(gid);
+                    }
+                } else if (SECTION.equals(type)) {
+                    if (DELETED.equals(action) || REMOVED.equals(action)) {
+                        sectionGids.remove(gid);
+                        mirror.removeSection(gid);
+                    } else {
+                        sectionGids.add(gid);
+                    }
+                }
+            }
+            if (!taskGids.isEmpty() || !sectionGids.isEmpty()) {
+                asana.refreshMirror(mirror, taskGids, sectionGids);
+            }
+            LOGGER.debug("applied " + events.size() + " webhook events to project " + mirror.getProjectGid());
+        } catch (RuntimeException e) {
+            mirror.markStale();
+            LOGGER.debug("error applying webhook events " + e.toString());
+        }
+    }
+
+    private void resync(String target) {
+        try {
+            Problems problems = new Problems();
+            Workspace workspace = asana.getWorkspace(workspaceName, problems);
+            Project project = workspace == null ? null : asana.getProject(workspace, projectName, problems);
+            if (project == null) {
+                LOGGER.warn("no webhook for project " + projectName + " " + problems.getErrors().keySet());
+                return;
+            }
+            // a mirror which missed two full reads in a row is not used
+            long maxAgeNanos = TimeUnit.MINUTES.toNanos(2L * Math.max(1, resyncMinutes));
+            Registration registration = registrations.computeIfAbsent(project.gid,
+                    gid -> new Registration(asana.mirrorProject(gid, maxAgeNanos)));
+            if (registration.webhookGid == null) {
+                registration.awaitingHandshake = true;
+                try {
+                    registration.webhookGid = asana.createWebhook(project.gid,
+                            (target.endsWith("/") ? target : target + "/") + project.gid);
+                    LOGGER.info("created webhook " + registration.webhookGid + " for project " + project.gid);
+                } finally {
+                    registration.awaitingHandshake = false;
+                }
+            }
+            long start = System.nanoTime();
+            if (asana.resyncMirror(registration.mirror, problems)) {
+                LOGGER.info("read " + registration.mirror.size() + " tasks into the mirror of project "
+                        + project.gid + " in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+            } else {
+                LOGGER.warn("could not read project " + project.gid + " " + problems.getErrors().keySet());
+            }
+        } catch (IOException | RuntimeException e) {
+            // thrown out of a scheduled task it would stop the resyncs
+            LOGGER.warn("error creating webhook " + e.toString());
+        }
+    }
+
+    /**
+     * The X-Hook-Signature Asana sends, the HMAC-SHA256 of the body with the
+     * secret as lower case hex.
+     *
+     * @param secret
+     * @param body
+     * @return String
+     */
+    static String sign(String secret, byte[] body) {
+        try {
+            Mac mac = Mac.getInstance(SIGNATURE_ALGORITHM);
+            mac.init(new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), SIGNATURE_ALGORITHM));
+            StringBuilder hex = new StringBuilder();
+            for (byte b : mac.doFinal(body)) {
+                hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return hex.toString();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String getString(JsonObject json, String member) {
+        JsonElement value = json == null ? null : json.get(member);
+        return value == null || value.isJsonNull() ? null : value.getAsString();
+    }
+
+    /**
+     * The webhook of one project.
+     */
+    private static class Registration {
+
+        final ProjectMirror mirror;
+        volatile String webhookGid;
+        volatile String secret;
+        volatile boolean awaitingHandshake;
+
+        Registration(ProjectMirror mirror) {
+            this.mirror = mirror;
+        }
+    }
+}
@@ -0,0 +1,312 @@
+package com.cappella.asana;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.cappella.model.Fnv1a;
+import com.cappella.model.SubTask;
+import com.cappella.model.TaskData;
+
+/**
+ * Remembers which Asana task each grant was synced to, so a re-import can
+ * go straight to the task gid without listing the whole project.
+ * A grant is identified by its "Opportunity name" and "Funder name", and the
+ * index keeps the gid of its task and a hash of the content last synced.
+ *
+ * The index is an append-only log on disk. Every put or remove is appended
+ * as a record and the log is replayed when the index is opened. A record cut
+ * short by a crash is dropped. When the log holds many more records than live
+ * entries it is compacted, when it is opened or closed, by writing the live
+ * entries to a new file which replaces the log.
+ */
+class GrantTaskIndex implements Closeable {
+
+    private static final byte PUT = 1;
+    private static final byte REMOVE = 2;
+    private static final int MIN_RECORDS_TO_COMPACT = 1000;
+
+    private final Path file;
+    private final Map<String, Entry> entries = new HashMap<>();
+    private DataOutputStream log;
+    private int records;
+
+    private GrantTaskIndex(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * Opens the index stored in the file, creating it if it does not exist.
+     *
+     * @param file
+     * @return GrantTaskIndex
+     * @throws IOException
+     */
+    static GrantTaskIndex open(Path file) throws IOException {
+        GrantTaskIndex index = new GrantTaskIndex(file);
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        long validLength = 0;
+        if (Files.exists(file)) {
+            validLength = index.replay();
+            if (validLength < Files.size(file)) {
+                // drop the partial record left by a crash
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                    channel.truncate(validLength);
+                }
+            }
+        }
+        if (index.isMostlySuperseded()) {
+            index.compact();
+        } else {
+            index.log = openLog(file, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        }
+        return index;
+    }
+
+    /**
+     * Will return null if the grant of the task has not been synced.
+     *
+     * @param taskData
+     * @return Entry
+     */
+    synchronized Entry get(TaskData taskData) {
+        return entries.get(key(taskData));
+    }
+
+    synchronized void put(TaskData taskData, String gid, long hash) throws IOException {
+        String key = key(taskData);
+        Entry entry = new Entry(gid, hash);
+        if (!entry.equals(entries.get(key))) {
+            entries.put(key, entry);
+            log.writeByte(PUT);
+            log.writeUTF(key);
+            log.writeUTF(gid);
+            log.writeLong(hash);
+            records++;
+        }
+    }
+
+    synchronized void remove(TaskData taskData) throws IOException {
+        String key = key(taskData);
+        if (entries.remove(key) != null) {
+            log.writeByte(REMOVE);
+            log.writeUTF(key);
+            records++;
+        }
+    }
+
+    /**
+     * Removes the entries of every grant whose key is not one of the keys,
+     * used once the keys are known to be those of every grant in the CSV
+     * file.
+     *
+     * @param keys
+     * @return int the number of entries removed
+     * @throws IOException
+     */
+    synchronized int retainOnly(Set<String> keys) throws IOException {
+        List<String> removed = new ArrayList<>();
+        for (String key : entries.keySet()) {
+            if (!keys.contains(key)) {
+                removed.add(key);
+            }
+        }
+        for (String key : removed) {
+            entries.remove(key);
+            log.writeByte(REMOVE);
+            log.writeUTF(key);
+            records++;
+        }
+        return removed.size();
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Rewrites the log with only the live entries.
+     *
+     * @throws IOException
+     */
+    synchronized void compact() throws IOException {
+        if (log != null) {
+            log.close();
+        }
+        Path compacted = file.resolveSibling(file.getFileName() + ".compact");
+        try (DataOutputStream out = openLog(compacted, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                out.writeByte(PUT);
+                out.writeUTF(entry.getKey());
+                out.writeUTF(entry.getValue().gid);
+                out.writeLong(entry.getValue().hash);
+            }
+        }
+        Files.move(compacted, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        records = entries.size();
+        log = openLog(file, StandardOpenOption.APPEND);
+    }
+
+    /**
+     * Writes the appended records through to the file.
+     *
+     * @throws IOException
+     */
+    synchronized void flush() throws IOException {
+        log.flush();
+    }
+
+    /**
+     * Compacts the log first when it has grown mostly superseded since it
+     * was opened.
+     *
+     * @throws IOException
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (isMostlySuperseded()) {
+            compact();
+        }
+        log.close();
+    }
+
+    private boolean isMostlySuperseded() {
+        return records > MIN_RECORDS_TO_COMPACT && records > 2 * entries.size();
+    }
+
+    private long replay() throws IOException {
+        long validLength = 0;
+        try (InputStream in = Files.newInputStream(file);
+             CountingInputStream counting = new CountingInputStream(new BufferedInputStream(in));
+             DataInputStream data = new DataInputStream(counting)) {
+            while (true) {
+                byte op = data.readByte();
+                String key = data.readUTF();
+                if (op == PUT) {
+                    String gid = data.readUTF();
+                    long hash = data.readLong();
+                    entries.put(key, new Entry(gid, hash));
+                } else if (op == REMOVE) {
+                    entries.remove(key);
+                } else {
+                    break;
+                }
+                records++;
+                validLength = counting.count;
+            }
+        } catch (EOFException e) {
+            // end of the log, possibly in the middle of a record
+        }
+        return validLength;
+    }
+
+    private static DataOutputStream openLog(Path file, StandardOpenOption... options) throws IOException {
+        OutputStream out = Files.newOutputStream(file, options);
+        return new DataOutputStream(new BufferedOutputStream(out));
+    }
+
+    static String key(TaskData taskData) {
+        String funderName = taskData.getFunderName() == null ? "" : taskData.getFunderName();
+        return taskData.getName() + "\u0000" + funderName;
+    }
+
+    /**
+     * A hash of everything synced to Asana for the task.
+     *
+     * @param taskData
+     * @return long
+     */
+    static long contentHash(TaskData taskData) {
+        long hash = Fnv1a.start();
+        hash = Fnv1a.hash(hash, taskData.getName());
+        hash = Fnv1a.hash(hash, taskData.getFunderName());
+        hash = Fnv1a.hash(hash, taskData.getDueDate() == null ? null : taskData.getDueDate().toString());
+        hash = Fnv1a.hash(hash, taskData.getSection());
+        for (SubTask subTask : taskData.getSubTasks()) {
+            hash = Fnv1a.hash(hash, subTask.getName());
+            hash = Fnv1a.hash(hash, subTask.getDueDate() == null ? null : subTask.getDueDate().toString());
+        }
+        return hash;
+    }
+
+    /**
+     * The gid of the Asana task and the hash of the content last synced to it.
+     */
+    static class Entry {
+
+        private final String gid;
+        private final long hash;
+
+        Entry(String gid, long hash) {
+            this.gid = gid;
+            this.hash = hash;
+        }
+
+        String getGid() {
+            return gid;
+        }
+
+        long getHash() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Entry)) {
+                return false;
+            }
+            Entry entry = (Entry) other;
+            return gid.equals(entry.gid) && hash == entry.hash;
+        }
+
+        @Override
+        public int hashCode() {
+            return gid.hashCode() * 31 + Long.hashCode(hash);
+        }
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+
+        private long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+    }
+}
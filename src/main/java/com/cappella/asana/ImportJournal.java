@@ -0,0 +1,180 @@
+package com.cappella.asana;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * The progress of an import of one file into a project, so that running the
+ * same file again after a crash or a failure resumes where it stopped.
+ * A file is identified by a key, such as a digest of its content.
+ *
+ * The journal is an append-only log on disk like the GrantTaskIndex. It holds
+ * the key, the gid of every task the import inserted with the row it was
+ * inserted for, and checkpoints. A checkpoint is a row which every row up to
+ * has been synced, the rows are numbered in the order they are imported.
+ * The gids are written as soon as Asana returns them, so a rerun updates
+ * those tasks rather than inserting them again, but the file is only forced
+ * to disk with each checkpoint. A record cut short by a crash is dropped.
+ * Opening the journal with another key starts it again, only the last file
+ * imported into the project can be resumed.
+ */
+class ImportJournal implements Closeable {
+
+    private static final byte KEY = 1;
+    private static final byte CREATED = 2;
+    private static final byte CHECKPOINT = 3;
+
+    private final Path file;
+    // row -> gid of the task inserted for it, only after the checkpoint
+    private final NavigableMap<Long, String> created = new TreeMap<>();
+    private FileChannel channel;
+    private DataOutputStream log;
+    private long checkpoint;
+
+    private ImportJournal(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * Opens the journal stored in the file, creating it if it does not exist
+     * or is for another key.
+     *
+     * @param file
+     * @param key
+     * @return ImportJournal
+     * @throws IOException
+     */
+    static ImportJournal open(Path file, String key) throws IOException {
+        ImportJournal journal = new ImportJournal(file);
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        long validLength = Files.exists(file) ? journal.replay(key) : 0;
+        journal.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        // drops the partial record left by a crash, or the whole journal of another file
+        journal.channel.truncate(validLength);
+        journal.channel.position(validLength);
+        journal.log = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(journal.channel)));
+        if (validLength == 0) {
+            journal.log.writeByte(KEY);
+            journal.log.writeUTF(key);
+            journal.sync();
+        }
+        return journal;
+    }
+
+    /**
+     * @return long the row every row up to has been synced, 0 if none has
+     */
+    synchronized long getCheckpoint() {
+        return checkpoint;
+    }
+
+    /**
+     * Will return null if no task was inserted for the row after the
+     * checkpoint.
+     *
+     * @param row
+     * @return String
+     */
+    synchronized String getCreatedGid(long row) {
+        return created.get(row);
+    }
+
+    /**
+     * Records the task inserted for the row, it is written through to the
+     * file but not forced to disk.
+     *
+     * @param row
+     * @param gid
+     * @throws IOException
+     */
+    synchronized void created(long row, String gid) throws IOException {
+        created.put(row, gid);
+        log.writeByte(CREATED);
+        log.writeLong(row);
+        log.writeUTF(gid);
+        log.flush();
+    }
+
+    /**
+     * Records that every row up to the row given has been synced and forces
+     * the journal to disk.
+     *
+     * @param row
+     * @throws IOException
+     */
+    synchronized void checkpoint(long row) throws IOException {
+        if (row > checkpoint) {
+            checkpoint = row;
+            created.headMap(row, true).clear();
+            log.writeByte(CHECKPOINT);
+            log.writeLong(row);
+        }
+        sync();
+    }
+
+    /**
+     * Closes and removes the journal once the whole file has been imported.
+     *
+     * @throws IOException
+     */
+    synchronized void delete() throws IOException {
+        close();
+        Files.deleteIfExists(file);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel.isOpen()) {
+            log.close();
+        }
+    }
+
+    private void sync() throws IOException {
+        log.flush();
+        channel.force(false);
+    }
+
+    /**
+     * @return long the length of the valid records, 0 if the journal is for another key
+     */
+    private long replay(String key) throws IOException {
+        byte[] bytes = Files.readAllBytes(file);
+        ByteArrayInputStream in = new ByteArrayInputStream(bytes);
+        DataInputStream data = new DataInputStream(in);
+        long validLength = 0;
+        try {
+            if (data.readByte() != KEY || !key.equals(data.readUTF())) {
+                return 0;
+            }
+            validLength = bytes.length - in.available();
+            while (true) {
+                byte op = data.readByte();
+                if (op == CREATED) {
+                    long row = data.readLong();
+                    created.put(row, data.readUTF());
+                } else if (op == CHECKPOINT) {
+                    checkpoint = Math.max(checkpoint, data.readLong());
+                } else {
+                    break;
+                }
+                validLength = bytes.length - in.available();
+            }
+        } catch (EOFException e) {
+            // end of the log, possibly in the middle of a record
+        }
+        created.headMap(checkpoint, true).clear();
+        return validLength;
+    }
+}
@@ -0,0 +1,253 @@
+package com.cappella.asana;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.asana.models.Section;
+import com.asana.models.Task;
+
+/**
+ * A copy of the tasks and sections of one Asana project, kept current by
+ * the events Asana sends to the webhook of the project, so an import can
+ * compare its tasks with the mirror instead of listing the whole project.
+ * https://developers.asana.com/docs/webhooks
+ *
+ * The mirror is empty and not used until it is filled by a full read of the
+ * project, and it is read again every so often to recover from events which
+ * were missed. It is not used once its last full read is older than maxAge,
+ * or once an event could not be applied, until the next full read.
+ * Events applied while a full read is under way win over what the read
+ * returned, since the read may have seen the project before the events.
+ *
+ * The tasks are the ones read with AsanaClient.TASK_LIST_FIELDS, and the
+ * imports add the tasks they synced so the next import sees them even if
+ * their events have not arrived yet.
+ * A Task is not changed once it is in the mirror, it is replaced instead,
+ * so the imports can read the tasks they were given without the lock.
+ */
+class ProjectMirror {
+
+    private final String projectGid;
+    private final long maxAgeNanos;
+    // by gid
+    private final Map<String, Task> tasks = new HashMap<>();
+    private final Map<String, Section> sections = new HashMap<>();
+    // changes applied during a full read, null values are removals, null when no read is under way
+    private Map<String, Task> changedTasks;
+    private Map<String, Section> changedSections;
+    private boolean loaded;
+    private boolean stale;
+    private long loadedAt;
+
+    /**
+     * @param projectGid
+     * @param maxAgeNanos how long after a full read the mirror is used
+     */
+    ProjectMirror(String projectGid, long maxAgeNanos) {
+        this.projectGid = projectGid;
+        this.maxAgeNanos = maxAgeNanos;
+    }
+
+    String getProjectGid() {
+        return projectGid;
+    }
+
+    /**
+     * @return boolean true if imports can use the mirror rather than read the project
+     */
+    synchronized boolean isFresh() {
+        return loaded && !stale && System.nanoTime() - loadedAt < maxAgeNanos;
+    }
+
+    /**
+     * Stops the mirror being used until the next full read.
+     */
+    synchronized void markStale() {
+        stale = true;
+    }
+
+    /**
+     * Called before the project is read in full, the events applied from
+     * now on are applied again over what the read returns.
+     */
+    synchronized void beginResync() {
+        changedTasks = new HashMap<>();
+        changedSections = new HashMap<>();
+    }
+
+    /**
+     * Called when the full read failed, the mirror stays as it is.
+     */
+    synchronized void abortResync() {
+        changedTasks = null;
+        changedSections = null;
+    }
+
+    /**
+     * Replaces the whole mirror with a full read of the project.
+     *
+     * @param projectTasks
+     * @param projectSections
+     */
+    synchronized void replace(Collection<Task> projectTasks, Collection<Section> projectSections) {
+        tasks.clear();
+        for (Task task : projectTasks) {
+            tasks.put(task.gid, task);
+        }
+        sections.clear();
+        for (Section section : projectSections) {
+            sections.put(section.gid, section);
+        }
+        if (changedTasks != null) {
+            for (Map.Entry<String, Task> changed : changedTasks.entrySet()) {
+                putOrRemove(tasks, changed.getKey(), changed.getValue());
+            }
+            for (Map.Entry<String, Section> changed : changedSections.entrySet()) {
+                putOrRemove(sections, changed.getKey(), changed.getValue());
+            }
+        }
+        changedTasks = null;
+        changedSections = null;
+        loaded = true;
+        stale = false;
+        loadedAt = System.nanoTime();
+    }
+
+    synchronized void putTask(Task task) {
+        tasks.put(task.gid, task);
+        if (changedTasks != null) {
+            changedTasks.put(task.gid, task);
+        }
+    }
+
+    synchronized void removeTask(String gid) {
+        tasks.remove(gid);
+        if (changedTasks != null) {
+            changedTasks.put(gid, null);
+        }
+    }
+
+    /**
+     * Will return null if the task is not in the mirror.
+     *
+     * @param gid
+     * @return Task
+     */
+    synchronized Task getTask(String gid) {
+        return tasks.get(gid);
+    }
+
+    /**
+     * Adds or renames the section, the tasks in a renamed section are
+     * moved to the new name.
+     *
+     * @param section
+     */
+    synchronized void putSection(Section section) {
+        Section previous = sections.put(section.gid, section);
+        if (changedSections != null) {
+            changedSections.put(section.gid, section);
+        }
+        if (previous != null && previous.name != null && !previous.name.equals(section.name)) {
+            for (Map.Entry<String, Task> entry : tasks.entrySet()) {
+                Task moved = withSection(entry.getValue(), section);
+                if (moved != null) {
+                    entry.setValue(moved);
+                    if (changedTasks != null && changedTasks.get(entry.getKey()) != null) {
+                        changedTasks.put(entry.getKey(), moved);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Will return null if the task is not in the section.
+     *
+     * @param task
+     * @param section
+     * @return Task a copy of the task in the renamed section
+     */
+    private static Task withSection(Task task, Section section) {
+        if (task.memberships == null) {
+            return null;
+        }
+        List<Task.Membership> memberships = new ArrayList<>(task.memberships.size());
+        boolean inSection = false;
+        for (Task.Membership membership : task.memberships) {
+            if (membership.section != null && section.gid.equals(membership.section.gid)) {
+                Task.Membership renamed = new Task.Membership();
+                renamed.project = membership.project;
+                renamed.section = section;
+                memberships.add(renamed);
+                inSection = true;
+            } else {
+                memberships.add(membership);
+            }
+        }
+        if (!inSection) {
+            return null;
+        }
+        // the fields of AsanaClient.TASK_LIST_FIELDS
+        Task moved = new Task();
+        moved.gid = task.gid;
+        moved.name = task.name;
+        moved.dueOn = task.dueOn;
+        moved.numSubtasks = task.numSubtasks;
+        moved.memberships = memberships;
+        return moved;
+    }
+
+    synchronized void removeSection(String gid) {
+        sections.remove(gid);
+        if (changedSections != null) {
+            changedSections.put(gid, null);
+        }
+    }
+
+    /**
+     * The tasks by name like AsanaClient.getProjectTaskMap, the Task
+     * objects must not be changed.
+     *
+     * @return Map<String, Task>
+     */
+    synchronized Map<String, Task> getTaskMap() {
+        Map<String, Task> taskMap = new HashMap<>();
+        for (Task task : tasks.values()) {
+            taskMap.put(task.name, task);
+        }
+        return taskMap;
+    }
+
+    /**
+     * The sections by name like AsanaClient.getSectionMap, a new map the
+     * import may add the sections it creates to.
+     *
+     * @return Map<String, Section>
+     */
+    synchronized Map<String, Section> getSectionMap() {
+        Map<String, Section> sectionMap = new ConcurrentHashMap<>();
+        for (Section section : sections.values()) {
+            if (section.name != null) {
+                sectionMap.put(section.name, section);
+            }
+        }
+        return sectionMap;
+    }
+
+    synchronized int size() {
+        return tasks.size();
+    }
+
+    private static <T> void putOrRemove(Map<String, T> map, String gid, T value) {
+        if (value == null) {
+            map.remove(gid);
+        } else {
+            map.put(gid, value);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.cappella.asana;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+import com.asana.models.Project;
+import com.asana.models.Section;
+import com.asana.models.Task;
+import com.asana.models.Workspace;
+import com.cappella.model.Problems;
+import com.cappella.model.SyncSummary;
+import com.cappella.model.TaskData;
+
+/**
+ * Everything one import into an Asana project needs while its tasks are
+ * being updated or inserted. It is shared by the threads sending batches.
+ * The tasks in the project are read in the background, either as soon as the
+ * import starts or the first time a task is not found in the index.
+ * The task map is null when the tasks in the project could not be read, the
+ * index is null when no GrantTaskIndex is configured and the journal is null
+ * unless the import can be resumed.
+ */
+class SyncContext {
+
+    final Workspace workspace;
+    final Project project;
+    final Map<String, Section> sectionMap;
+    final GrantTaskIndex index;
+    final ImportJournal journal;
+    final AsanaBatch batch;
+    final SyncSummary summary;
+    final Problems problems;
+    // tasks with at least one call Asana did not accept
+    final Set<TaskData> failedTasks = ConcurrentHashMap.newKeySet();
+    private final Supplier<CompletableFuture<Map<String, Task>>> taskMapLoader;
+    private CompletableFuture<Map<String, Task>> taskMap;
+
+    /**
+     * The taskMap is null when reading the tasks in the project has not
+     * been started yet.
+     */
+    SyncContext(Workspace workspace, Project project, Map<String, Section> sectionMap,
+                CompletableFuture<Map<String, Task>> taskMap,
+                Supplier<CompletableFuture<Map<String, Task>>> taskMapLoader, GrantTaskIndex index,
+                ImportJournal journal, AsanaBatch batch, SyncSummary summary, Problems problems) {
+        this.workspace = workspace;
+        this.project = project;
+        this.sectionMap = sectionMap;
+        this.taskMap = taskMap;
+        this.taskMapLoader = taskMapLoader;
+        this.index = index;
+        this.journal = journal;
+        this.batch = batch;
+        this.summary = summary;
+        this.problems = problems;
+    }
+
+    /**
+     * Starts reading the tasks in the project unless they are already being read.
+     */
+    synchronized void startTaskMap() {
+        if (taskMap == null) {
+            taskMap = taskMapLoader.get();
+        }
+    }
+
+    /**
+     * Waits for the tasks in the project, starting to read them if needed.
+     *
+     * @return Map<String, Task>
+     */
+    Map<String, Task> getTaskMap() {
+        startTaskMap();
+        return getTaskMapIfStarted();
+    }
+
+    /**
+     * Will return null if reading the tasks in the project has not been
+     * started or they could not be read.
+     *
+     * @return Map<String, Task>
+     */
+    Map<String, Task> getTaskMapIfStarted() {
+        CompletableFuture<Map<String, Task>> started;
+        synchronized (this) {
+            started = taskMap;
+        }
+        return started == null ? null : started.join();
+    }
+
+    /**
+     * Once this is true the tasks which are not in the index can not be
+     * told apart from new ones, so the import is stopped rather than
+     * inserting them again.
+     *
+     * @return boolean true if the tasks in the project were read and could not be
+     */
+    boolean isTaskMapFailed() {
+        CompletableFuture<Map<String, Task>> started;
+        synchronized (this) {
+            started = taskMap;
+        }
+        return started != null && started.isDone() && started.join() == null;
+    }
+}
@@ -0,0 +1,133 @@
+package com.cappella.asana;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.IntPredicate;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+/**
+ * The calls to Asana for one task, added to the AsanaBatch through this
+ * class so that the task is known to be done once Asana has answered every
+ * one of them, whatever order the answers arrive in. A call added by the
+ * callback of an earlier call, such as putting a new task into its section,
+ * is waited for as well.
+ * The task is not done before queued() is called, so it can not finish
+ * while its first calls are still being added. Then onDone is run once, on
+ * the thread which handled the last answer, or on the calling thread when
+ * every call was already answered.
+ */
+class TaskCalls {
+
+    private final AsanaBatch batch;
+    private final Consumer<TaskCalls> onDone;
+    // the calls not answered yet, and one for the code adding them until queued is called
+    private final AtomicInteger pending = new AtomicInteger(1);
+    private volatile boolean created;
+    private volatile boolean changed;
+
+    TaskCalls(AsanaBatch batch, Consumer<TaskCalls> onDone) {
+        this.batch = batch;
+        this.onDone = onDone;
+    }
+
+    /**
+     * Like AsanaBatch.add, the call counts as answered once its callback or
+     * failure handler has returned.
+     *
+     * @param operation
+     * @param method
+     * @param relativePath
+     * @param data
+     * @param fields
+     * @param callback may be null
+     * @param failure may be null
+     */
+    void add(String operation, String method, String relativePath, Map<String, Object> data, List<String> fields,
+             Consumer<JsonObject> callback, IntPredicate failure) {
+        pending.incrementAndGet();
+        batch.add(operation, method, relativePath, data, fields, answered(callback), answered(failure));
+    }
+
+    /**
+     * Like AsanaBatch.addGet, the list counts as answered once its callback
+     * or failure handler has returned.
+     *
+     * @param operation
+     * @param relativePath
+     * @param fields
+     * @param callback
+     * @param failure may be null
+     */
+    void addGet(String operation, String relativePath, List<String> fields, Consumer<JsonArray> callback,
+                IntPredicate failure) {
+        pending.incrementAndGet();
+        batch.addGet(operation, relativePath, fields, answered(callback), answered(failure));
+    }
+
+    /**
+     * Called once the first calls of the task have been added.
+     */
+    void queued() {
+        answered();
+    }
+
+    /**
+     * Records that Asana created the task.
+     */
+    void created() {
+        created = true;
+    }
+
+    /**
+     * @return boolean true if Asana created the task
+     */
+    boolean isCreated() {
+        return created;
+    }
+
+    /**
+     * Records that Asana accepted a call which changed the task or its subtasks.
+     */
+    void changed() {
+        changed = true;
+    }
+
+    /**
+     * @return boolean true if Asana accepted a call which changed the task or its subtasks
+     */
+    boolean isChanged() {
+        return changed;
+    }
+
+    private <T> Consumer<T> answered(Consumer<T> callback) {
+        return result -> {
+            try {
+                if (callback != null) {
+                    callback.accept(result);
+                }
+            } finally {
+                answered();
+            }
+        };
+    }
+
+    private IntPredicate answered(IntPredicate failure) {
+        return status -> {
+            try {
+                return failure != null && failure.test(status);
+            } finally {
+                answered();
+            }
+        };
+    }
+
+    private void answered() {
+        if (pending.decrementAndGet() == 0) {
+            onDone.accept(this);
+        }
+    }
+}
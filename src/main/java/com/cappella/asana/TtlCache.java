@@ -0,0 +1,115 @@
+package com.cappella.asana;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * A small cache for the lookups AsanaClient makes before every import.
+ * Entries expire ttlMillis after they are put, and once the cache holds
+ * maxSize entries the least recently used entry is evicted.
+ * Hits, misses and evictions are counted so the cache can be tuned.
+ */
+class TtlCache<K, V> {
+
+    private long ttlNanos;
+    private int maxSize;
+    private final LinkedHashMap<K, Entry<V>> entries;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    TtlCache(long ttlMillis, int maxSize) {
+        configure(ttlMillis, maxSize);
+        // access order so the eldest entry is the least recently used
+        this.entries = new LinkedHashMap<K, Entry<V>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+                if (size() > TtlCache.this.maxSize) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    synchronized void configure(long ttlMillis, int maxSize) {
+        this.ttlNanos = ttlMillis * 1_000_000L;
+        this.maxSize = Math.max(1, maxSize);
+    }
+
+    /**
+     * Will return null if the key is not in the cache or has expired.
+     *
+     * @param key
+     * @return V
+     */
+    synchronized V get(K key) {
+        Entry<V> entry = entries.get(key);
+        if (entry != null && System.nanoTime() - entry.created > ttlNanos) {
+            entries.remove(key);
+            evictions++;
+            entry = null;
+        }
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.value;
+    }
+
+    synchronized void put(K key, V value) {
+        entries.put(key, new Entry<>(value));
+    }
+
+    synchronized void invalidate(K key) {
+        entries.remove(key);
+    }
+
+    /**
+     * Removes every entry with a value matching the filter.
+     *
+     * @param filter
+     */
+    synchronized void invalidateValues(Predicate<V> filter) {
+        Iterator<Entry<V>> values = entries.values().iterator();
+        while (values.hasNext()) {
+            if (filter.test(values.next().value)) {
+                values.remove();
+            }
+        }
+    }
+
+    synchronized void clear() {
+        entries.clear();
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    synchronized long getHits() {
+        return hits;
+    }
+
+    synchronized long getMisses() {
+        return misses;
+    }
+
+    synchronized long getEvictions() {
+        return evictions;
+    }
+
+    private static class Entry<V> {
+        private final V value;
+        private final long created;
+
+        Entry(V value) {
+            this.value = value;
+            this.created = System.nanoTime();
+        }
+    }
+}
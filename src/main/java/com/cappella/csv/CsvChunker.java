@@ -0,0 +1,219 @@
+package com.cappella.csv;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Splits the bytes of a CSV file into chunks which each hold whole records,
+ * so the chunks can be parsed separately.
+ *
+ * A newline only ends a record when it is outside a quoted field, and since
+ * a quoted field may contain newlines the fields are tracked from the start
+ * of the file in one pass over the bytes. This is much cheaper than parsing
+ * the records. A field is quoted the way the Lexer of commons-csv sees it,
+ * only when it starts with a quote, a quote anywhere else in an unquoted
+ * field, such as 5" binder, is part of the value. The bytes are UTF-8, where
+ * '"', ',' and '\n' never occur inside a multi-byte character.
+ * If the bytes have a record the CSVParser would reject, such as text after
+ * the closing quote of a field or a quote which is never closed, where the
+ * field ends can not be known, so they are not split.
+ *
+ * The records in each chunk are counted the way CSVFormat.DEFAULT counts
+ * them, skipping empty lines, so that rows can be numbered across chunks.
+ */
+class CsvChunker {
+
+    private static final byte QUOTE = '"';
+    private static final byte COMMA = ',';
+    private static final byte NEWLINE = '\n';
+    private static final byte RETURN = '\r';
+
+    // the states of the scan over the fields
+    private static final int FIELD_START = 0;
+    private static final int UNQUOTED = 1;
+    private static final int QUOTED = 2;
+    // a quote in a quoted field, the first of an escaped quote or the end of the field
+    private static final int QUOTE_IN_QUOTED = 3;
+    // spaces after the closing quote of a field
+    private static final int AFTER_QUOTED = 4;
+    // text after the closing quote of a field, which the CSVParser rejects
+    private static final int INVALID = 5;
+
+    private CsvChunker() {
+    }
+
+    /**
+     * Will return the position after the first record, or the end of the
+     * bytes if there is only one record.
+     *
+     * @param bytes
+     * @return int
+     */
+    static int headerEnd(ByteBuffer bytes) {
+        int state = FIELD_START;
+        for (int i = 0; i < bytes.limit() && state != INVALID; i++) {
+            byte b = bytes.get(i);
+            if (b == NEWLINE && state != QUOTED) {
+                return i + 1;
+            }
+            state = next(state, b);
+        }
+        return bytes.limit();
+    }
+
+    /**
+     * Splits the bytes from start to the limit into chunks of about
+     * chunkSize bytes, each ending at the end of a record. There is one
+     * chunk if the bytes have a record the CSVParser would reject.
+     *
+     * @param bytes
+     * @param start
+     * @param chunkSize
+     * @return List<Chunk>
+     */
+    static List<Chunk> split(ByteBuffer bytes, int start, int chunkSize) {
+        List<Chunk> chunks = new ArrayList<>();
+        int state = FIELD_START;
+        boolean lineHasContent = false;
+        int chunkStart = start;
+        long records = 0;
+        long recordsBefore = 0;
+        int end = bytes.limit();
+        for (int i = start; i < end; i++) {
+            byte b = bytes.get(i);
+            boolean endOfRecord = b == NEWLINE && state != QUOTED;
+            state = next(state, b);
+            if (state == INVALID) {
+                return Collections.singletonList(new Chunk(bytes, start, end, 0));
+            }
+            if (endOfRecord) {
+                if (lineHasContent) {
+                    records++;
+                    lineHasContent = false;
+                }
+                if (i + 1 - chunkStart >= chunkSize) {
+                    chunks.add(new Chunk(bytes, chunkStart, i + 1, recordsBefore));
+                    chunkStart = i + 1;
+                    recordsBefore += records;
+                    records = 0;
+                }
+            } else if (b != RETURN) {
+                lineHasContent = true;
+            }
+        }
+        if (state == QUOTED && start < end) {
+            // the last quote is never closed
+            return Collections.singletonList(new Chunk(bytes, start, end, 0));
+        }
+        if (chunkStart < end) {
+            chunks.add(new Chunk(bytes, chunkStart, end, recordsBefore));
+        }
+        return chunks;
+    }
+
+    /**
+     * The state after the byte, a newline is a field separator like a comma
+     * unless it is in a quoted field.
+     *
+     * @param state
+     * @param b
+     * @return int
+     */
+    private static int next(int state, byte b) {
+        switch (state) {
+            case FIELD_START:
+                return b == QUOTE ? QUOTED : b == COMMA || b == NEWLINE ? FIELD_START : UNQUOTED;
+            case UNQUOTED:
+                return b == COMMA || b == NEWLINE ? FIELD_START : UNQUOTED;
+            case QUOTED:
+                return b == QUOTE ? QUOTE_IN_QUOTED : QUOTED;
+            case QUOTE_IN_QUOTED:
+            case AFTER_QUOTED:
+                if (b == QUOTE && state == QUOTE_IN_QUOTED) {
+                    // an escaped quote
+                    return QUOTED;
+                }
+                if (b == COMMA || b == NEWLINE) {
+                    return FIELD_START;
+                }
+                return b == ' ' || b == '\t' || b == RETURN ? AFTER_QUOTED : INVALID;
+            default:
+                return INVALID;
+        }
+    }
+
+    /**
+     * The bytes of whole records, and the number of records in the file
+     * before them.
+     */
+    static class Chunk {
+
+        private final ByteBuffer bytes;
+        private final int start;
+        private final int end;
+        private final long recordsBefore;
+
+        Chunk(ByteBuffer bytes, int start, int end, long recordsBefore) {
+            this.bytes = bytes;
+            this.start = start;
+            this.end = end;
+            this.recordsBefore = recordsBefore;
+        }
+
+        long getRecordsBefore() {
+            return recordsBefore;
+        }
+
+        int size() {
+            return end - start;
+        }
+
+        /**
+         * Each call returns a new InputStream over the chunk, so chunks of
+         * the same file can be read on different threads.
+         *
+         * @return InputStream
+         */
+        InputStream open() {
+            ByteBuffer slice = bytes.duplicate();
+            slice.limit(end).position(start);
+            return new ByteBufferInputStream(slice.slice());
+        }
+    }
+
+    private static class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] target, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int read = Math.min(length, buffer.remaining());
+            buffer.get(target, offset, read);
+            return read;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
@@ -1,22 +1,41 @@
 package com.cappella.csv;
 
-import java.io.BufferedReader;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVParser;
 import org.apache.commons.csv.CSVRecord;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
+import com.cappella.metrics.ImportMetrics;
+import com.cappella.model.Fnv1a;
 import com.cappella.model.Problems;
 import com.cappella.model.SubTask;
 import com.cappella.model.TaskData;
@@ -27,6 +46,7 @@ import com.cappella.model.TaskData;
  * The CSV file must have a first record/row of headers.
  * The header "Opportunity name" (GRANT_HEADER_TASK_NAME) must exist.
  * "Opportunity name" becomes the name of the task in Asana.
+ * "Funder name" together with "Opportunity name" identifies the grant between imports.
  * "Funder Full proposal deadline" is the due date for the task if it exists.
  * "Status" is the section for the task if it exists.
  * "Next task description" is a subtask for the task if it exists.
@@ -36,18 +56,39 @@ import com.cappella.model.TaskData;
 public class CsvClient {
 
     private static final String TYPE = "text/csv";
+    // smaller chunks cost more to schedule than they save
+    private static final int MIN_CHUNK_BYTES = 1 << 20;
+    private static final int CHUNKS_PER_THREAD = 4;
 
     public static final String GRANT_HEADER_TASK_NAME = "Opportunity name"; // used in Problems
+    private static final String GRANT_HEADER_FUNDER_NAME = "Funder name";
     private static final String GRANT_HEADER_DUE_DATE = "Funder Full proposal deadline";
     private static final String GRANT_HEADER_SECTION = "Status";
     private static final String GRANT_HEADER_SUBTASK_NAME = "Next task description";
     private static final String GRANT_HEADER_SUBTASK_DUE_DATE = "Next task deadline";
 
+    // the columns which are mapped to the task, a change to any other column does not change the task
+    private static final String[] GRANT_MAPPED_HEADERS = { GRANT_HEADER_TASK_NAME, GRANT_HEADER_FUNDER_NAME,
+            GRANT_HEADER_DUE_DATE, GRANT_HEADER_SECTION, GRANT_HEADER_SUBTASK_NAME, GRANT_HEADER_SUBTASK_DUE_DATE };
+
     static final DateTimeFormatter TASK_DATE_FORMATTER = DateTimeFormatter.ofPattern("LLL d, yyyy", Locale.ENGLISH);
     static final DateTimeFormatter SUB_TASK_DATE_FORMATTER = DateTimeFormatter.ofPattern("MM/dd/yyyy", Locale.ENGLISH);
 
     private final Logger LOGGER = LoggerFactory.getLogger(getClass());
 
+    private final DueDateParser dueDates = new DueDateParser();
+    private ImportMetrics metrics = ImportMetrics.NONE;
+
+    /**
+     * Counts the rows parsed and times whole files, without it nothing is recorded.
+     *
+     * @param metrics
+     */
+    @Autowired(required = false)
+    public void setMetrics(ImportMetrics metrics) {
+        this.metrics = metrics;
+    }
+
     /**
      * @param file
      * @return boolean
@@ -59,7 +100,8 @@ public class CsvClient {
     /**
      * CSV file must have a first record/row of headers.
      * The header "Opportunity name" (GRANT_HEADER_TASK_NAME) must exist.
-     * List will be null if there are problems parsing the header.
+     * List will be null if there are problems parsing the header or any
+     * of the records.
      * List will empty if the header is present but no valid rows are parsed.
      * Any errors encountered will be contained in the Problems.
      * 
@@ -68,29 +110,339 @@ public class CsvClient {
      * @return List<TaskData>
      */
     public List<TaskData> parseGrantCsvToTasks(InputStream is, Problems problems) {
+        long start = System.nanoTime();
         List<TaskData> tasks = null;
+        GrantTaskSpliterator spliterator = openGrantCsv(is, problems);
+        if (spliterator != null) {
+            try (Stream<TaskData> stream = toStream(spliterator)) {
+                tasks = stream.collect(Collectors.toList());
+            } catch (Exception e) {
+                // handle all exceptions gracefully log error
+                problems.addError(Problems.ERROR_PARSING_CSV_FILE, e.toString());
+            }
+            if (spliterator.hasFailed()) {
+                tasks = null;
+            }
+            metrics.parsed(System.nanoTime() - start);
+        }
+        return tasks;
+    }
+
+    /**
+     * Parallel version of parseGrantCsvToTasks for files on disk.
+     * Every file is memory mapped and split into chunks of whole records
+     * (see CsvChunker) of at least MIN_CHUNK_BYTES, and the chunks of all of
+     * the files are parsed at the same time on the common ForkJoinPool.
+     * The tasks are returned in the order of the files and of the rows in
+     * each file, the same as parsing the files one after the other.
+     * List will be null if there are problems parsing the header of any of
+     * the files or any of the records.
+     * Any errors encountered will be contained in the Problems.
+     * 
+     * @param files
+     * @param problems
+     * @return List<TaskData>
+     */
+    public List<TaskData> parseGrantCsvFilesToTasks(List<Path> files, Problems problems) {
+        long start = System.nanoTime();
+        List<ForkJoinTask<List<TaskData>>> parsing = new ArrayList<>();
+        boolean failed = false;
+        for (Path file : files) {
+            GrantCsvChunks grantCsv = splitGrantCsv(file, problems);
+            if (grantCsv == null) {
+                failed = true;
+                break;
+            }
+            for (CsvChunker.Chunk chunk : grantCsv.chunks) {
+                parsing.add(ForkJoinPool.commonPool().submit(() -> parseChunk(chunk, grantCsv.headers, problems)));
+            }
+        }
+        // wait for every chunk even after a failure so nothing is still parsing on return
+        List<TaskData> tasks = new ArrayList<>();
+        for (ForkJoinTask<List<TaskData>> chunk : parsing) {
+            List<TaskData> chunkTasks = chunk.join();
+            if (chunkTasks == null) {
+                failed = true;
+            } else if (!failed) {
+                tasks.addAll(chunkTasks);
+            }
+        }
+        metrics.parsed(System.nanoTime() - start);
+        return failed ? null : tasks;
+    }
+
+    /**
+     * Will return a null GrantCsvChunks if the file can not be read or its
+     * header does not contain GRANT_HEADER_TASK_NAME.
+     * 
+     * @param file
+     * @param problems
+     * @return GrantCsvChunks
+     */
+    private GrantCsvChunks splitGrantCsv(Path file, Problems problems) {
+        GrantCsvChunks grantCsv = null;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            // a mapping stays valid after the channel is closed
+            MappedByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            int headerEnd = CsvChunker.headerEnd(bytes);
+            String[] headers = readHeaders(new CsvChunker.Chunk(bytes, 0, headerEnd, 0));
+            // ensure there is at least the header used for the task name
+            if (!Arrays.asList(headers).contains(GRANT_HEADER_TASK_NAME)) {
+                // log error that the task name header does not exist in the csv file
+                problems.addError(Problems.ERROR_MISSING_GRANT_TASK_NAME_HEADER, file.toString());
+            } else {
+                int chunkSize = (int) Math.max(MIN_CHUNK_BYTES,
+                        bytes.limit() / ((long) ForkJoinPool.getCommonPoolParallelism() * CHUNKS_PER_THREAD));
+                grantCsv = new GrantCsvChunks(headers, CsvChunker.split(bytes, headerEnd, chunkSize));
+            }
+        } catch (Exception e) {
+            // handle all exceptions gracefully log error, including files over 2 GB
+            // which can not be mapped
+            problems.addError(Problems.ERROR_PARSING_CSV_FILE, file + " " + e.toString());
+        }
+        return grantCsv;
+    }
+
+    /**
+     * The headers of a grant CSV file and the chunks of its records.
+     */
+    private static class GrantCsvChunks {
+
+        private final String[] headers;
+        private final List<CsvChunker.Chunk> chunks;
+
+        GrantCsvChunks(String[] headers, List<CsvChunker.Chunk> chunks) {
+            this.headers = headers;
+            this.chunks = chunks;
+        }
+    }
+
+    private String[] readHeaders(CsvChunker.Chunk header) {
+        try (CSVParser csvParser = new CSVParser(new InputStreamReader(header.open(), StandardCharsets.UTF_8),
+                CSVFormat.DEFAULT.withFirstRecordAsHeader().withTrim())) {
+            return csvParser.getHeaderNames().toArray(new String[0]);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Will return a null List if any record in the chunk can not be parsed.
+     * 
+     * @param chunk
+     * @param headers
+     * @param problems
+     * @return List<TaskData>
+     */
+    private List<TaskData> parseChunk(CsvChunker.Chunk chunk, String[] headers, Problems problems) {
+        List<TaskData> tasks = null;
+        try (CSVParser csvParser = new CSVParser(new InputStreamReader(chunk.open(), StandardCharsets.UTF_8),
+                CSVFormat.DEFAULT.withHeader(headers).withTrim())) {
+            GrantTaskSpliterator spliterator = new GrantTaskSpliterator(csvParser, problems,
+                    chunk.getRecordsBefore());
+            tasks = StreamSupport.stream(spliterator, false).collect(Collectors.toList());
+            if (spliterator.hasFailed()) {
+                tasks = null;
+            }
+        } catch (Exception e) {
+            // handle all exceptions gracefully log error
+            problems.addError(Problems.ERROR_PARSING_CSV_FILE, e.toString());
+        }
+        return tasks;
+    }
+
+    /**
+     * Memory maps a CSV file on local disk for streamGrantCsvToTasks and
+     * streamChangedGrantCsvToTasks. The parser reads the file straight
+     * from the page cache, it is not copied into the buffer of a
+     * FileInputStream first. Files over 2 GB can not be mapped.
+     *
+     * @param file
+     * @return InputStream
+     * @throws IOException if the file can not be mapped
+     */
+    public InputStream openMappedCsv(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            // a mapping stays valid after the channel is closed
+            MappedByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new CsvChunker.Chunk(bytes, 0, bytes.limit(), 0).open();
+        }
+    }
+
+    /**
+     * Streaming version of parseGrantCsvToTasks. The header is read and
+     * validated before this method returns, but the records are only read
+     * from the InputStream as the Stream is consumed, so memory use does not
+     * grow with the size of the file.
+     * Stream will be null if there are problems parsing the header.
+     * If a record can not be parsed the error is added to the Problems and
+     * the Stream ends at that record.
+     * The Stream must be closed to release the InputStream.
+     * 
+     * @param is
+     * @param problems
+     * @return Stream<TaskData>
+     */
+    public Stream<TaskData> streamGrantCsvToTasks(InputStream is, Problems problems) {
+        GrantTaskSpliterator spliterator = openGrantCsv(is, problems);
+        return spliterator == null ? null : toStream(spliterator);
+    }
+
+    /**
+     * Incremental version of streamGrantCsvToTasks for a re-import of a
+     * file which was imported before.
+     * The mapped columns of every record are checked against the
+     * RowFingerprints before the record is parsed, and records which are
+     * unchanged since the previous import are skipped, so the Stream only has
+     * the tasks which are new or changed.
+     * Once the Stream has been read to the end the grants of the previous
+     * import which are not in the file are warnings in the Problems. Their
+     * Asana tasks are not removed.
+     * 
+     * @param is
+     * @param fingerprints
+     * @param problems
+     * @return Stream<TaskData>
+     */
+    public Stream<TaskData> streamChangedGrantCsvToTasks(InputStream is, RowFingerprints fingerprints,
+            Problems problems) {
+        GrantTaskSpliterator spliterator = openGrantCsv(is, problems);
+        if (spliterator != null) {
+            spliterator.skipUnchanged(fingerprints);
+        }
+        return spliterator == null ? null : toStream(spliterator);
+    }
+
+    /**
+     * Will return a null GrantTaskSpliterator if the header can not be parsed
+     * or does not contain GRANT_HEADER_TASK_NAME.
+     * 
+     * @param is
+     * @param problems
+     * @return GrantTaskSpliterator
+     */
+    private GrantTaskSpliterator openGrantCsv(InputStream is, Problems problems) {
+        GrantTaskSpliterator spliterator = null;
         try {
-            BufferedReader fileReader = new BufferedReader(new InputStreamReader(is, "UTF-8"));
-            CSVParser csvParser = new CSVParser(fileReader, CSVFormat.DEFAULT.withFirstRecordAsHeader().withTrim());
-            Iterable<CSVRecord> csvRecords = csvParser.getRecords();
+            // the CSVParser buffers the reader itself
+            CSVParser csvParser = new CSVParser(new InputStreamReader(is, StandardCharsets.UTF_8),
+                    CSVFormat.DEFAULT.withFirstRecordAsHeader().withTrim());
             // ensure there is at least the header used for the task name
             if (!csvParser.getHeaderNames().contains(GRANT_HEADER_TASK_NAME)) {
                 // log error that the task name header does not exist in the csv file
                 problems.addError(Problems.ERROR_MISSING_GRANT_TASK_NAME_HEADER, null);
+                csvParser.close();
             } else {
-                tasks = new ArrayList<>();
-                for (CSVRecord csvRecord : csvRecords) {
-                    TaskData task = parseTask(csvRecord, problems);
-                    if (task != null) {
-                        tasks.add(task);
-                    }
-                }
+                spliterator = new GrantTaskSpliterator(csvParser, problems);
             }
         } catch (Exception e) {
             // handle all exceptions gracefully log error
             problems.addError(Problems.ERROR_PARSING_CSV_FILE, e.toString());
         }
-        return tasks;
+        return spliterator;
+    }
+
+    private Stream<TaskData> toStream(GrantTaskSpliterator spliterator) {
+        return StreamSupport.stream(spliterator, false).onClose(spliterator::close);
+    }
+
+    /**
+     * Reads one CSVRecord at a time from the CSVParser and turns it into a
+     * TaskData. Records without a task are skipped.
+     * The rows are numbered from rowOffset + 1, rowOffset is the number of
+     * records in the file before the ones the CSVParser reads.
+     */
+    private class GrantTaskSpliterator extends Spliterators.AbstractSpliterator<TaskData> {
+
+        private final CSVParser csvParser;
+        private final Iterator<CSVRecord> records;
+        private final Problems problems;
+        private final long rowOffset;
+        private RowFingerprints fingerprints;
+        private boolean failed;
+
+        GrantTaskSpliterator(CSVParser csvParser, Problems problems) {
+            this(csvParser, problems, 0);
+        }
+
+        GrantTaskSpliterator(CSVParser csvParser, Problems problems, long rowOffset) {
+            super(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL);
+            this.csvParser = csvParser;
+            this.records = csvParser.iterator();
+            this.problems = problems;
+            this.rowOffset = rowOffset;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super TaskData> action) {
+            while (!failed) {
+                CSVRecord csvRecord;
+                try {
+                    if (!records.hasNext()) {
+                        if (fingerprints != null) {
+                            fingerprints.finish(problems);
+                        }
+                        return false;
+                    }
+                    csvRecord = records.next();
+                } catch (IllegalStateException | UncheckedIOException e) {
+                    // the parser wraps IOExceptions reading the next record
+                    failed = true;
+                    problems.addError(Problems.ERROR_PARSING_CSV_FILE, e.toString(),
+                            rowOffset + csvParser.getRecordNumber() + 1, null);
+                    return false;
+                }
+                if (fingerprints != null && isUnchanged(csvRecord)) {
+                    metrics.rowUnchanged();
+                    continue;
+                }
+                TaskData task = parseTask(csvRecord, problems, rowOffset + csvRecord.getRecordNumber());
+                if (task != null) {
+                    metrics.rowParsed();
+                    action.accept(task);
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        void skipUnchanged(RowFingerprints rowFingerprints) {
+            fingerprints = rowFingerprints;
+        }
+
+        /**
+         * Records without a task name or missing the value of a mapped column
+         * are never skipped so that their problems are reported again.
+         */
+        private boolean isUnchanged(CSVRecord csvRecord) {
+            long fingerprint = Fnv1a.start();
+            for (String header : GRANT_MAPPED_HEADERS) {
+                String value = null;
+                if (csvRecord.isMapped(header)) {
+                    if (!csvRecord.isSet(header)) {
+                        return false;
+                    }
+                    value = csvRecord.get(header);
+                }
+                fingerprint = Fnv1a.hash(fingerprint, value);
+            }
+            String name = csvRecord.get(GRANT_HEADER_TASK_NAME);
+            String funderName = csvRecord.isMapped(GRANT_HEADER_FUNDER_NAME) ? csvRecord.get(GRANT_HEADER_FUNDER_NAME)
+                    : null;
+            return !name.isEmpty() && fingerprints.isUnchanged(name, funderName, fingerprint);
+        }
+
+        boolean hasFailed() {
+            return failed;
+        }
+
+        void close() {
+            try {
+                csvParser.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
     }
 
     /**
@@ -102,26 +454,40 @@ public class CsvClient {
      * @return
      */
     TaskData parseTask(CSVRecord csvRecord, Problems problems) {
+        return parseTask(csvRecord, problems, csvRecord.getRecordNumber());
+    }
+
+    /**
+     * As above, for a CSVRecord which is the row given of the CSV file.
+     *
+     * @param csvRecord
+     * @param problems
+     * @param row
+     * @return TaskData
+     */
+    TaskData parseTask(CSVRecord csvRecord, Problems problems, long row) {
         TaskData task = null;
-        String taskName = getCsvRecordString(csvRecord, GRANT_HEADER_TASK_NAME, problems);
+        String taskName = getCsvRecordString(csvRecord, GRANT_HEADER_TASK_NAME, problems, row);
         // if the task does not have a name it is not valid so log error and return a
         // null TaskData
         if (taskName != null && !taskName.isEmpty()) {
             task = new TaskData();
             task.setName(taskName);
-            String dueDate = getCsvRecordString(csvRecord, GRANT_HEADER_DUE_DATE, problems);
+            task.setRowNumber(row);
+            task.setFunderName(getCsvRecordString(csvRecord, GRANT_HEADER_FUNDER_NAME, problems, row));
+            String dueDate = getCsvRecordString(csvRecord, GRANT_HEADER_DUE_DATE, problems, row);
             if (dueDate != null) {
-                task.setDueDate(parseGrantDueDate(dueDate, problems));
+                task.setDueDate(parseGrantDueDate(dueDate, problems, row));
             }
-            task.setSection(getCsvRecordString(csvRecord, GRANT_HEADER_SECTION, problems));
-            SubTask subTask = parseSubTask(csvRecord, problems);
+            task.setSection(getCsvRecordString(csvRecord, GRANT_HEADER_SECTION, problems, row));
+            SubTask subTask = parseSubTask(csvRecord, problems, row);
             if (subTask != null) {
                 task.addSubTask(subTask);
             }
             // TODO set description of the task
             // do we append some or all other columns to the description?
         } else {
-            problems.addError(Problems.ERROR_MISSING_GRANT_TASK_NAME, null);
+            problems.addError(Problems.ERROR_MISSING_GRANT_TASK_NAME, null, row, GRANT_HEADER_TASK_NAME);
         }
         return task;
     }
@@ -134,16 +500,17 @@ public class CsvClient {
      * @param csvRecord
      * @param header
      * @param problems
+     * @param row
      * @return String
      */
-    String getCsvRecordString(CSVRecord csvRecord, String header, Problems problems) {
+    String getCsvRecordString(CSVRecord csvRecord, String header, Problems problems, long row) {
         String value = null;
         if (csvRecord.isMapped(header)) {
             try {
                 value = csvRecord.get(header);
             } catch (IllegalArgumentException e) {
                 // log that record is inconsistent
-                problems.addError(Problems.ERROR_PARSING_CSV_FILE, e.toString());
+                problems.addError(Problems.ERROR_PARSING_CSV_FILE, e.toString(), row, header);
             }
         }
         return value;
@@ -161,12 +528,26 @@ public class CsvClient {
      * @return LocalDate
      */
     LocalDate parseGrantDueDate(String value, Problems problems) {
+        return parseGrantDueDate(value, problems, Problems.NO_ROW);
+    }
+
+    /**
+     * As above, with the row of the CSV file the value is from for the Problems.
+     *
+     * @param value
+     * @param problems
+     * @param row
+     * @return LocalDate
+     */
+    LocalDate parseGrantDueDate(String value, Problems problems, long row) {
         LocalDate dueDate = null;
         if (!value.isEmpty()) {
-            try { // if there are date parse errors catch them and keep processing
-                dueDate = LocalDate.parse(value, TASK_DATE_FORMATTER);
-            } catch (Exception e) {
-                problems.addError(Problems.ERROR_PARSING_TASK_DUE_DATE, e.toString());
+            // if there are date parse errors record them and keep processing
+            DueDateParser.ParsedDate parsed = dueDates.parseGrantDate(value);
+            dueDate = parsed.getDate();
+            if (dueDate == null) {
+                problems.addError(Problems.ERROR_PARSING_TASK_DUE_DATE, parsed.getError(value), row,
+                        GRANT_HEADER_DUE_DATE);
             }
         }
         return dueDate;
@@ -179,16 +560,17 @@ public class CsvClient {
      * @param task
      * @param csvRecord
      * @param problems
+     * @param row
      */
-    SubTask parseSubTask(CSVRecord csvRecord, Problems problems) {
+    SubTask parseSubTask(CSVRecord csvRecord, Problems problems, long row) {
         SubTask subTask = null;
-        String subTaskName = getCsvRecordString(csvRecord, GRANT_HEADER_SUBTASK_NAME, problems);
+        String subTaskName = getCsvRecordString(csvRecord, GRANT_HEADER_SUBTASK_NAME, problems, row);
         if (subTaskName != null && !subTaskName.isEmpty()) {
             subTask = new SubTask();
             subTask.setName(subTaskName);
-            String subTaskDueDate = getCsvRecordString(csvRecord, GRANT_HEADER_SUBTASK_DUE_DATE, problems);
+            String subTaskDueDate = getCsvRecordString(csvRecord, GRANT_HEADER_SUBTASK_DUE_DATE, problems, row);
             if (subTaskDueDate != null) {
-                parseSubTaskDueDate(subTask, subTaskDueDate, problems);
+                parseSubTaskDueDate(subTask, subTaskDueDate, problems, row);
             }
         }
         return subTask;
@@ -208,16 +590,30 @@ public class CsvClient {
      * @param problems
      */
     void parseSubTaskDueDate(SubTask subTask, String value, Problems problems) {
-        LocalDate dueDate = null;
+        parseSubTaskDueDate(subTask, value, problems, Problems.NO_ROW);
+    }
+
+    /**
+     * As above, with the row of the CSV file the value is from for the Problems.
+     *
+     * @param subTask
+     * @param value
+     * @param problems
+     * @param row
+     */
+    void parseSubTaskDueDate(SubTask subTask, String value, Problems problems, long row) {
         if (!value.isEmpty()) {
-            try { // if there are date parse errors catch them and keep processing
-                String[] splitStrings = value.split("-");
-                subTask.setName(subTask.getName().concat(" " + splitStrings[0]));
-                dueDate = LocalDate.parse(splitStrings[1], SUB_TASK_DATE_FORMATTER);
+            int separator = value.indexOf('-');
+            String typeOfDate = separator < 0 ? value : value.substring(0, separator);
+            subTask.setName(subTask.getName() + " " + typeOfDate);
+            // if there are date parse errors record them and keep processing
+            DueDateParser.ParsedDate parsed = dueDates.parseSubTaskDate(value);
+            if (parsed.getDate() != null) {
                 // set subtask due date
-                subTask.setDueDate(dueDate);
-            } catch (Exception e) {
-                problems.addError(Problems.ERROR_PARSING_SUB_TASK_DUE_DATE, e.toString());
+                subTask.setDueDate(parsed.getDate());
+            } else {
+                problems.addError(Problems.ERROR_PARSING_SUB_TASK_DUE_DATE, parsed.getError(value), row,
+                        GRANT_HEADER_SUBTASK_DUE_DATE);
             }
         }
     }
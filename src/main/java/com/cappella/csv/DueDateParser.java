@@ -0,0 +1,205 @@
+package com.cappella.csv;
+
+import java.text.ParsePosition;
+import java.time.LocalDate;
+import java.time.Month;
+import java.time.Year;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Parses the grant due dates ("LLL d, yyyy") and the subtask due dates
+ * ("<type of date>-MM/dd/yyyy") found in the CSV files.
+ *
+ * The usual forms are read character by character without allocating, and
+ * only unusual input, such as a day past the end of the month, goes through
+ * the DateTimeFormatter. Input which does not parse is reported with the
+ * index of the error rather than by throwing an exception.
+ * The exports repeat the same deadlines on many rows, so the result for
+ * each distinct String is remembered, up to MAX_CACHED_DATES of each kind.
+ */
+class DueDateParser {
+
+    static final int MAX_CACHED_DATES = 4096;
+
+    // the month names exactly as TASK_DATE_FORMATTER expects them
+    private static final String[] MONTHS = new String[12];
+
+    static {
+        DateTimeFormatter month = DateTimeFormatter.ofPattern("LLL", Locale.ENGLISH);
+        for (Month m : Month.values()) {
+            MONTHS[m.ordinal()] = month.format(m);
+        }
+    }
+
+    private final Map<String, ParsedDate> grantDates = new ConcurrentHashMap<>();
+    private final Map<String, ParsedDate> subTaskDates = new ConcurrentHashMap<>();
+
+    /**
+     * @param value a grant due date like "Jan 1, 2001"
+     * @return ParsedDate
+     */
+    ParsedDate parseGrantDate(String value) {
+        ParsedDate parsed = grantDates.get(value);
+        if (parsed == null) {
+            parsed = parseGrant(value);
+            cache(grantDates, value, parsed);
+        }
+        return parsed;
+    }
+
+    /**
+     * The date is the text after the first '-' up to the next '-' if there
+     * is one, the type of date in front of it is left to the caller.
+     *
+     * @param value a subtask due date like "Milestone-01/21/2001"
+     * @return ParsedDate
+     */
+    ParsedDate parseSubTaskDate(String value) {
+        ParsedDate parsed = subTaskDates.get(value);
+        if (parsed == null) {
+            int start = value.indexOf('-') + 1;
+            if (start == 0) {
+                parsed = new ParsedDate(null, value.length());
+            } else {
+                int end = value.indexOf('-', start);
+                parsed = parseSubTaskDate(value, start, end < 0 ? value.length() : end);
+            }
+            cache(subTaskDates, value, parsed);
+        }
+        return parsed;
+    }
+
+    private ParsedDate parseGrant(String value) {
+        int start = 0;
+        int length = value.length();
+        // LLL
+        int month = -1;
+        for (int m = 0; m < MONTHS.length && month < 0; m++) {
+            if (value.startsWith(MONTHS[m], start)) {
+                month = m + 1;
+            }
+        }
+        int i = month < 0 ? -1 : start + MONTHS[month - 1].length();
+        // space then d
+        if (i < 0 || i >= length || value.charAt(i) != ' ') {
+            return fallback(value, start, length, CsvClient.TASK_DATE_FORMATTER);
+        }
+        i++;
+        int day = digit(value, i);
+        if (day < 0) {
+            return fallback(value, start, length, CsvClient.TASK_DATE_FORMATTER);
+        }
+        i++;
+        if (digit(value, i) >= 0) {
+            day = day * 10 + digit(value, i);
+            i++;
+        }
+        // comma, space then yyyy as the end of the value
+        if (i + 6 != length || value.charAt(i) != ',' || value.charAt(i + 1) != ' ') {
+            return fallback(value, start, length, CsvClient.TASK_DATE_FORMATTER);
+        }
+        return toDate(value, start, length, number(value, i + 2, 4), month, day,
+                CsvClient.TASK_DATE_FORMATTER);
+    }
+
+    private ParsedDate parseSubTaskDate(String value, int start, int end) {
+        // MM/dd/yyyy
+        if (end - start != 10 || value.charAt(start + 2) != '/' || value.charAt(start + 5) != '/') {
+            return fallback(value, start, end, CsvClient.SUB_TASK_DATE_FORMATTER);
+        }
+        return toDate(value, start, end, number(value, start + 6, 4), number(value, start, 2),
+                number(value, start + 3, 2), CsvClient.SUB_TASK_DATE_FORMATTER);
+    }
+
+    private ParsedDate toDate(String value, int start, int end, int year, int month, int day,
+                              DateTimeFormatter formatter) {
+        if (year >= 1 && month >= 1 && month <= 12 && day >= 1
+                && day <= Month.of(month).length(Year.isLeap(year))) {
+            return new ParsedDate(LocalDate.of(year, month, day), -1);
+        }
+        return fallback(value, start, end, formatter);
+    }
+
+    /**
+     * The DateTimeFormatter decides unusual input, it only throws when the
+     * text has the right form but is not a date.
+     */
+    private ParsedDate fallback(String value, int start, int end, DateTimeFormatter formatter) {
+        ParsePosition position = new ParsePosition(start);
+        String text = end == value.length() ? value : value.substring(0, end);
+        if (formatter.parseUnresolved(text, position) == null || position.getIndex() != end) {
+            return new ParsedDate(null, Math.max(position.getErrorIndex(), position.getIndex()));
+        }
+        try {
+            return new ParsedDate(LocalDate.parse(text.substring(start), formatter), -1);
+        } catch (DateTimeParseException e) {
+            return new ParsedDate(null, start + e.getErrorIndex());
+        }
+    }
+
+    private static void cache(Map<String, ParsedDate> dates, String value, ParsedDate parsed) {
+        if (dates.size() < MAX_CACHED_DATES) {
+            dates.put(value, parsed);
+        }
+    }
+
+    private static int digit(String value, int index) {
+        if (index >= value.length()) {
+            return -1;
+        }
+        char c = value.charAt(index);
+        return c >= '0' && c <= '9' ? c - '0' : -1;
+    }
+
+    /**
+     * Will return -1 if any of the characters is not a digit.
+     */
+    private static int number(String value, int start, int digits) {
+        int number = 0;
+        for (int i = start; i < start + digits; i++) {
+            int digit = digit(value, i);
+            if (digit < 0) {
+                return -1;
+            }
+            number = number * 10 + digit;
+        }
+        return number;
+    }
+
+    /**
+     * Either the date or the index in the String where parsing failed.
+     */
+    static class ParsedDate {
+
+        private final LocalDate date;
+        private final int errorIndex;
+
+        ParsedDate(LocalDate date, int errorIndex) {
+            this.date = date;
+            this.errorIndex = errorIndex;
+        }
+
+        /**
+         * Will return null if the String is not a date.
+         *
+         * @return LocalDate
+         */
+        LocalDate getDate() {
+            return date;
+        }
+
+        /**
+         * The same description DateTimeParseException would give.
+         *
+         * @param value the String which was parsed
+         * @return String
+         */
+        String getError(String value) {
+            return "Text '" + value + "' could not be parsed at index " + errorIndex;
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package com.cappella.csv;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.cappella.model.Problems;
+
+/**
+ * Remembers a fingerprint of every row of the previous import so that a
+ * re-import of the next Instrumentl export only parses and syncs the rows
+ * which are new or changed.
+ * A row is identified by its "Opportunity name" and "Funder name" and its
+ * fingerprint is a hash of the columns which are mapped to the task.
+ *
+ * The fingerprints read from the file are the previous ones. While a file is
+ * parsed every row with a task is added to the current fingerprints, and
+ * once the whole file has been read the rows of the previous import which
+ * were not seen are reported as removed. Only the current fingerprints are
+ * saved, and they should only be saved once their tasks are in Asana,
+ * otherwise a row which failed to sync would be skipped by the next import.
+ */
+public class RowFingerprints {
+
+    private static final int VERSION = 1;
+
+    private final Map<String, Long> previous;
+    private final Map<String, Long> current = new HashMap<>();
+    private long unchanged;
+    private boolean complete;
+
+    /**
+     * Fingerprints without a previous import, every row is new.
+     */
+    public RowFingerprints() {
+        this(new HashMap<>());
+    }
+
+    private RowFingerprints(Map<String, Long> previous) {
+        this.previous = previous;
+    }
+
+    /**
+     * Reads the fingerprints saved by the previous import, there are none
+     * if the file does not exist.
+     *
+     * @param file
+     * @return RowFingerprints
+     * @throws IOException if the file can not be read or is not a fingerprint file
+     */
+    public static RowFingerprints load(Path file) throws IOException {
+        Map<String, Long> previous = new HashMap<>();
+        if (Files.exists(file)) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+                int version = in.readInt();
+                if (version != VERSION) {
+                    throw new IOException("unknown version " + version + " of " + file);
+                }
+                int size = in.readInt();
+                for (int i = 0; i < size; i++) {
+                    String key = in.readUTF();
+                    previous.put(key, in.readLong());
+                }
+            }
+        }
+        return new RowFingerprints(previous);
+    }
+
+    /**
+     * Writes the current fingerprints to a new file which replaces the file,
+     * so the previous fingerprints are kept if writing fails.
+     *
+     * @param file
+     * @throws IOException
+     */
+    public synchronized void save(Path file) throws IOException {
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        Path saving = file.resolveSibling(file.getFileName() + ".saving");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(saving)))) {
+            out.writeInt(VERSION);
+            out.writeInt(current.size());
+            for (Map.Entry<String, Long> entry : current.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeLong(entry.getValue());
+            }
+        }
+        Files.move(saving, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Records the fingerprint of a row of the file being parsed.
+     * A row is unchanged when the previous import had the same fingerprint
+     * for it and it is the first row with its name and funder in this file.
+     *
+     * @param name
+     * @param funderName
+     * @param fingerprint
+     * @return boolean true if the row can be skipped
+     */
+    synchronized boolean isUnchanged(String name, String funderName, long fingerprint) {
+        String key = key(name, funderName);
+        if (current.put(key, fingerprint) != null) {
+            // a second row for the same grant is always synced
+            return false;
+        }
+        Long last = previous.get(key);
+        if (last != null && last == fingerprint) {
+            unchanged++;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Called once every row of the file has been read, adds a warning for
+     * each row of the previous import which is not in the file.
+     *
+     * @param problems
+     */
+    synchronized void finish(Problems problems) {
+        if (!complete) {
+            complete = true;
+            for (String removed : getRemoved()) {
+                problems.addWarning(Problems.WARNING_GRANT_REMOVED_FROM_CSV, removed);
+            }
+        }
+    }
+
+    /**
+     * @return boolean true once every row of the file has been read
+     */
+    public synchronized boolean isComplete() {
+        return complete;
+    }
+
+    public synchronized long getUnchanged() {
+        return unchanged;
+    }
+
+    /**
+     * The name and funder of each row of the previous import which is not
+     * in the file, only known once the file is complete.
+     *
+     * @return List<String>
+     */
+    public synchronized List<String> getRemoved() {
+        List<String> removed = new ArrayList<>();
+        if (complete) {
+            for (String key : previous.keySet()) {
+                if (!current.containsKey(key)) {
+                    removed.add(describe(key));
+                }
+            }
+        }
+        return removed;
+    }
+
+    public synchronized int size() {
+        return current.size();
+    }
+
+    static String key(String name, String funderName) {
+        return name + "\u0000" + (funderName == null ? "" : funderName);
+    }
+
+    private static String describe(String key) {
+        int separator = key.indexOf('\u0000');
+        String funderName = key.substring(separator + 1);
+        return key.substring(0, separator) + (funderName.isEmpty() ? "" : " (" + funderName + ")");
+    }
+}
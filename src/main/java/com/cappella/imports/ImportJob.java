@@ -0,0 +1,199 @@
+package com.cappella.imports;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.cappella.model.Problems;
+import com.cappella.model.SyncSummary;
+
+/**
+ * The progress of one CSV file being imported into Asana in the background.
+ * The getters are read by the status endpoint while the import is running.
+ */
+public class ImportJob {
+
+    public enum State {
+        QUEUED, RUNNING, COMPLETED, FAILED
+    }
+
+    private final String id;
+    private final String tenant;
+    private final String fileName;
+    private final Problems problems;
+    private final SyncSummary summary;
+    private final AtomicLong rowsParsed;
+    private volatile long rowsUnchanged;
+    private volatile State state;
+    private volatile long started;
+    private volatile long finished;
+    private final CompletableFuture<ImportJob> done = new CompletableFuture<>();
+
+    public ImportJob(String fileName) {
+        this(ImportService.DEFAULT_TENANT, fileName);
+    }
+
+    public ImportJob(String tenant, String fileName) {
+        this.id = UUID.randomUUID().toString();
+        this.tenant = tenant;
+        this.fileName = fileName;
+        this.problems = new Problems();
+        this.summary = new SyncSummary();
+        this.rowsParsed = new AtomicLong();
+        this.state = State.QUEUED;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * The name of the organization the file is imported for.
+     *
+     * @return String
+     */
+    public String getTenant() {
+        return tenant;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    void start() {
+        started = System.nanoTime();
+        state = State.RUNNING;
+    }
+
+    void finish(State newState) {
+        finished = System.nanoTime();
+        state = newState;
+        done.complete(this);
+    }
+
+    /**
+     * Completes with the job once it has finished.
+     *
+     * @return CompletableFuture<ImportJob>
+     */
+    public CompletableFuture<ImportJob> whenDone() {
+        return done;
+    }
+
+    public boolean isDone() {
+        return state == State.COMPLETED || state == State.FAILED;
+    }
+
+    void addRowParsed() {
+        rowsParsed.incrementAndGet();
+    }
+
+    public long getRowsParsed() {
+        return rowsParsed.get();
+    }
+
+    void setRowsUnchanged(long unchanged) {
+        rowsUnchanged = unchanged;
+    }
+
+    /**
+     * Rows skipped by an incremental import because they have not changed
+     * since the previous import.
+     *
+     * @return long
+     */
+    public long getRowsUnchanged() {
+        return rowsUnchanged;
+    }
+
+    public long getTasksSynced() {
+        return summary.getTotal();
+    }
+
+    public int getTasksInserted() {
+        return summary.getInserted();
+    }
+
+    public int getTasksUpdated() {
+        return summary.getUpdated();
+    }
+
+    public int getTasksSkipped() {
+        return summary.getSkipped();
+    }
+
+    /**
+     * Time since the import started, or how long it took once it is done.
+     *
+     * @return long
+     */
+    public long getElapsedMillis() {
+        if (started == 0) {
+            return 0;
+        }
+        long end = isDone() ? finished : System.nanoTime();
+        return TimeUnit.NANOSECONDS.toMillis(end - started);
+    }
+
+    public double getRowsPerSecond() {
+        return perSecond(getRowsParsed());
+    }
+
+    public double getTasksPerSecond() {
+        return perSecond(getTasksSynced());
+    }
+
+    public Map<String, String> getErrors() {
+        return problems.getErrors();
+    }
+
+    public Map<String, String> getWarnings() {
+        return problems.getWarnings();
+    }
+
+    public Map<String, Long> getErrorCounts() {
+        return problems.getErrorCounts();
+    }
+
+    public Map<String, Long> getWarningCounts() {
+        return problems.getWarningCounts();
+    }
+
+    /**
+     * The most recent occurrences of each kind of error, with their rows.
+     *
+     * @return Map<String, List<Problems.Detail>>
+     */
+    public Map<String, List<Problems.Detail>> getErrorDetails() {
+        Map<String, List<Problems.Detail>> details = new HashMap<>();
+        for (String key : problems.getErrorCounts().keySet()) {
+            details.put(key, problems.getErrorDetails(key));
+        }
+        return details;
+    }
+
+    Problems getProblems() {
+        return problems;
+    }
+
+    SyncSummary getSummary() {
+        return summary;
+    }
+
+    long getFinished() {
+        return finished;
+    }
+
+    private double perSecond(long count) {
+        long elapsed = getElapsedMillis();
+        return elapsed == 0 ? 0 : count * 1000.0 / elapsed;
+    }
+}
@@ -0,0 +1,199 @@
+package com.cappella.imports;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs import jobs on a fixed number of threads, sharing them fairly
+ * between lanes. Every Asana token has a lane, so that the imports of one
+ * organization can not hold up the imports of the others.
+ * Each lane runs at most its own number of jobs at once, the rest wait in
+ * the lane's queue in the order they were submitted. A free thread goes to
+ * the next lane in turn which has a job waiting and is below its limit, so
+ * a lane with a long queue gets one job started and then goes to the back.
+ * A job submitted to a lane whose queue is full is rejected rather than
+ * waiting behind it.
+ * Jobs submitted with the same serial key run one at a time. While one of
+ * them runs the next one waits in its queue without taking a thread or a
+ * place in its lane's limit, and the jobs behind it in the lane can start.
+ */
+class ImportScheduler {
+
+    private final ExecutorService executor;
+    private final int concurrency;
+    private final Map<String, Lane> lanes = new HashMap<>();
+    // the lanes with jobs waiting, in the order they are served
+    private final Deque<Lane> waiting = new ArrayDeque<>();
+    // the serial keys of the jobs running
+    private final Set<String> runningKeys = new HashSet<>();
+    private int running;
+
+    /**
+     * @param concurrency the number of jobs run at once over all of the lanes
+     */
+    ImportScheduler(int concurrency) {
+        this.concurrency = Math.max(1, concurrency);
+        AtomicInteger threads = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(this.concurrency, runnable -> {
+            Thread thread = new Thread(runnable, "csv-import-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * @param name
+     * @param concurrency the number of jobs of the lane run at once
+     * @param queueSize the number of jobs of the lane which can wait
+     */
+    synchronized void addLane(String name, int concurrency, int queueSize) {
+        lanes.put(name, new Lane(Math.max(1, concurrency), Math.max(0, queueSize)));
+    }
+
+    /**
+     * Queues the job in the lane, it is run once a thread and the lane
+     * allow.
+     *
+     * @param name the lane
+     * @param job
+     * @throws IllegalArgumentException if there is no lane with the name
+     * @throws RejectedExecutionException if the queue of the lane is full
+     */
+    void submit(String name, Runnable job) {
+        submit(name, null, job);
+    }
+
+    /**
+     * As above, and the job does not start while a job with the same
+     * serialKey is running.
+     *
+     * @param name the lane
+     * @param serialKey null if the job can run alongside any other
+     * @param job
+     * @throws IllegalArgumentException if there is no lane with the name
+     * @throws RejectedExecutionException if the queue of the lane is full
+     */
+    synchronized void submit(String name, String serialKey, Runnable job) {
+        Lane lane = lanes.get(name);
+        if (lane == null) {
+            throw new IllegalArgumentException("No import lane " + name);
+        }
+        if (lane.queue.size() >= lane.queueSize) {
+            throw new RejectedExecutionException(lane.queue.size() + " imports are already waiting in " + name);
+        }
+        if (lane.queue.isEmpty()) {
+            waiting.add(lane);
+        }
+        lane.queue.add(new Job(serialKey, job));
+        dispatch();
+    }
+
+    /**
+     * @param name
+     * @return int the number of jobs waiting in the lane
+     */
+    synchronized int getQueued(String name) {
+        Lane lane = lanes.get(name);
+        return lane == null ? 0 : lane.queue.size();
+    }
+
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Starts waiting jobs until every thread is busy or every lane with jobs
+     * waiting is at its limit or only has jobs waiting for their serial key.
+     */
+    private void dispatch() {
+        int atLimit = 0;
+        while (running < concurrency && atLimit < waiting.size()) {
+            Lane lane = waiting.poll();
+            Job job = lane.running < lane.concurrency ? pollStartable(lane) : null;
+            if (job == null) {
+                waiting.add(lane);
+                atLimit++;
+                continue;
+            }
+            if (!lane.queue.isEmpty()) {
+                waiting.add(lane);
+            }
+            atLimit = 0;
+            running++;
+            lane.running++;
+            if (job.serialKey != null) {
+                runningKeys.add(job.serialKey);
+            }
+            executor.execute(() -> run(lane, job));
+        }
+    }
+
+    /**
+     * Will return null if every job waiting in the lane has the serial key
+     * of a running job.
+     */
+    private Job pollStartable(Lane lane) {
+        for (Iterator<Job> jobs = lane.queue.iterator(); jobs.hasNext(); ) {
+            Job job = jobs.next();
+            if (job.serialKey == null || !runningKeys.contains(job.serialKey)) {
+                jobs.remove();
+                return job;
+            }
+        }
+        return null;
+    }
+
+    private void run(Lane lane, Job job) {
+        try {
+            job.runnable.run();
+        } finally {
+            synchronized (this) {
+                running--;
+                lane.running--;
+                if (job.serialKey != null) {
+                    runningKeys.remove(job.serialKey);
+                }
+                dispatch();
+            }
+        }
+    }
+
+    /**
+     * The jobs of one token, guarded by the scheduler.
+     */
+    private static class Lane {
+
+        final int concurrency;
+        final int queueSize;
+        final Deque<Job> queue = new ArrayDeque<>();
+        int running;
+
+        Lane(int concurrency, int queueSize) {
+            this.concurrency = concurrency;
+            this.queueSize = queueSize;
+        }
+    }
+
+    /**
+     * A queued job, with the serial key it must not run alongside.
+     */
+    private static class Job {
+
+        final String serialKey;
+        final Runnable runnable;
+
+        Job(String serialKey, Runnable runnable) {
+            this.serialKey = serialKey;
+            this.runnable = runnable;
+        }
+    }
+}
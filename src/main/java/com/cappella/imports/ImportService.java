@@ -0,0 +1,444 @@
+package com.cappella.imports;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+
+import com.cappella.asana.AsanaClient;
+import com.cappella.csv.CsvClient;
+import com.cappella.csv.RowFingerprints;
+import com.cappella.metrics.ImportMetrics;
+import com.cappella.model.Problems;
+import com.cappella.model.TaskData;
+
+@Service
+/**
+ * Runs CSV imports in the background so that the upload request returns
+ * as soon as the file has been received.
+ * The uploaded file is copied to a temporary file, which is parsed and sent
+ * to Asana on one of the import threads and deleted when the import is done.
+ * Finished jobs are kept for retentionMinutes so their status can be read.
+ * When imports.fingerprint.file is set imports are incremental, only the
+ * rows which changed since the last successful import are sent to Asana
+ * (see RowFingerprints). Incremental imports of a tenant run one at a time
+ * because each one starts from the fingerprints the one before saved.
+ * When asana.journal.directory is set an import which was stopped by a
+ * crash or failed in Asana resumes when the same file is uploaded again, the
+ * file is recognised by a digest of its content.
+ * Besides the default tenant set up by the asana properties, files can be
+ * imported for the tenants listed in imports.tenants, each with its own
+ * token, workspace and project. Every token has its own AsanaClient and
+ * takes turns with the other tokens in the ImportScheduler, running at most
+ * its own number of imports at once and queuing at most its own number.
+ * Files are memory mapped for parsing. Files already on the local disk in
+ * imports.local.directory can be imported without uploading them, and the
+ * body of a request can be parsed as it arrives without a temporary file.
+ */
+public class ImportService {
+
+    public static final String DEFAULT_TENANT = "default";
+    static final int DEFAULT_CONCURRENCY = 1;
+    static final int DEFAULT_RETENTION_MINUTES = 60;
+    static final int DEFAULT_QUEUE_SIZE = 100;
+    private static final String TENANT_PREFIX = "imports.tenant.";
+
+    private final Logger LOGGER = LoggerFactory.getLogger(getClass());
+
+    private final CsvClient csv;
+    private final AsanaClient asana;
+    private final ImportMetrics metrics;
+    private final Environment environment;
+    private final Map<String, ImportJob> jobs = new ConcurrentHashMap<>();
+    // name -> tenant, the default tenant first
+    private final Map<String, ImportTenant> tenants = new LinkedHashMap<>();
+    private ImportScheduler scheduler;
+
+    @Value("${asana.token}")
+    private String token;
+    @Value("${asana.workspace.name}")
+    private String workspaceName;
+    @Value("${asana.project.name}")
+    private String projectName;
+    // the imports of a token share its Asana rate limit so running more at once rarely helps
+    @Value("${imports.concurrency:" + DEFAULT_CONCURRENCY + "}")
+    private int concurrency = DEFAULT_CONCURRENCY;
+    @Value("${imports.queue.size:" + DEFAULT_QUEUE_SIZE + "}")
+    private int queueSize = DEFAULT_QUEUE_SIZE;
+    // the imports run at once over all of the tokens, 0 for the sum of their concurrency
+    @Value("${imports.total.concurrency:0}")
+    private int totalConcurrency;
+    @Value("${imports.tenants:}")
+    private String[] tenantNames = new String[0];
+    @Value("${imports.retention.minutes:" + DEFAULT_RETENTION_MINUTES + "}")
+    private int retentionMinutes = DEFAULT_RETENTION_MINUTES;
+    // fingerprints of the rows of the last import, every row is imported when blank
+    @Value("${imports.fingerprint.file:}")
+    private String fingerprintFile;
+    // files on the local disk in this directory can be imported without uploading them, none when blank
+    @Value("${imports.local.directory:}")
+    private String localDirectory;
+
+    public ImportService(CsvClient csv, AsanaClient asana, ImportMetrics metrics, Environment environment) {
+        this.csv = csv;
+        this.asana = asana;
+        this.metrics = metrics;
+        this.environment = environment;
+    }
+
+    /**
+     * Reads the tenants, a tenant named acme is set up by the properties
+     * imports.tenant.acme.token, .workspace.name and .project.name, and
+     * optionally .rate.limit.per.minute, .concurrency, .queue.size and
+     * .fingerprint.file. Like asana.token the token must not be put in
+     * application.properties. Tenants with the same token share the limits
+     * of the first of them.
+     */
+    @PostConstruct
+    void configure() {
+        // token -> lane, each lane is named after the first tenant with its token
+        Map<String, String> lanes = new HashMap<>();
+        Map<String, Integer> laneConcurrency = new LinkedHashMap<>();
+        Map<String, Integer> laneQueueSize = new HashMap<>();
+        Map<String, AsanaClient> clients = new HashMap<>();
+        lanes.put(token, DEFAULT_TENANT);
+        laneConcurrency.put(DEFAULT_TENANT, concurrency);
+        laneQueueSize.put(DEFAULT_TENANT, queueSize);
+        clients.put(token, asana);
+        tenants.put(DEFAULT_TENANT, new ImportTenant(DEFAULT_TENANT, DEFAULT_TENANT, asana, workspaceName,
+                projectName, fingerprintFile));
+        for (String name : tenantNames) {
+            name = name.trim();
+            if (name.isEmpty()) {
+                continue;
+            }
+            if (tenants.containsKey(name)) {
+                throw new IllegalStateException("Tenant " + name + " is listed twice in imports.tenants");
+            }
+            String prefix = TENANT_PREFIX + name + ".";
+            String tenantToken = environment.getRequiredProperty(prefix + "token");
+            String lane = lanes.get(tenantToken);
+            if (lane == null) {
+                lane = name;
+                lanes.put(tenantToken, lane);
+                laneConcurrency.put(lane, environment.getProperty(prefix + "concurrency", Integer.class,
+                        DEFAULT_CONCURRENCY));
+                laneQueueSize.put(lane, environment.getProperty(prefix + "queue.size", Integer.class, queueSize));
+                clients.put(tenantToken, asana.forToken(tenantToken, environment.getProperty(
+                        prefix + "rate.limit.per.minute", Integer.class, asana.getRateLimitPerMinute())));
+            }
+            tenants.put(name, new ImportTenant(name, lane, clients.get(tenantToken),
+                    environment.getRequiredProperty(prefix + "workspace.name"),
+                    environment.getRequiredProperty(prefix + "project.name"),
+                    environment.getProperty(prefix + "fingerprint.file", "")));
+        }
+        int threads = totalConcurrency > 0 ? totalConcurrency
+                : laneConcurrency.values().stream().mapToInt(limit -> Math.max(1, limit)).sum();
+        scheduler = new ImportScheduler(threads);
+        for (Map.Entry<String, Integer> lane : laneConcurrency.entrySet()) {
+            scheduler.addLane(lane.getKey(), lane.getValue(), laneQueueSize.get(lane.getKey()));
+        }
+    }
+
+    @PreDestroy
+    void shutdown() {
+        scheduler.shutdown();
+    }
+
+    /**
+     * Copies the upload to a temporary file and queues it to be imported
+     * for the default tenant.
+     *
+     * @param file
+     * @return ImportJob
+     * @throws IOException if the upload could not be copied
+     * @throws RejectedExecutionException if too many imports are queued
+     */
+    public ImportJob submit(MultipartFile file) throws IOException {
+        return submit(DEFAULT_TENANT, file);
+    }
+
+    /**
+     * As above for the tenant given.
+     *
+     * @param tenant
+     * @param file
+     * @return ImportJob
+     * @throws IOException if the upload could not be copied
+     * @throws IllegalArgumentException if there is no such tenant
+     * @throws RejectedExecutionException if too many imports are queued for the tenant's token
+     */
+    public ImportJob submit(String tenant, MultipartFile file) throws IOException {
+        ImportTenant importTenant = getTenant(tenant);
+        Path upload = Files.createTempFile("cappella-import-", ".csv");
+        ImportJob job = new ImportJob(tenant, file.getOriginalFilename());
+        try {
+            file.transferTo(upload);
+            schedule(importTenant, job, () -> {
+                try {
+                    run(importTenant, job, upload, null);
+                } finally {
+                    deleteUpload(upload);
+                }
+            });
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(upload);
+            throw e;
+        }
+        return job;
+    }
+
+    /**
+     * Queues a CSV file which is already on the local disk to be imported
+     * for the tenant, so it is not uploaded and copied. The file is memory
+     * mapped and is not deleted after the import.
+     *
+     * @param tenant
+     * @param name the path of the file in imports.local.directory
+     * @return ImportJob
+     * @throws IOException if the file does not exist
+     * @throws IllegalArgumentException if there is no such tenant, local imports are not set up or the file is
+     *         not in imports.local.directory
+     * @throws RejectedExecutionException if too many imports are queued for the tenant's token
+     */
+    public ImportJob submitLocal(String tenant, String name) throws IOException {
+        ImportTenant importTenant = getTenant(tenant);
+        Path file = resolveLocalFile(localDirectory, name);
+        ImportJob job = new ImportJob(tenant, file.getFileName().toString());
+        schedule(importTenant, job, () -> run(importTenant, job, file, null));
+        return job;
+    }
+
+    /**
+     * Queues the body of a request to be imported for the tenant, it is
+     * parsed as it arrives, without being copied to a temporary file. The
+     * body must stay open until the job is done (see ImportJob.whenDone).
+     * The body can only be read once, so the import can not be resumed
+     * (see ImportJournal).
+     *
+     * @param tenant
+     * @param fileName shown in the status of the job, may be null
+     * @param body
+     * @return ImportJob
+     * @throws IllegalArgumentException if there is no such tenant
+     * @throws RejectedExecutionException if too many imports are queued for the tenant's token
+     */
+    public ImportJob submit(String tenant, String fileName, InputStream body) {
+        ImportTenant importTenant = getTenant(tenant);
+        ImportJob job = new ImportJob(tenant, fileName);
+        schedule(importTenant, job, () -> run(importTenant, job, null, body));
+        return job;
+    }
+
+    /**
+     * @param tenant
+     * @return boolean true if files can be imported for the tenant
+     */
+    public boolean hasTenant(String tenant) {
+        return tenants.containsKey(tenant);
+    }
+
+    private ImportTenant getTenant(String tenant) {
+        ImportTenant importTenant = tenants.get(tenant);
+        if (importTenant == null) {
+            throw new IllegalArgumentException("No tenant " + tenant);
+        }
+        return importTenant;
+    }
+
+    private void schedule(ImportTenant tenant, ImportJob job, Runnable run) {
+        removeExpiredJobs();
+        jobs.put(job.getId(), job);
+        try {
+            scheduler.submit(tenant.getLane(), tenant.getSerialKey(), run);
+        } catch (RuntimeException e) {
+            jobs.remove(job.getId());
+            throw e;
+        }
+        LOGGER.debug("queued import " + job.getId() + " of " + job.getFileName() + " for " + tenant.getName());
+    }
+
+    /**
+     * The real path of the file, which must be a regular file under the
+     * directory once any links have been followed.
+     *
+     * @param directory
+     * @param name
+     * @return Path
+     * @throws IOException if the file does not exist
+     * @throws IllegalArgumentException if the directory is blank or the file is not in it
+     */
+    static Path resolveLocalFile(String directory, String name) throws IOException {
+        if (directory == null || directory.isBlank()) {
+            throw new IllegalArgumentException("imports.local.directory is not set");
+        }
+        Path root = Paths.get(directory).toRealPath();
+        Path file = root.resolve(name).toRealPath();
+        if (!file.startsWith(root) || !Files.isRegularFile(file)) {
+            throw new IllegalArgumentException(name + " is not a file in " + directory);
+        }
+        return file;
+    }
+
+    /**
+     * Will return null if there is no job with the id or it has expired.
+     *
+     * @param id
+     * @return ImportJob
+     */
+    public ImportJob getJob(String id) {
+        return jobs.get(id);
+    }
+
+    /**
+     * Imports the file, or the body of a request when the file is null.
+     */
+    private void run(ImportTenant tenant, ImportJob job, Path file, InputStream body) {
+        job.start();
+        metrics.importStarted();
+        long start = System.nanoTime();
+        Problems problems = job.getProblems();
+        try {
+            boolean parsed;
+            if (!tenant.isIncremental()) {
+                parsed = importRows(tenant, job, file, body, null);
+            } else {
+                parsed = importChangedRows(tenant, job, file, body, Paths.get(tenant.getFingerprintFile()));
+            }
+            if (!parsed || problems.getErrors().containsKey(Problems.ERROR_PARSING_CSV_FILE)) {
+                job.finish(ImportJob.State.FAILED);
+            } else {
+                job.finish(ImportJob.State.COMPLETED);
+            }
+        } catch (Exception e) {
+            problems.addError(Problems.ERROR_PARSING_CSV_FILE, e.toString());
+            LOGGER.debug("error importing " + job.getFileName() + " " + e.toString());
+            job.finish(ImportJob.State.FAILED);
+        }
+        metrics.importFinished(System.nanoTime() - start, job.getState() == ImportJob.State.COMPLETED
+                ? ImportMetrics.OUTCOME_SUCCESS : ImportMetrics.OUTCOME_ERROR, problems);
+        LOGGER.debug("import " + job.getId() + " " + job.getState() + " rows=" + job.getRowsParsed()
+                + " unchanged=" + job.getRowsUnchanged() + " " + job.getSummary() + " in "
+                + job.getElapsedMillis() + " ms");
+    }
+
+    /**
+     * Streams the rows of the file, or of the body, to Asana, only the
+     * changed rows when there are fingerprints.
+     * Will return false if the header of the file could not be parsed.
+     */
+    private boolean importRows(ImportTenant tenant, ImportJob job, Path file, InputStream body,
+                               RowFingerprints fingerprints) throws IOException {
+        Problems problems = job.getProblems();
+        AsanaClient asana = tenant.getAsana();
+        String importKey = file != null && asana.isJournaling() ? digest(file) : null;
+        try (InputStream is = file != null ? csv.openMappedCsv(file) : body;
+             Stream<TaskData> stream = fingerprints == null ? csv.streamGrantCsvToTasks(is, problems)
+                     : csv.streamChangedGrantCsvToTasks(is, fingerprints, problems)) {
+            if (stream == null) {
+                return false;
+            }
+            // each task is sent to Asana while the rest of the file is parsed
+            asana.updateOrInsertGrantTasks(tenant.getWorkspaceName(), tenant.getProjectName(),
+                    stream.peek(task -> job.addRowParsed()), importKey, fingerprints == null, problems,
+                    job.getSummary());
+        }
+        return true;
+    }
+
+    /**
+     * Imports the rows which changed since the previous import and saves
+     * the fingerprints of this import, unless the file could not be read or
+     * a task could not be sent to Asana. Those rows have to be imported again
+     * next time so the previous fingerprints are kept. A row with a due date
+     * which could not be parsed was still imported, so it does not stop the
+     * fingerprints being saved. If the fingerprints can not be read every
+     * row is imported.
+     */
+    private boolean importChangedRows(ImportTenant tenant, ImportJob job, Path file, InputStream body,
+                                      Path fingerprintFile) throws IOException {
+        Problems problems = job.getProblems();
+        RowFingerprints fingerprints;
+        try {
+            fingerprints = RowFingerprints.load(fingerprintFile);
+        } catch (IOException e) {
+            problems.addWarning(Problems.WARNING_FINGERPRINTS_NOT_AVAILABLE, e.toString());
+            LOGGER.debug("error reading fingerprints " + e.toString());
+            fingerprints = new RowFingerprints();
+        }
+        boolean parsed = importRows(tenant, job, file, body, fingerprints);
+        job.setRowsUnchanged(fingerprints.getUnchanged());
+        if (parsed && fingerprints.isComplete() && !hasFailedRows(problems)) {
+            try {
+                fingerprints.save(fingerprintFile);
+            } catch (IOException e) {
+                problems.addWarning(Problems.WARNING_FINGERPRINTS_NOT_AVAILABLE, e.toString());
+                LOGGER.debug("error writing fingerprints " + e.toString());
+            }
+        }
+        return parsed;
+    }
+
+    /**
+     * The SHA-256 of the file as hex, reading the file is quick next to
+     * sending it to Asana.
+     */
+    private static String digest(Path file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        try (InputStream is = new DigestInputStream(Files.newInputStream(file), digest)) {
+            is.transferTo(OutputStream.nullOutputStream());
+        }
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+
+    private void deleteUpload(Path upload) {
+        try {
+            Files.deleteIfExists(upload);
+        } catch (IOException e) {
+            LOGGER.debug("error deleting " + upload + " " + e.toString());
+        }
+    }
+
+    private static boolean hasFailedRows(Problems problems) {
+        Map<String, String> errors = problems.getErrors();
+        return errors.containsKey(Problems.ERROR_PARSING_CSV_FILE) || errors.containsKey(Problems.ERROR_FROM_ASANA)
+                || errors.containsKey(Problems.ERROR_NO_WORKSPACE)
+                || errors.containsKey(Problems.ERROR_PROJECT_NOT_IN_WORKSPACE);
+    }
+
+    private void removeExpiredJobs() {
+        long expired = System.nanoTime() - TimeUnit.MINUTES.toNanos(retentionMinutes);
+        jobs.values().removeIf(job -> job.isDone() && job.getFinished() - expired < 0);
+    }
+}
@@ -0,0 +1,72 @@
+package com.cappella.imports;
+
+import com.cappella.asana.AsanaClient;
+
+/**
+ * An organization whose grants are imported into its own Asana project.
+ * Tenants with the same token share its AsanaClient, and so its rate
+ * budget, and its lane in the ImportScheduler.
+ */
+class ImportTenant {
+
+    private final String name;
+    private final String lane;
+    private final AsanaClient asana;
+    private final String workspaceName;
+    private final String projectName;
+    // blank when every row is imported
+    private final String fingerprintFile;
+
+    ImportTenant(String name, String lane, AsanaClient asana, String workspaceName, String projectName,
+                 String fingerprintFile) {
+        this.name = name;
+        this.lane = lane;
+        this.asana = asana;
+        this.workspaceName = workspaceName;
+        this.projectName = projectName;
+        this.fingerprintFile = fingerprintFile;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    String getLane() {
+        return lane;
+    }
+
+    AsanaClient getAsana() {
+        return asana;
+    }
+
+    String getWorkspaceName() {
+        return workspaceName;
+    }
+
+    String getProjectName() {
+        return projectName;
+    }
+
+    boolean isIncremental() {
+        return fingerprintFile != null && !fingerprintFile.isBlank();
+    }
+
+    String getFingerprintFile() {
+        return fingerprintFile;
+    }
+
+    /**
+     * The imports with the same serial key must not run at once. An import
+     * into a project rewrites the project's index and journal files, and an
+     * incremental import starts from the fingerprints the one before saved.
+     *
+     * @return String null if the imports of the tenant can run alongside any other
+     */
+    String getSerialKey() {
+        if (asana.isIndexing() || asana.isJournaling()) {
+            // tenants can share a project, a tenant's fingerprints are only used with its own project
+            return "project\u0000" + workspaceName + "\u0000" + projectName;
+        }
+        return isIncremental() ? "tenant\u0000" + name : null;
+    }
+}
@@ -0,0 +1,196 @@
+package com.cappella.metrics;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.springframework.stereotype.Component;
+
+import com.cappella.model.Problems;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+
+@Component
+/**
+ * The meters for imports, read through the Actuator metrics endpoint
+ * /actuator/metrics/{name} or any registry Micrometer is configured with.
+ *
+ * cappella.csv.rows            rows parsed into tasks, and skipped as unchanged (result tag)
+ * cappella.csv.parse           time to parse a whole file
+ * cappella.imports             time of a whole import by outcome
+ * cappella.imports.active      imports running now
+ * cappella.problems            errors and warnings by type and category
+ * cappella.asana.calls         latency of each call to Asana by operation and outcome, an
+ *                              action in a batch is timed from when its batch is sent,
+ *                              including any wait for the rate limit
+ * cappella.asana.retries       calls sent again by operation and reason
+ * cappella.asana.rate.limit.wait time spent waiting for the rate limit before a call
+ * cappella.asana.in.flight     calls sent to Asana and not answered yet
+ *
+ * The clients are also used without Spring, by the benchmarks for example,
+ * and then use NONE which records into a registry nobody reads.
+ */
+public class ImportMetrics {
+
+    public static final ImportMetrics NONE = new ImportMetrics(new CompositeMeterRegistry());
+
+    public static final String OUTCOME_SUCCESS = "success";
+    public static final String OUTCOME_ERROR = "error";
+    private static final String OTHER_CATEGORY = "other";
+    // short names for the Problems keys, which are sentences
+    private static final Map<String, String> CATEGORIES = new HashMap<>();
+
+    static {
+        CATEGORIES.put(Problems.ERROR_PARSING_CSV_FILE, "parsing_csv_file");
+        CATEGORIES.put(Problems.ERROR_MISSING_GRANT_TASK_NAME_HEADER, "missing_task_name_header");
+        CATEGORIES.put(Problems.ERROR_MISSING_GRANT_TASK_NAME, "missing_task_name");
+        CATEGORIES.put(Problems.ERROR_PARSING_TASK_DUE_DATE, "task_due_date");
+        CATEGORIES.put(Problems.ERROR_PARSING_SUB_TASK_DUE_DATE, "sub_task_due_date");
+        CATEGORIES.put(Problems.ERROR_FROM_ASANA, "asana");
+        CATEGORIES.put(Problems.ERROR_PROJECT_NOT_IN_WORKSPACE, "project_not_in_workspace");
+        CATEGORIES.put(Problems.ERROR_NO_WORKSPACE, "no_workspace");
+        CATEGORIES.put(Problems.WARNING_TASKDATA_MISSING_NAME, "task_missing_name");
+        CATEGORIES.put(Problems.WARNING_GRANT_REMOVED_FROM_CSV, "grant_removed_from_csv");
+        CATEGORIES.put(Problems.WARNING_FINGERPRINTS_NOT_AVAILABLE, "fingerprints_not_available");
+        CATEGORIES.put(Problems.WARNING_INDEX_NOT_AVAILABLE, "index_not_available");
+        CATEGORIES.put(Problems.WARNING_JOURNAL_NOT_AVAILABLE, "journal_not_available");
+        CATEGORIES.put(Problems.WARNING_IMPORT_RESUMED, "import_resumed");
+    }
+
+    private final MeterRegistry registry;
+    private final Counter rowsParsed;
+    private final Counter rowsUnchanged;
+    private final Timer parse;
+    private final Timer rateLimitWait;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger activeImports = new AtomicInteger();
+
+    public ImportMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        this.rowsParsed = Counter.builder("cappella.csv.rows")
+                .description("Rows of CSV files parsed into tasks")
+                .tag("result", "parsed")
+                .register(registry);
+        this.rowsUnchanged = Counter.builder("cappella.csv.rows")
+                .description("Rows of CSV files parsed into tasks")
+                .tag("result", "unchanged")
+                .register(registry);
+        this.parse = Timer.builder("cappella.csv.parse")
+                .description("Time to parse a whole CSV file")
+                .register(registry);
+        this.rateLimitWait = Timer.builder("cappella.asana.rate.limit.wait")
+                .description("Time a call to Asana waited for the rate limit")
+                .publishPercentileHistogram()
+                .register(registry);
+        Gauge.builder("cappella.asana.in.flight", inFlight, AtomicInteger::get)
+                .description("Calls sent to Asana and not answered yet")
+                .register(registry);
+        Gauge.builder("cappella.imports.active", activeImports, AtomicInteger::get)
+                .description("Imports running now")
+                .register(registry);
+    }
+
+    public void rowParsed() {
+        rowsParsed.increment();
+    }
+
+    public void rowUnchanged() {
+        rowsUnchanged.increment();
+    }
+
+    public void parsed(long nanos) {
+        parse.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void importStarted() {
+        activeImports.incrementAndGet();
+    }
+
+    /**
+     * Records the time of the import and its problems by category.
+     *
+     * @param nanos
+     * @param outcome
+     * @param problems
+     */
+    public void importFinished(long nanos, String outcome, Problems problems) {
+        activeImports.decrementAndGet();
+        Timer.builder("cappella.imports")
+                .description("Time of a whole import")
+                .tag("outcome", outcome)
+                .register(registry)
+                .record(nanos, TimeUnit.NANOSECONDS);
+        problems(problems);
+    }
+
+    /**
+     * Adds every error and warning of the Problems to cappella.problems.
+     *
+     * @param problems
+     */
+    public void problems(Problems problems) {
+        for (Map.Entry<String, Long> count : problems.getErrorCounts().entrySet()) {
+            problemCounter("error", count.getKey()).increment(count.getValue());
+        }
+        for (Map.Entry<String, Long> count : problems.getWarningCounts().entrySet()) {
+            problemCounter("warning", count.getKey()).increment(count.getValue());
+        }
+    }
+
+    /**
+     * @param operation such as createTask or getTasksForProject
+     * @param nanos
+     * @param outcome
+     */
+    public void asanaCall(String operation, long nanos, String outcome) {
+        Timer.builder("cappella.asana.calls")
+                .description("Latency of calls to Asana")
+                .tag("operation", operation)
+                .tag("outcome", outcome)
+                .publishPercentileHistogram()
+                .register(registry)
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param operation
+     * @param reason rate_limited or server_error
+     */
+    public void asanaRetry(String operation, String reason) {
+        Counter.builder("cappella.asana.retries")
+                .description("Calls to Asana sent again")
+                .tag("operation", operation)
+                .tag("reason", reason)
+                .register(registry)
+                .increment();
+    }
+
+    public void rateLimitWait(long nanos) {
+        rateLimitWait.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void callStarted() {
+        inFlight.incrementAndGet();
+    }
+
+    public void callFinished() {
+        inFlight.decrementAndGet();
+    }
+
+    static String category(String key) {
+        return CATEGORIES.getOrDefault(key, OTHER_CATEGORY);
+    }
+
+    private Counter problemCounter(String type, String key) {
+        return Counter.builder("cappella.problems")
+                .description("Errors and warnings of imports")
+                .tag("type", type)
+                .tag("category", category(key))
+                .register(registry);
+    }
+}
@@ -0,0 +1,50 @@
+package com.cappella.model;
+
+/**
+ * The 64 bit FNV-1a hash of a sequence of Strings, shared by the row
+ * fingerprints of CsvClient and the content hashes of the GrantTaskIndex so
+ * that the same text always hashes the same.
+ * Each char is hashed as its two bytes, which needs no encoding of the
+ * String, and a null value hashes differently from an empty one.
+ */
+public final class Fnv1a {
+
+    private static final long OFFSET = 0xcbf29ce484222325L;
+    private static final long PRIME = 0x100000001b3L;
+
+    private Fnv1a() {
+    }
+
+    /**
+     * @return long the hash of no values, to pass to the first call of hash
+     */
+    public static long start() {
+        return OFFSET;
+    }
+
+    /**
+     * Adds the value to the hash.
+     *
+     * @param hash
+     * @param value
+     * @return long
+     */
+    public static long hash(long hash, String value) {
+        if (value != null) {
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                hash ^= c & 0xff;
+                hash *= PRIME;
+                hash ^= c >>> 8;
+                hash *= PRIME;
+            }
+        } else {
+            hash ^= 0xfe;
+            hash *= PRIME;
+        }
+        // separator so that ("ab", "c") and ("a", "bc") differ
+        hash ^= 0xff;
+        hash *= PRIME;
+        return hash;
+    }
+}
@@ -1,8 +1,14 @@
 package com.cappella.model;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
 import com.cappella.csv.CsvClient;
 
 public class Problems {
@@ -19,33 +25,218 @@ public class Problems {
     public static final String ERROR_PROJECT_NOT_IN_WORKSPACE = "The project does not exist in the workspace.";
     public static final String ERROR_NO_WORKSPACE = "The workspace does not exist.";
     public static final String WARNING_TASKDATA_MISSING_NAME = "Warning - task data missing a name so it was skipped";
+    public static final String WARNING_GRANT_REMOVED_FROM_CSV = "Warning - a grant in the previous import is no longer in the CSV file, its Asana task was left as it is";
+    public static final String WARNING_FINGERPRINTS_NOT_AVAILABLE = "Warning - the fingerprints of the previous import could not be read or written so every row was imported";
+    public static final String WARNING_INDEX_NOT_AVAILABLE = "Warning - the local index of Asana tasks could not be read or written";
+    public static final String WARNING_JOURNAL_NOT_AVAILABLE = "Warning - the journal of the import could not be read or written so it can not be resumed";
+    public static final String WARNING_IMPORT_RESUMED = "Warning - an earlier import of the same file was stopped, the rows it had finished were skipped";
+
+    // used for the row of a problem which is not about a row of the CSV file
+    public static final long NO_ROW = 0;
+    public static final int DEFAULT_MAX_DETAILS = 100;
 
-    private final Map<String, String> errors;
-    private final Map<String, String> warnings;
+    private final Map<String, Category> errors = new ConcurrentHashMap<>();
+    private final Map<String, Category> warnings = new ConcurrentHashMap<>();
+    private final int maxDetails;
 
     public Problems() {
-        errors = new HashMap<>();
-        warnings = new HashMap<>();
+        this(DEFAULT_MAX_DETAILS);
     }
 
+    /**
+     * Each kind of error or warning keeps the details of only its last
+     * maxDetails occurrences, but every occurrence is counted.
+     *
+     * @param maxDetails
+     */
+    public Problems(int maxDetails) {
+        this.maxDetails = Math.max(1, maxDetails);
+    }
+
+    // Problems are shared by the threads parsing and syncing tasks, so the
+    // categories are kept in concurrent maps and each category counts and
+    // stores its occurrences without locking.
+
     public void addError(String key, String value) {
-        errors.put(key, value);
+        addError(key, value, NO_ROW, null);
+    }
+
+    /**
+     * @param key one of the ERROR constants
+     * @param value
+     * @param row the number of the record in the CSV file, the first record after the header is 1
+     * @param column the header of the column, null if the error is not about a column
+     */
+    public void addError(String key, String value, long row, String column) {
+        add(errors, key, value, row, column);
     }
 
     public void addWarning(String key, String value) {
-        warnings.put(key, value);
+        addWarning(key, value, NO_ROW, null);
     }
 
+    /**
+     * @param key one of the WARNING constants
+     * @param value
+     * @param row the number of the record in the CSV file, the first record after the header is 1
+     * @param column the header of the column, null if the warning is not about a column
+     */
+    public void addWarning(String key, String value, long row, String column) {
+        add(warnings, key, value, row, column);
+    }
+
+    /**
+     * Each kind of error with the value of its most recent occurrence.
+     *
+     * @return Map<String, String>
+     */
     public Map<String, String> getErrors() {
-        return Collections.unmodifiableMap(errors);
+        return latest(errors);
     }
 
     public Map<String, String> getWarnings() {
-        return Collections.unmodifiableMap(warnings);
+        return latest(warnings);
+    }
+
+    /**
+     * The number of times each kind of error occurred.
+     *
+     * @return Map<String, Long>
+     */
+    public Map<String, Long> getErrorCounts() {
+        return counts(errors);
+    }
+
+    public Map<String, Long> getWarningCounts() {
+        return counts(warnings);
+    }
+
+    /**
+     * The most recent occurrences of the error, oldest first.
+     *
+     * @param key
+     * @return List<Detail>
+     */
+    public List<Detail> getErrorDetails(String key) {
+        Category category = errors.get(key);
+        return category == null ? Collections.emptyList() : category.details();
+    }
+
+    public List<Detail> getWarningDetails(String key) {
+        Category category = warnings.get(key);
+        return category == null ? Collections.emptyList() : category.details();
     }
 
     public void clear(){
         errors.clear();
         warnings.clear();
     }
+
+    private void add(Map<String, Category> categories, String key, String value, long row, String column) {
+        Category category = categories.get(key);
+        if (category == null) {
+            category = categories.computeIfAbsent(key, k -> new Category(maxDetails));
+        }
+        category.add(new Detail(value, row, column));
+    }
+
+    private static Map<String, String> latest(Map<String, Category> categories) {
+        Map<String, String> latest = new HashMap<>();
+        for (Map.Entry<String, Category> entry : categories.entrySet()) {
+            Detail detail = entry.getValue().latest();
+            latest.put(entry.getKey(), detail == null ? null : detail.getValue());
+        }
+        return Collections.unmodifiableMap(latest);
+    }
+
+    private static Map<String, Long> counts(Map<String, Category> categories) {
+        Map<String, Long> counts = new HashMap<>();
+        for (Map.Entry<String, Category> entry : categories.entrySet()) {
+            counts.put(entry.getKey(), entry.getValue().count());
+        }
+        return Collections.unmodifiableMap(counts);
+    }
+
+    /**
+     * One occurrence of an error or warning.
+     */
+    public static class Detail {
+
+        private final String value;
+        private final long row;
+        private final String column;
+
+        Detail(String value, long row, String column) {
+            this.value = value;
+            this.row = row;
+            this.column = column;
+        }
+
+        public String getValue() {
+            return value;
+        }
+
+        /**
+         * @return long NO_ROW if the problem is not about a row of the CSV file
+         */
+        public long getRow() {
+            return row;
+        }
+
+        public String getColumn() {
+            return column;
+        }
+
+        @Override
+        public String toString() {
+            return (row == NO_ROW ? "" : "row " + row + " ") + (column == null ? "" : column + " ")
+                    + value;
+        }
+    }
+
+    /**
+     * Counts the occurrences of one kind of error or warning and keeps the
+     * last of them in a ring. The count also picks the slot in the ring, so
+     * adding is a single atomic increment and a write to the slot.
+     */
+    private static class Category {
+
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicReferenceArray<Detail> ring;
+
+        Category(int size) {
+            ring = new AtomicReferenceArray<>(size);
+        }
+
+        void add(Detail detail) {
+            long index = count.getAndIncrement();
+            ring.set((int) (index % ring.length()), detail);
+        }
+
+        long count() {
+            return count.get();
+        }
+
+        Detail latest() {
+            long last = count.get() - 1;
+            Detail detail = null;
+            // the slot may not be written yet by the thread which counted it
+            for (long index = last; detail == null && index >= 0 && index > last - ring.length(); index--) {
+                detail = ring.get((int) (index % ring.length()));
+            }
+            return detail;
+        }
+
+        List<Detail> details() {
+            long end = count.get();
+            List<Detail> details = new ArrayList<>();
+            for (long index = Math.max(0, end - ring.length()); index < end; index++) {
+                Detail detail = ring.get((int) (index % ring.length()));
+                if (detail != null) {
+                    details.add(detail);
+                }
+            }
+            return details;
+        }
+    }
 }
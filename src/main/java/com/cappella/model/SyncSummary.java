@@ -0,0 +1,47 @@
+package com.cappella.model;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Counts what happened to each task sent to Asana.
+ * Skipped tasks already matched Asana so no calls were made for them.
+ */
+public class SyncSummary {
+
+    private final AtomicInteger inserted = new AtomicInteger();
+    private final AtomicInteger updated = new AtomicInteger();
+    private final AtomicInteger skipped = new AtomicInteger();
+
+    public void addInserted() {
+        inserted.incrementAndGet();
+    }
+
+    public int getInserted() {
+        return inserted.get();
+    }
+
+    public void addUpdated() {
+        updated.incrementAndGet();
+    }
+
+    public int getUpdated() {
+        return updated.get();
+    }
+
+    public void addSkipped() {
+        skipped.incrementAndGet();
+    }
+
+    public int getSkipped() {
+        return skipped.get();
+    }
+
+    public int getTotal() {
+        return getInserted() + getUpdated() + getSkipped();
+    }
+
+    @Override
+    public String toString() {
+        return "inserted=" + getInserted() + " updated=" + getUpdated() + " skipped=" + getSkipped();
+    }
+}
@@ -3,20 +3,24 @@ package com.cappella.model;
 import java.time.LocalDate;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Collections;
 import com.asana.models.Task;
 
 public class TaskData {
 
     private String name;
+    private String funderName;
     private LocalDate dueDate;
     // need to add description
     private String section;
+    // null until a subtask is added, most rows have none
     private List<SubTask> subTasks;
     private Task asanaData;
     private String asanaSection;
+    // the number of the record in the CSV file, the first record after the header is 1
+    private long rowNumber;
 
     public TaskData() {
-        subTasks = new ArrayList<>();
     }
 
     public void setName(String newName) {
@@ -27,6 +31,22 @@ public class TaskData {
         return name;
     }
 
+    public void setRowNumber(long newRowNumber) {
+        rowNumber = newRowNumber;
+    }
+
+    public long getRowNumber() {
+        return rowNumber;
+    }
+
+    public void setFunderName(String newFunderName) {
+        funderName = newFunderName;
+    }
+
+    public String getFunderName() {
+        return funderName;
+    }
+
     public void setDueDate(LocalDate newDate) {
         dueDate = newDate;
     }
@@ -52,11 +72,14 @@ public class TaskData {
     }
 
     public void addSubTask(SubTask subTask) {
+        if (subTasks == null) {
+            subTasks = new ArrayList<>(1);
+        }
         subTasks.add(subTask);
     }
 
     public List<SubTask> getSubTasks() {
-        return subTasks;
+        return subTasks == null ? Collections.emptyList() : subTasks;
     }
 
     public void setAsanaData(Task data) {
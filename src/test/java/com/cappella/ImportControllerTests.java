@@ -0,0 +1,155 @@
+package com.cappella;
+
+import com.cappella.csv.CsvClient;
+import com.cappella.imports.ImportJob;
+import com.cappella.imports.ImportService;
+import java.nio.file.NoSuchFileException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.mock.web.MockAsyncContext;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.multipart;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@WebMvcTest(ImportController.class)
+@Import(CsvClient.class)
+class ImportControllerTests {
+
+    @Autowired
+    private MockMvc mvc;
+    @MockBean
+    private ImportService imports;
+
+    @Test
+    void testImportReturnsJobAtOnce() throws Exception {
+        ImportJob job = new ImportJob("grants.csv");
+        Mockito.when(imports.submit(ArgumentMatchers.any())).thenReturn(job);
+        MockMultipartFile file = new MockMultipartFile("file", "grants.csv", "text/csv",
+                "Opportunity name\ngrant 1\n".getBytes());
+        mvc.perform(multipart("/imports").file(file))
+                .andExpect(status().isAccepted())
+                .andExpect(header().string("Location", "/imports/" + job.getId()))
+                .andExpect(jsonPath("$.id").value(job.getId()))
+                .andExpect(jsonPath("$.state").value("QUEUED"));
+    }
+
+    @Test
+    void testImportRejectsNonCsv() throws Exception {
+        MockMultipartFile file = new MockMultipartFile("file", "grants.txt", "text/plain",
+                "Opportunity name\ngrant 1\n".getBytes());
+        mvc.perform(multipart("/imports").file(file))
+                .andExpect(status().isUnsupportedMediaType());
+        Mockito.verifyNoInteractions(imports);
+    }
+
+    @Test
+    void testImportForTenant() throws Exception {
+        ImportJob job = new ImportJob("acme", "grants.csv");
+        Mockito.when(imports.hasTenant("acme")).thenReturn(true);
+        Mockito.when(imports.submit(ArgumentMatchers.eq("acme"), ArgumentMatchers.any())).thenReturn(job);
+        MockMultipartFile file = new MockMultipartFile("file", "grants.csv", "text/csv",
+                "Opportunity name\ngrant 1\n".getBytes());
+        mvc.perform(multipart("/imports").file(file).param("tenant", "acme"))
+                .andExpect(status().isAccepted())
+                .andExpect(jsonPath("$.tenant").value("acme"));
+        mvc.perform(multipart("/imports").file(file).param("tenant", "unknown"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void testImportRejectedWhenQueueFull() throws Exception {
+        Mockito.when(imports.submit(ArgumentMatchers.any())).thenThrow(new RejectedExecutionException());
+        MockMultipartFile file = new MockMultipartFile("file", "grants.csv", "text/csv",
+                "Opportunity name\ngrant 1\n".getBytes());
+        mvc.perform(multipart("/imports").file(file))
+                .andExpect(status().isTooManyRequests());
+    }
+
+    @Test
+    void testImportStream() throws Exception {
+        ImportJob finished = new ImportJob("grants.csv");
+        ImportJob job = Mockito.mock(ImportJob.class);
+        Mockito.when(job.getId()).thenReturn(finished.getId());
+        Mockito.when(job.whenDone()).thenReturn(CompletableFuture.completedFuture(finished));
+        Mockito.when(imports.submit(ArgumentMatchers.eq(ImportService.DEFAULT_TENANT),
+                ArgumentMatchers.eq("grants.csv"), ArgumentMatchers.any())).thenReturn(job);
+        MvcResult result = mvc.perform(post("/imports/stream").param("fileName", "grants.csv")
+                        .contentType("text/csv").content("Opportunity name\ngrant 1\n"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        mvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(header().string("Location", "/imports/" + job.getId()))
+                .andExpect(jsonPath("$.fileName").value("grants.csv"));
+        mvc.perform(post("/imports/stream").contentType("text/plain").content("Opportunity name\n"))
+                .andExpect(status().isUnsupportedMediaType());
+    }
+
+    @Test
+    void testImportStreamTimesOut() throws Exception {
+        ImportJob job = new ImportJob("grants.csv");
+        Mockito.when(imports.submit(ArgumentMatchers.eq(ImportService.DEFAULT_TENANT),
+                ArgumentMatchers.eq("grants.csv"), ArgumentMatchers.any())).thenReturn(job);
+        MvcResult result = mvc.perform(post("/imports/stream").param("fileName", "grants.csv")
+                        .contentType("text/csv").content("Opportunity name\ngrant 1\n"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        MockAsyncContext context = (MockAsyncContext) result.getRequest().getAsyncContext();
+        for (AsyncListener listener : context.getListeners()) {
+            listener.onTimeout(new AsyncEvent(context));
+        }
+        mvc.perform(asyncDispatch(result))
+                .andExpect(status().isServiceUnavailable())
+                .andExpect(header().string("Location", "/imports/" + job.getId()))
+                .andExpect(jsonPath("$.state").value("QUEUED"));
+    }
+
+    @Test
+    void testImportLocal() throws Exception {
+        ImportJob job = new ImportJob("grants.csv");
+        Mockito.when(imports.submitLocal(ImportService.DEFAULT_TENANT, "grants.csv")).thenReturn(job);
+        Mockito.when(imports.submitLocal(ImportService.DEFAULT_TENANT, "missing.csv"))
+                .thenThrow(new NoSuchFileException("missing.csv"));
+        Mockito.when(imports.submitLocal(ImportService.DEFAULT_TENANT, "../secret.csv"))
+                .thenThrow(new IllegalArgumentException());
+        mvc.perform(post("/imports/local").param("path", "grants.csv"))
+                .andExpect(status().isAccepted())
+                .andExpect(jsonPath("$.id").value(job.getId()));
+        mvc.perform(post("/imports/local").param("path", "missing.csv"))
+                .andExpect(status().isNotFound());
+        mvc.perform(post("/imports/local").param("path", "../secret.csv"))
+                .andExpect(status().isForbidden());
+    }
+
+    @Test
+    void testImportStatus() throws Exception {
+        ImportJob job = new ImportJob("grants.csv");
+        Mockito.when(imports.getJob(job.getId())).thenReturn(job);
+        mvc.perform(get("/imports/" + job.getId()))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.fileName").value("grants.csv"))
+                .andExpect(jsonPath("$.rowsParsed").value(0));
+        mvc.perform(get("/imports/unknown"))
+                .andExpect(status().isNotFound());
+    }
+}
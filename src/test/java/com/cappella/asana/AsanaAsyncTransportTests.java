@@ -0,0 +1,115 @@
+package com.cappella.asana;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.asana.models.ResultBodyCollection;
+import com.asana.models.Task;
+import com.asana.models.Workspace;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Testing the {@link AsanaAsyncTransport} against a local HTTP server
+ * instead of Asana.
+ */
+class AsanaAsyncTransportTests {
+
+    private HttpServer server;
+    private AsanaAsyncTransport transport;
+    private volatile String lastBody;
+
+    @BeforeEach
+    void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/workspaces", exchange -> {
+            // two pages of one workspace each
+            if (exchange.getRequestURI().getQuery().contains("offset=next")) {
+                respond(exchange, 200, "{\"data\":[{\"gid\":\"2\",\"name\":\"second\"}],\"next_page\":null}");
+            } else {
+                respond(exchange, 200, "{\"data\":[{\"gid\":\"1\",\"name\":\"first\"}],"
+                        + "\"next_page\":{\"offset\":\"next\"}}");
+            }
+        });
+        server.createContext("/projects/1/tasks", exchange -> respond(exchange, 200,
+                "{\"data\":[{\"gid\":\"10\",\"name\":\"grant\",\"due_on\":\"2022-09-01\",\"num_subtasks\":2,"
+                        + "\"memberships\":[{\"project\":{\"gid\":\"1\"},\"section\":{\"gid\":\"5\",\"name\":\"Submitted\"}}]}]}"));
+        server.createContext("/projects/2/sections", exchange -> respond(exchange, 404,
+                "{\"errors\":[{\"message\":\"project: Unknown object: 2\"}]}"));
+        server.createContext("/batch", exchange -> {
+            lastBody = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+            respond(exchange, 200, "{\"data\":[{\"status_code\":201,\"body\":{\"data\":{\"gid\":\"11\"}}}]}");
+        });
+        server.start();
+        transport = new AsanaAsyncTransport("http://127.0.0.1:" + server.getAddress().getPort(), "token",
+                new AsanaRateLimiter(6000, 1), false);
+    }
+
+    @AfterEach
+    void stop() {
+        server.stop(0);
+    }
+
+    @Test
+    void testGetReadsEveryPage() {
+        List<Workspace> workspaces = transport.getWorkspaces(Collections.singletonList("name")).join();
+        Assertions.assertEquals(2, workspaces.size());
+        Assertions.assertEquals("first", workspaces.get(0).name);
+        Assertions.assertEquals("2", workspaces.get(1).gid);
+    }
+
+    @Test
+    void testTaskPage() {
+        ResultBodyCollection<Task> page = transport.getTasksForProject("1", Arrays.asList("name", "due_on"), 100,
+                null).join();
+        Assertions.assertNull(page.nextPage);
+        Task task = page.data.get(0);
+        Assertions.assertEquals("grant", task.name);
+        Assertions.assertEquals("2022-09-01", task.dueOn.toString());
+        Assertions.assertEquals(2, task.numSubtasks);
+        Assertions.assertEquals("Submitted", task.memberships.iterator().next().section.name);
+    }
+
+    @Test
+    void testErrorStatus() {
+        CompletionException e = Assertions.assertThrows(CompletionException.class,
+                () -> transport.getSectionsForProject("2", null).join());
+        Assertions.assertTrue(e.getCause() instanceof AsanaHttpException);
+        Assertions.assertTrue(((AsanaHttpException) e.getCause()).isNotFound());
+    }
+
+    @Test
+    void testBatch() {
+        Map<String, Object> action = Map.of("method", "POST", "relative_path", "/tasks",
+                "data", Map.of("name", "grant"));
+        JsonArray results = transport.batch(Collections.singletonList(action)).join();
+        Assertions.assertEquals(201, results.get(0).getAsJsonObject().get("status_code").getAsInt());
+        JsonObject sent = JsonParser.parseString(lastBody).getAsJsonObject();
+        Assertions.assertEquals("/tasks", sent.getAsJsonObject("data").getAsJsonArray("actions").get(0)
+                .getAsJsonObject().get("relative_path").getAsString());
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
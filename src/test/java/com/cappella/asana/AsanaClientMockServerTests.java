@@ -0,0 +1,291 @@
+package com.cappella.asana;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import com.asana.models.Project;
+import com.asana.models.Workspace;
+import com.cappella.csv.CsvClient;
+import com.cappella.model.Problems;
+import com.cappella.model.SyncSummary;
+import com.cappella.model.TaskData;
+import com.google.gson.JsonObject;
+
+/**
+ * Testing the {@link AsanaClient} end to end against the
+ * {@link MockAsanaServer} instead of Asana, so it runs without a token.
+ */
+@SpringBootTest(properties = {
+        "asana.token=mock",
+        "asana.transport=http",
+        "asana.rate.limit.per.minute=60000",
+        "asana.cache.ttl.seconds=0",
+        "asana.journal.checkpoint.rows=3"})
+class AsanaClientMockServerTests {
+
+    private static final String WORKSPACE = "Mock Workspace";
+    private static final MockAsanaServer SERVER = startServer();
+    private static final String WORKSPACE_GID = SERVER.addWorkspace(WORKSPACE);
+    private static final AtomicInteger PROJECTS = new AtomicInteger();
+    private static final Path JOURNALS = createTempDirectory();
+
+    @Autowired
+    private AsanaClient asana;
+    @Autowired
+    private CsvClient csv;
+    private String projectGid;
+
+    @DynamicPropertySource
+    static void asanaBaseUrl(DynamicPropertyRegistry registry) {
+        registry.add("asana.base.url", SERVER::getBaseUrl);
+        registry.add("asana.journal.directory", JOURNALS::toString);
+    }
+
+    @AfterEach
+    void reset() {
+        SERVER.setLatencyMillis(0);
+        SERVER.setMaxPageSize(100);
+        SERVER.setRateLimitEvery(0, 1);
+        SERVER.setCreatesAllowed(-1);
+        SERVER.setFailingRoute(null);
+    }
+
+    @AfterAll
+    static void stop() {
+        SERVER.close();
+    }
+
+    @Test
+    void testImportCsv() throws IOException {
+        String projectName = newProject();
+        Problems problems = new Problems();
+        SyncSummary summary = importCsv(projectName, problems);
+        Assertions.assertTrue(problems.getErrors().isEmpty(), problems.getErrors().toString());
+        Assertions.assertTrue(summary.getInserted() > 0);
+        List<JsonObject> tasks = SERVER.getTasks(projectGid);
+        Assertions.assertEquals(summary.getInserted(), tasks.size());
+        // every task of simple.csv has a Status, so is in a section
+        for (JsonObject task : tasks) {
+            Assertions.assertTrue(task.getAsJsonArray("memberships").get(0).getAsJsonObject().has("section"),
+                    task.toString());
+        }
+    }
+
+    @Test
+    void testEachSectionCreatedOnce() throws IOException {
+        String projectName = newProject();
+        // the workers reach a new section while its create call is still in flight
+        SERVER.setLatencyMillis(50);
+        int creates = SERVER.getCalls("POST /projects/{gid}/sections");
+        Problems problems = new Problems();
+        importCsv(projectName, problems);
+        Assertions.assertTrue(problems.getErrors().isEmpty(), problems.getErrors().toString());
+        Set<String> sections = new HashSet<>();
+        for (JsonObject task : SERVER.getTasks(projectGid)) {
+            sections.add(task.getAsJsonArray("memberships").get(0).getAsJsonObject()
+                    .getAsJsonObject("section").get("gid").getAsString());
+        }
+        Assertions.assertEquals(sections.size(), SERVER.getCalls("POST /projects/{gid}/sections") - creates);
+    }
+
+    @Test
+    void testReimportChangesNothing() throws IOException {
+        String projectName = newProject();
+        Problems problems = new Problems();
+        SyncSummary first = importCsv(projectName, problems);
+        // the project is read a few tasks a page
+        SERVER.setMaxPageSize(3);
+        int calls = SERVER.getCalls();
+        SyncSummary second = importCsv(projectName, problems);
+        Assertions.assertTrue(problems.getErrors().isEmpty(), problems.getErrors().toString());
+        Assertions.assertEquals(0, second.getInserted());
+        Assertions.assertEquals(0, second.getUpdated());
+        Assertions.assertEquals(first.getInserted(), second.getSkipped());
+        Assertions.assertEquals(first.getInserted(), SERVER.getTasks(projectGid).size());
+        // reading the pages of tasks and the subtasks, nothing is written
+        Assertions.assertTrue(SERVER.getCalls() - calls >= first.getInserted() / 3);
+    }
+
+    @Test
+    void testSubTasksReadPastFirstPage() throws IOException {
+        String projectName = newProject();
+        Problems problems = new Problems();
+        importCsv(projectName, problems);
+        String taskGid = SERVER.getTasks(projectGid).get(0).get("gid").getAsString();
+        int subtasks = SERVER.getSubtasks(taskGid).size();
+        Assertions.assertTrue(subtasks > 0);
+        // the subtask of the CSV is now on the second page
+        SERVER.addSubtask(taskGid, "made in Asana");
+        SERVER.setMaxPageSize(1);
+        SyncSummary second = importCsv(projectName, problems);
+        Assertions.assertTrue(problems.getErrors().isEmpty(), problems.getErrors().toString());
+        Assertions.assertEquals(0, second.getInserted());
+        Assertions.assertEquals(subtasks + 1, SERVER.getSubtasks(taskGid).size());
+    }
+
+    @Test
+    void testUpdatesCountedOnceAccepted() throws IOException {
+        String projectName = newProject();
+        Problems problems = new Problems();
+        SyncSummary first = importCsv(projectName, problems);
+        int dated = 0;
+        for (JsonObject task : SERVER.getTasks(projectGid)) {
+            if (!task.get("due_on").isJsonNull()) {
+                SERVER.setTaskDueOn(task.get("gid").getAsString(), "2000-01-01");
+                dated++;
+            }
+        }
+        Assertions.assertTrue(dated > 0);
+        // Asana rejects every change of a due date
+        SERVER.setFailingRoute("PUT /tasks/{gid}");
+        Problems failed = new Problems();
+        SyncSummary rejected = importCsv(projectName, failed);
+        Assertions.assertTrue(failed.getErrors().containsKey(Problems.ERROR_FROM_ASANA));
+        Assertions.assertEquals(0, rejected.getUpdated());
+        Assertions.assertEquals(first.getInserted() - dated, rejected.getTotal());
+
+        SERVER.setFailingRoute(null);
+        SyncSummary accepted = importCsv(projectName, problems);
+        Assertions.assertTrue(problems.getErrors().isEmpty(), problems.getErrors().toString());
+        Assertions.assertEquals(dated, accepted.getUpdated());
+        Assertions.assertEquals(first.getInserted(), accepted.getTotal());
+    }
+
+    @Test
+    void testRateLimitedCallsAreRetried() throws IOException {
+        String projectName = newProject();
+        SERVER.setRateLimitEvery(7, 1);
+        Problems problems = new Problems();
+        SyncSummary summary = importCsv(projectName, problems);
+        Assertions.assertTrue(problems.getErrors().isEmpty(), problems.getErrors().toString());
+        Assertions.assertTrue(SERVER.getRateLimited() > 0);
+        Assertions.assertEquals(summary.getInserted(), SERVER.getTasks(projectGid).size());
+    }
+
+    @Test
+    void testResumeAfterFailure() throws IOException {
+        String projectName = newProject();
+        // Asana fails after the first few tasks have been inserted
+        SERVER.setCreatesAllowed(5);
+        Problems failed = new Problems();
+        SyncSummary stopped = importCsv(projectName, "simple.csv v1", failed);
+        Assertions.assertTrue(failed.getErrors().containsKey(Problems.ERROR_FROM_ASANA));
+        Assertions.assertEquals(5, SERVER.getTasks(projectGid).size());
+        // the inserts Asana rejected are not counted
+        Assertions.assertEquals(5, stopped.getInserted());
+        Assertions.assertTrue(Files.exists(JOURNALS.resolve(projectGid + ".journal")));
+
+        SERVER.setCreatesAllowed(-1);
+        Problems problems = new Problems();
+        SyncSummary resumed = importCsv(projectName, "simple.csv v1", problems);
+        Assertions.assertTrue(problems.getErrors().isEmpty(), problems.getErrors().toString());
+        Assertions.assertTrue(problems.getWarnings().containsKey(Problems.WARNING_IMPORT_RESUMED));
+        // the rows up to the checkpoint were skipped and nothing was inserted twice
+        Assertions.assertTrue(resumed.getSkipped() >= 3);
+        Assertions.assertEquals(10, resumed.getTotal());
+        Assertions.assertEquals(10, SERVER.getTasks(projectGid).size());
+        Assertions.assertFalse(Files.exists(JOURNALS.resolve(projectGid + ".journal")));
+    }
+
+    @Test
+    void testProjectTasksNotReadInsertsNothing() throws IOException {
+        String projectName = newProject();
+        Problems problems = new Problems();
+        SyncSummary first = importCsv(projectName, problems);
+        int creates = SERVER.getCalls("POST /tasks");
+        // without the tasks in the project every row would look new
+        SERVER.setFailingRoute("GET /projects/{gid}/tasks");
+        Problems failed = new Problems();
+        SyncSummary second = importCsv(projectName, failed);
+        Assertions.assertTrue(failed.getErrors().containsKey(Problems.ERROR_FROM_ASANA));
+        Assertions.assertEquals(0, second.getInserted());
+        Assertions.assertEquals(creates, SERVER.getCalls("POST /tasks"));
+        Assertions.assertEquals(first.getInserted(), SERVER.getTasks(projectGid).size());
+    }
+
+    @Test
+    void testTaskIndexedOnceItsCallsAreAnswered() throws IOException {
+        newProject();
+        Workspace workspace = new Workspace();
+        workspace.gid = WORKSPACE_GID;
+        Project project = new Project();
+        project.gid = projectGid;
+        Problems problems = new Problems();
+        List<TaskData> tasks;
+        try (InputStream is = getClass().getClassLoader().getResourceAsStream("simple.csv")) {
+            tasks = csv.parseGrantCsvToTasks(is, problems);
+        }
+        ExecutorService batches = Executors.newFixedThreadPool(2);
+        try (GrantTaskIndex index = GrantTaskIndex.open(JOURNALS.resolve(projectGid + ".idx"))) {
+            SyncContext sync = asana.prepareSync(workspace, project, true, index, null, batches,
+                    Runnable::run, new SyncSummary(), problems);
+            asana.upsertTask(sync, tasks.get(0));
+            sync.batch.flush();
+            // in the index before finishSync, so a crash from here on does not lose it
+            Assertions.assertEquals(tasks.get(0).getAsanaData().gid, index.get(tasks.get(0)).getGid());
+            Assertions.assertEquals(1, sync.summary.getInserted());
+        } finally {
+            batches.shutdown();
+        }
+    }
+
+    @Test
+    void testProjectNotInWorkspace() throws IOException {
+        Problems problems = new Problems();
+        importCsv("not a project", problems);
+        Assertions.assertTrue(problems.getErrors().containsKey(Problems.ERROR_PROJECT_NOT_IN_WORKSPACE));
+    }
+
+    private SyncSummary importCsv(String projectName, Problems problems) throws IOException {
+        return importCsv(projectName, null, problems);
+    }
+
+    private SyncSummary importCsv(String projectName, String importKey, Problems problems) throws IOException {
+        try (InputStream is = getClass().getClassLoader().getResourceAsStream("simple.csv");
+             Stream<TaskData> tasks = csv.streamGrantCsvToTasks(is, problems)) {
+            return asana.updateOrInsertGrantTasks(WORKSPACE, projectName, tasks, importKey, problems,
+                    new SyncSummary());
+        }
+    }
+
+    private String newProject() {
+        String projectName = "project " + PROJECTS.incrementAndGet();
+        projectGid = SERVER.addProject(WORKSPACE_GID, projectName);
+        return projectName;
+    }
+
+    private static Path createTempDirectory() {
+        try {
+            return Files.createTempDirectory("journals");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static MockAsanaServer startServer() {
+        try {
+            return new MockAsanaServer();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
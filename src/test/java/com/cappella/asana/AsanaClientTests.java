@@ -2,6 +2,7 @@ package com.cappella.asana;
 
 import com.cappella.model.Problems;
 import com.cappella.model.SubTask;
+import com.cappella.model.SyncSummary;
 import com.cappella.model.TaskData;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Assertions;
@@ -61,6 +62,67 @@ class AsanaClientTests {
         this.asana.deleteTasks(tasks);
     }
 
+    @Test
+    void testUnchangedTasksSkipped() {
+        List<TaskData> tasks = getInitialTasks();
+        // insert
+        SyncSummary inserted = this.asana.updateOrInsertGrantTasks(workspaceName, projectName, tasks, problems);
+        // import the same tasks again, nothing differs so nothing should be sent
+        SyncSummary skipped = this.asana.updateOrInsertGrantTasks(workspaceName, projectName, tasks, problems);
+        Assertions.assertTrue(problems.getErrors().isEmpty());
+        Assertions.assertEquals(inserted.getInserted(), skipped.getSkipped());
+        Assertions.assertEquals(0, skipped.getInserted());
+        Assertions.assertEquals(0, skipped.getUpdated());
+        verifyTasks(tasks);
+        // delete/cleanup the test tasks added to Asana 
+        this.asana.deleteTasks(tasks);
+    }
+
+    @Test
+    void testInsertStreamedTasks() {
+        List<TaskData> tasks = getInitialTasks();
+        // insert while the tasks are still being produced
+        SyncSummary summary = this.asana.updateOrInsertGrantTasks(workspaceName, projectName, tasks.stream(),
+                problems, new SyncSummary());
+        verifyTasks(tasks);
+        Assertions.assertTrue(problems.getErrors().isEmpty());
+        Assertions.assertTrue(problems.getWarnings().containsKey(Problems.WARNING_TASKDATA_MISSING_NAME));
+        Assertions.assertEquals(tasks.size() - 1, summary.getTotal());
+        // delete/cleanup the test tasks added to Asana 
+        this.asana.deleteTasks(tasks);
+    }
+
+    @Test
+    void testStreamedTasksBadProject() {
+        this.asana.updateOrInsertGrantTasks(workspaceName, "I LIKE MONKEYS", getInitialTasks().stream(), problems,
+                new SyncSummary());
+        Assertions.assertTrue(problems.getErrors().containsKey(Problems.ERROR_PROJECT_NOT_IN_WORKSPACE));
+    }
+
+    @Test
+    void testSubTaskChangeUpdatesTask() {
+        List<TaskData> tasks = getInitialTasks();
+        // insert
+        this.asana.updateOrInsertGrantTasks(workspaceName, projectName, tasks, problems);
+        // only the subtask due dates differ so only the tasks with dated subtasks are updated
+        int datedSubTasks = 0;
+        for (TaskData temp : tasks) {
+            for (SubTask subTask : temp.getSubTasks()) {
+                if (temp.getName() != null && subTask.getDueDate() != null) {
+                    subTask.setDueDate(subTask.getDueDate().plusDays(4L));
+                    datedSubTasks++;
+                }
+            }
+        }
+        SyncSummary summary = this.asana.updateOrInsertGrantTasks(workspaceName, projectName, tasks, problems);
+        Assertions.assertTrue(problems.getErrors().isEmpty());
+        Assertions.assertEquals(0, summary.getInserted());
+        Assertions.assertEquals(datedSubTasks, summary.getUpdated());
+        verifyTasks(tasks);
+        // delete/cleanup the test tasks added to Asana 
+        this.asana.deleteTasks(tasks);
+    }
+
     @Test
     void testBadToken() {
         // don't use this.asana because want to test an invalid token
@@ -144,7 +206,11 @@ class AsanaClientTests {
                 temp.setDueDate(temp.getDueDate().plusDays(4L));
             }
             temp.setSection("Declined");
-            // TODO subtasks
+            for (SubTask subTask : temp.getSubTasks()) {
+                if (subTask.getDueDate() != null) {
+                    subTask.setDueDate(subTask.getDueDate().plusDays(4L));
+                }
+            }
         }
     }
 
@@ -0,0 +1,176 @@
+package com.cappella.asana;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import com.cappella.csv.CsvClient;
+import com.cappella.csv.GrantFiles;
+import com.cappella.metrics.ImportMetrics;
+import com.cappella.model.Problems;
+import com.cappella.model.SyncSummary;
+import com.cappella.model.TaskData;
+
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.config.MeterFilter;
+import io.micrometer.core.instrument.distribution.DistributionStatisticConfig;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Load test of a whole import against the {@link MockAsanaServer}, reporting
+ * the tasks synced a second and the p99 latency of each kind of Asana call,
+ * for inserting every task into an empty project and for re-importing the
+ * same file.
+ * Only run with the load-test profile: mvn -P load-test test
+ *
+ * The files are written by {@link GrantFiles}.
+ * System properties:
+ * load.rows              comma separated file sizes, 1000,10000,100000 by default
+ * load.latency.millis    latency of every request to the mock, 20 by default
+ * load.rate.limit.every  answer every nth call with 429, 0 (never) by default
+ * load.transport         asana.transport, http by default
+ * load.concurrency       asana.upsert.concurrency, 16 by default
+ */
+@Tag("load")
+@SpringBootTest(properties = {
+        "asana.token=mock",
+        "asana.rate.limit.per.minute=1000000",
+        "asana.cache.ttl.seconds=0"})
+class AsanaLoadTests {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AsanaLoadTests.class);
+
+    private static final String WORKSPACE = "Load Workspace";
+    private static final double P99 = 0.99;
+    private static final MockAsanaServer SERVER = startServer();
+    private static final String WORKSPACE_GID = SERVER.addWorkspace(WORKSPACE);
+    private static final AtomicInteger PROJECTS = new AtomicInteger();
+
+    @Autowired
+    private AsanaClient asana;
+    @Autowired
+    private CsvClient csv;
+    @Autowired
+    private ImportMetrics metrics;
+    @TempDir
+    Path tempDir;
+
+    @DynamicPropertySource
+    static void asanaProperties(DynamicPropertyRegistry registry) {
+        registry.add("asana.base.url", SERVER::getBaseUrl);
+        registry.add("asana.transport", () -> System.getProperty("load.transport", AsanaClient.TRANSPORT_HTTP));
+        registry.add("asana.upsert.concurrency", () -> System.getProperty("load.concurrency", "16"));
+    }
+
+    static Stream<Integer> rows() {
+        return Stream.of(System.getProperty("load.rows", "1000,10000,100000").split(","))
+                .map(String::trim)
+                .map(Integer::valueOf);
+    }
+
+    @AfterEach
+    void restoreMetrics() {
+        asana.setMetrics(metrics);
+        csv.setMetrics(metrics);
+    }
+
+    @AfterAll
+    static void stop() {
+        SERVER.close();
+    }
+
+    @ParameterizedTest
+    @MethodSource("rows")
+    void testImport(int rows) throws IOException {
+        SERVER.setLatencyMillis(Long.getLong("load.latency.millis", 20));
+        SERVER.setRateLimitEvery(Integer.getInteger("load.rate.limit.every", 0), 1);
+        Path file = GrantFiles.write(tempDir.resolve("grants-" + rows + ".csv"), rows);
+        String projectName = "load " + rows + " " + PROJECTS.incrementAndGet();
+        String projectGid = SERVER.addProject(WORKSPACE_GID, projectName);
+
+        SyncSummary inserted = run("insert", rows, file, projectName);
+        Assertions.assertEquals(inserted.getInserted(), SERVER.getTasks(projectGid).size());
+        SyncSummary reimported = run("re-import", rows, file, projectName);
+        Assertions.assertEquals(0, reimported.getInserted());
+    }
+
+    /**
+     * Imports the file with fresh meters and logs the throughput and the
+     * p99 latency of each operation.
+     */
+    private SyncSummary run(String name, int rows, Path file, String projectName) throws IOException {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        registry.config().meterFilter(new MeterFilter() {
+            @Override
+            public DistributionStatisticConfig configure(Meter.Id id, DistributionStatisticConfig config) {
+                // the percentiles cover the whole run rather than the last couple of minutes
+                return DistributionStatisticConfig.builder()
+                        .percentiles(P99)
+                        .expiry(Duration.ofHours(1))
+                        .bufferLength(1)
+                        .build()
+                        .merge(config);
+            }
+        });
+        ImportMetrics runMetrics = new ImportMetrics(registry);
+        asana.setMetrics(runMetrics);
+        csv.setMetrics(runMetrics);
+
+        Problems problems = new Problems();
+        int requests = SERVER.getRequests();
+        int rateLimited = SERVER.getRateLimited();
+        long start = System.nanoTime();
+        SyncSummary summary;
+        try (InputStream is = Files.newInputStream(file);
+             Stream<TaskData> tasks = csv.streamGrantCsvToTasks(is, problems)) {
+            summary = asana.updateOrInsertGrantTasks(WORKSPACE, projectName, tasks, problems, new SyncSummary());
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        Assertions.assertFalse(problems.getErrors().containsKey(Problems.ERROR_FROM_ASANA),
+                problems.getErrors().toString());
+
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("%s %d rows: %d tasks in %.1f s, %.0f tasks/s, %d requests, %d rate limited",
+                name, rows, summary.getTotal(), seconds, summary.getTotal() / seconds,
+                SERVER.getRequests() - requests, SERVER.getRateLimited() - rateLimited));
+        for (Timer timer : registry.find("cappella.asana.calls").timers()) {
+            double p99 = 0;
+            for (ValueAtPercentile percentile : timer.takeSnapshot().percentileValues()) {
+                p99 = percentile.value(TimeUnit.MILLISECONDS);
+            }
+            report.append(String.format("%n  %-24s %-8s %8d calls  p99 %8.1f ms",
+                    timer.getId().getTag("operation"), timer.getId().getTag("outcome"), timer.count(), p99));
+        }
+        LOGGER.info(report.toString());
+        return summary;
+    }
+
+    private static MockAsanaServer startServer() {
+        try {
+            return new MockAsanaServer();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.cappella.asana;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.cappella.metrics.ImportMetrics;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Testing the {@link AsanaRateLimiter} budget without talking to Asana.
+ */
+class AsanaRateLimiterTests {
+
+    @Test
+    void testBurstDoesNotWait() {
+        AsanaRateLimiter limiter = new AsanaRateLimiter(600, 0);
+        // 600 per minute allows a burst of 10
+        for (int i = 0; i < 10; i++) {
+            Assertions.assertEquals(0, limiter.reserve(1));
+        }
+        Assertions.assertTrue(limiter.reserve(1) > 0);
+    }
+
+    @Test
+    void testRateLimitedHalvesRateAndWaitsRetryAfter() {
+        AsanaRateLimiter limiter = new AsanaRateLimiter(600, 0);
+        limiter.onRateLimited(2);
+        Assertions.assertEquals(5.0, limiter.getRequestsPerSecond(), 0.001);
+        long wait = limiter.reserve(1);
+        Assertions.assertTrue(wait > TimeUnit.SECONDS.toNanos(1));
+        Assertions.assertTrue(wait <= TimeUnit.SECONDS.toNanos(2));
+    }
+
+    @Test
+    void testConcurrentRateLimitsHalveRateOnce() throws InterruptedException {
+        AsanaRateLimiter limiter = new AsanaRateLimiter(600, 0);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        // the calls in flight all get a 429 for the same window
+        for (int i = 0; i < 8; i++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                limiter.onRateLimited(2);
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assertions.assertEquals(5.0, limiter.getRequestsPerSecond(), 0.001);
+    }
+
+    @Test
+    void testSuccessRecoversRate() {
+        AsanaRateLimiter limiter = new AsanaRateLimiter(600, 0);
+        limiter.onRateLimited(1);
+        for (int i = 0; i < 100; i++) {
+            limiter.onSuccess();
+        }
+        Assertions.assertEquals(10.0, limiter.getRequestsPerSecond(), 0.001);
+    }
+
+    @Test
+    void testBackoffGrowsAndIsCapped() {
+        AsanaRateLimiter limiter = new AsanaRateLimiter(600, 5);
+        for (int attempt = 0; attempt < 20; attempt++) {
+            long backoff = limiter.backoffMillis(attempt);
+            long ceiling = Math.min(30_000, 500L << Math.min(attempt, 16));
+            Assertions.assertTrue(backoff >= ceiling / 2 && backoff <= ceiling);
+        }
+    }
+
+    @Test
+    void testExecuteAsyncRetriesRateLimited() {
+        AsanaRateLimiter limiter = new AsanaRateLimiter(600, 2);
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        limiter.setMetrics(new ImportMetrics(registry));
+        AtomicInteger calls = new AtomicInteger();
+        long start = System.nanoTime();
+        CompletableFuture<String> result = limiter.executeAsync("test", 1, () -> calls.incrementAndGet() == 1
+                ? CompletableFuture.failedFuture(new AsanaHttpException(429, 1, "rate limited"))
+                : CompletableFuture.completedFuture("done"));
+        Assertions.assertEquals("done", result.join());
+        Assertions.assertEquals(2, calls.get());
+        Assertions.assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(900));
+        Assertions.assertEquals(1, registry.get("cappella.asana.calls").tag("operation", "test")
+                .tag("outcome", "error").timer().count());
+        Assertions.assertEquals(1, registry.get("cappella.asana.calls").tag("operation", "test")
+                .tag("outcome", "success").timer().count());
+        Assertions.assertEquals(1, registry.get("cappella.asana.retries").tag("operation", "test").counter().count());
+        Assertions.assertEquals(2, registry.get("cappella.asana.rate.limit.wait").timer().count());
+    }
+
+    @Test
+    void testExecuteAsyncDoesNotRetryClientErrors() {
+        AsanaRateLimiter limiter = new AsanaRateLimiter(600, 2);
+        AtomicInteger calls = new AtomicInteger();
+        CompletableFuture<String> result = limiter.executeAsync("test", 1, () -> {
+            calls.incrementAndGet();
+            return CompletableFuture.failedFuture(new AsanaHttpException(404, 0, "not found"));
+        });
+        CompletionException e = Assertions.assertThrows(CompletionException.class, result::join);
+        Assertions.assertTrue(((AsanaHttpException) e.getCause()).isNotFound());
+        Assertions.assertEquals(1, calls.get());
+    }
+}
@@ -0,0 +1,245 @@
+package com.cappella.asana;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import com.asana.models.Task;
+import com.cappella.csv.CsvClient;
+import com.cappella.model.Problems;
+import com.cappella.model.SyncSummary;
+import com.cappella.model.TaskData;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+/**
+ * Testing the {@link AsanaWebhookService} end to end, the
+ * {@link MockAsanaServer} creating the webhook against the running app and
+ * delivering the events to it.
+ */
+@SpringBootTest(webEnvironment = WebEnvironment.RANDOM_PORT, properties = {
+        "asana.token=mock",
+        "asana.transport=http",
+        "asana.rate.limit.per.minute=60000",
+        "asana.cache.ttl.seconds=0",
+        "asana.workspace.name=" + AsanaWebhookServiceTests.WORKSPACE,
+        "asana.project.name=" + AsanaWebhookServiceTests.PROJECT})
+class AsanaWebhookServiceTests {
+
+    static final String WORKSPACE = "Webhook Workspace";
+    static final String PROJECT = "webhook project";
+
+    private static final long TIMEOUT_MILLIS = 10_000;
+    private static final String TASKS_ROUTE = "GET /projects/{gid}/tasks";
+    private static final MockAsanaServer SERVER = startServer();
+    private static final String PROJECT_GID = SERVER.addProject(SERVER.addWorkspace(WORKSPACE), PROJECT);
+    private static final Path INDEXES = createTempDirectory();
+
+    @Autowired
+    private AsanaClient asana;
+    @Autowired
+    private AsanaWebhookService webhooks;
+    @Autowired
+    private CsvClient csv;
+    @LocalServerPort
+    private int port;
+
+    @DynamicPropertySource
+    static void asanaBaseUrl(DynamicPropertyRegistry registry) {
+        registry.add("asana.base.url", SERVER::getBaseUrl);
+        registry.add("asana.index.directory", INDEXES::toString);
+    }
+
+    @BeforeEach
+    void registerWebhook() {
+        if (SERVER.getWebhookCount() == 0) {
+            webhooks.register(getTargetUrl());
+            await(() -> asana.getFreshMirror(PROJECT_GID) != null);
+        }
+    }
+
+    @AfterAll
+    static void stop() {
+        SERVER.close();
+    }
+
+    @Test
+    void testImportReadsMirror() throws IOException {
+        Assertions.assertEquals(1, SERVER.getWebhookCount());
+        int listed = SERVER.getCalls(TASKS_ROUTE);
+        Problems problems = new Problems();
+        SyncSummary first = importCsv(problems);
+        SyncSummary second = importCsv(problems);
+        Assertions.assertTrue(problems.getErrors().isEmpty(), problems.getErrors().toString());
+        Assertions.assertEquals(0, second.getInserted());
+        Assertions.assertEquals(first.getTotal(), second.getTotal());
+        // neither import listed the tasks of the project
+        Assertions.assertEquals(listed, SERVER.getCalls(TASKS_ROUTE));
+        Assertions.assertEquals(SERVER.getTasks(PROJECT_GID).size(), asana.getFreshMirror(PROJECT_GID).size());
+    }
+
+    @Test
+    void testEventsAppliedToMirror() throws IOException, InterruptedException {
+        Problems problems = new Problems();
+        importCsv(problems);
+        List<JsonObject> tasks = SERVER.getTasks(PROJECT_GID);
+        String changedGid = tasks.get(0).get("gid").getAsString();
+        String deletedGid = tasks.get(1).get("gid").getAsString();
+        ProjectMirror mirror = asana.getFreshMirror(PROJECT_GID);
+        Assertions.assertNotNull(mirror.getTask(deletedGid));
+
+        SERVER.setTaskDueOn(changedGid, "2030-01-02");
+        SERVER.deleteTask(deletedGid);
+        JsonArray events = new JsonArray();
+        events.add(event("changed", changedGid));
+        events.add(event("deleted", deletedGid));
+        Assertions.assertEquals(200, SERVER.deliver(PROJECT_GID, events));
+
+        await(() -> {
+            Task changed = mirror.getTask(changedGid);
+            return changed != null && changed.dueOn != null
+                    && changed.dueOn.toStringRfc3339().startsWith("2030-01-02");
+        });
+        await(() -> mirror.getTask(deletedGid) == null);
+        Assertions.assertNotNull(asana.getFreshMirror(PROJECT_GID));
+    }
+
+    @Test
+    void testDeletedTaskInsertedAgain() throws IOException, InterruptedException {
+        Problems problems = new Problems();
+        importCsv(problems);
+        JsonObject deleted = SERVER.getTasks(PROJECT_GID).get(0);
+        String deletedGid = deleted.get("gid").getAsString();
+        ProjectMirror mirror = asana.getFreshMirror(PROJECT_GID);
+        SERVER.deleteTask(deletedGid);
+        JsonArray events = new JsonArray();
+        events.add(event("deleted", deletedGid));
+        Assertions.assertEquals(200, SERVER.deliver(PROJECT_GID, events));
+        await(() -> mirror.getTask(deletedGid) == null);
+
+        // the task is still in the index with the same content, but not in the mirror
+        SyncSummary summary = importCsv(problems);
+        Assertions.assertTrue(problems.getErrors().isEmpty(), problems.getErrors().toString());
+        Assertions.assertEquals(1, summary.getInserted());
+        Assertions.assertTrue(SERVER.getTasks(PROJECT_GID).stream()
+                .anyMatch(task -> task.get("name").equals(deleted.get("name"))));
+    }
+
+    @Test
+    void testDeletedTaskOnlyCountedAsInserted() throws IOException {
+        Problems problems = new Problems();
+        SyncSummary first = importCsv(problems);
+        JsonObject deleted = SERVER.getTasks(PROJECT_GID).get(0);
+        String deletedName = deleted.get("name").getAsString();
+        SERVER.deleteTask(deleted.get("gid").getAsString());
+        // without the mirror the index is trusted, and the changed task is updated by its gid
+        ProjectMirror mirror = asana.getFreshMirror(PROJECT_GID);
+        mirror.markStale();
+        SyncSummary summary;
+        try (InputStream is = getClass().getClassLoader().getResourceAsStream("simple.csv");
+             Stream<TaskData> tasks = csv.streamGrantCsvToTasks(is, problems)) {
+            summary = asana.updateOrInsertGrantTasks(WORKSPACE, PROJECT, tasks.peek(task -> {
+                if (deletedName.equals(task.getName())) {
+                    task.setDueDate(LocalDate.of(2031, 1, 2));
+                }
+            }), null, problems, new SyncSummary());
+        } finally {
+            Assertions.assertTrue(asana.resyncMirror(mirror, new Problems()));
+        }
+        Assertions.assertTrue(problems.getErrors().isEmpty(), problems.getErrors().toString());
+        // Asana answered 404 for the update, so the task was inserted again and is not also counted as updated
+        Assertions.assertEquals(1, summary.getInserted());
+        Assertions.assertEquals(0, summary.getUpdated());
+        Assertions.assertEquals(first.getTotal(), summary.getTotal());
+        Assertions.assertTrue(SERVER.getTasks(PROJECT_GID).stream()
+                .anyMatch(task -> task.get("name").equals(deleted.get("name"))));
+    }
+
+    @Test
+    void testUnsignedDeliveryRejected() throws IOException, InterruptedException {
+        HttpClient http = HttpClient.newHttpClient();
+        HttpRequest unsigned = HttpRequest.newBuilder(URI.create(getTargetUrl() + "/" + PROJECT_GID))
+                .header("X-Hook-Signature", "0123")
+                .POST(HttpRequest.BodyPublishers.ofString("{\"events\":[]}"))
+                .build();
+        Assertions.assertEquals(401, http.send(unsigned, HttpResponse.BodyHandlers.discarding()).statusCode());
+        // a handshake is only accepted while the webhook is being created
+        HttpRequest handshake = HttpRequest.newBuilder(URI.create(getTargetUrl() + "/" + PROJECT_GID))
+                .header("X-Hook-Secret", "secret")
+                .POST(HttpRequest.BodyPublishers.noBody())
+                .build();
+        Assertions.assertEquals(403, http.send(handshake, HttpResponse.BodyHandlers.discarding()).statusCode());
+        Assertions.assertFalse(webhooks.handshake("0", "secret"));
+    }
+
+    private SyncSummary importCsv(Problems problems) throws IOException {
+        try (InputStream is = getClass().getClassLoader().getResourceAsStream("simple.csv");
+             Stream<TaskData> tasks = csv.streamGrantCsvToTasks(is, problems)) {
+            return asana.updateOrInsertGrantTasks(WORKSPACE, PROJECT, tasks, problems, new SyncSummary());
+        }
+    }
+
+    private String getTargetUrl() {
+        return "http://127.0.0.1:" + port + "/webhooks/asana";
+    }
+
+    private static JsonObject event(String action, String taskGid) {
+        JsonObject resource = new JsonObject();
+        resource.addProperty("gid", taskGid);
+        resource.addProperty("resource_type", "task");
+        JsonObject event = new JsonObject();
+        event.addProperty("action", action);
+        event.add("resource", resource);
+        return event;
+    }
+
+    private static void await(BooleanSupplier condition) {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (!condition.getAsBoolean()) {
+            Assertions.assertTrue(System.currentTimeMillis() < deadline, "timed out");
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                Assertions.fail(e);
+            }
+        }
+    }
+
+    private static Path createTempDirectory() {
+        try {
+            return Files.createTempDirectory("indexes");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static MockAsanaServer startServer() {
+        try {
+            return new MockAsanaServer();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.cappella.asana;
+
+import com.cappella.model.TaskData;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.Collections;
+
+/**
+ * Testing that the {@link GrantTaskIndex} survives being closed and reopened.
+ */
+class GrantTaskIndexTests {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void testReopenReplaysLog() throws IOException {
+        Path file = directory.resolve("project.idx");
+        TaskData first = createTaskData("grant 1", "funder 1");
+        TaskData second = createTaskData("grant 2", "funder 2");
+        try (GrantTaskIndex index = GrantTaskIndex.open(file)) {
+            index.put(first, "1", GrantTaskIndex.contentHash(first));
+            index.put(second, "2", GrantTaskIndex.contentHash(second));
+            index.remove(second);
+        }
+        try (GrantTaskIndex index = GrantTaskIndex.open(file)) {
+            Assertions.assertEquals(1, index.size());
+            Assertions.assertEquals("1", index.get(first).getGid());
+            Assertions.assertEquals(GrantTaskIndex.contentHash(first), index.get(first).getHash());
+            Assertions.assertNull(index.get(second));
+        }
+    }
+
+    @Test
+    void testSameNameDifferentFunder() throws IOException {
+        TaskData first = createTaskData("grant", "funder 1");
+        TaskData second = createTaskData("grant", "funder 2");
+        try (GrantTaskIndex index = GrantTaskIndex.open(directory.resolve("project.idx"))) {
+            index.put(first, "1", GrantTaskIndex.contentHash(first));
+            Assertions.assertNull(index.get(second));
+        }
+    }
+
+    @Test
+    void testContentHashChangesWithContent() {
+        TaskData task = createTaskData("grant", "funder");
+        long hash = GrantTaskIndex.contentHash(task);
+        task.setDueDate(task.getDueDate().plusDays(1));
+        Assertions.assertNotEquals(hash, GrantTaskIndex.contentHash(task));
+    }
+
+    @Test
+    void testPartialRecordDropped() throws IOException {
+        Path file = directory.resolve("project.idx");
+        TaskData task = createTaskData("grant", "funder");
+        try (GrantTaskIndex index = GrantTaskIndex.open(file)) {
+            index.put(task, "1", 1L);
+        }
+        long length = Files.size(file);
+        // a crash while appending leaves part of a record behind
+        Files.write(file, new byte[] {1, 0, 9}, StandardOpenOption.APPEND);
+        try (GrantTaskIndex index = GrantTaskIndex.open(file)) {
+            Assertions.assertEquals("1", index.get(task).getGid());
+        }
+        Assertions.assertEquals(length, Files.size(file));
+    }
+
+    @Test
+    void testCompactOnClose() throws IOException {
+        Path file = directory.resolve("project.idx");
+        TaskData task = createTaskData("grant", "funder");
+        try (GrantTaskIndex index = GrantTaskIndex.open(file)) {
+            for (long hash = 0; hash < 2000; hash++) {
+                index.put(task, "1", hash);
+            }
+        }
+        // only the live entry is left
+        Path single = directory.resolve("single.idx");
+        try (GrantTaskIndex index = GrantTaskIndex.open(single)) {
+            index.put(task, "1", 1999L);
+        }
+        Assertions.assertEquals(Files.size(single), Files.size(file));
+        try (GrantTaskIndex index = GrantTaskIndex.open(file)) {
+            Assertions.assertEquals(1999L, index.get(task).getHash());
+        }
+    }
+
+    @Test
+    void testRetainOnly() throws IOException {
+        Path file = directory.resolve("project.idx");
+        TaskData kept = createTaskData("grant 1", "funder 1");
+        TaskData removed = createTaskData("grant 2", "funder 2");
+        try (GrantTaskIndex index = GrantTaskIndex.open(file)) {
+            index.put(kept, "1", GrantTaskIndex.contentHash(kept));
+            index.put(removed, "2", GrantTaskIndex.contentHash(removed));
+            Assertions.assertEquals(1, index.retainOnly(Collections.singleton(GrantTaskIndex.key(kept))));
+        }
+        try (GrantTaskIndex index = GrantTaskIndex.open(file)) {
+            Assertions.assertEquals("1", index.get(kept).getGid());
+            Assertions.assertNull(index.get(removed));
+        }
+    }
+
+    private TaskData createTaskData(String name, String funderName) {
+        TaskData task = new TaskData();
+        task.setName(name);
+        task.setFunderName(funderName);
+        task.setDueDate(LocalDate.of(2022, 3, 1));
+        task.setSection("Submitted");
+        return task;
+    }
+}
@@ -0,0 +1,83 @@
+package com.cappella.asana;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Testing that the {@link ImportJournal} resumes an import of the same file
+ * after being closed and reopened.
+ */
+class ImportJournalTests {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void testReopenResumes() throws IOException {
+        Path file = directory.resolve("project.journal");
+        try (ImportJournal journal = ImportJournal.open(file, "file 1")) {
+            Assertions.assertEquals(0, journal.getCheckpoint());
+            journal.created(2, "102");
+            journal.checkpoint(3);
+            journal.created(5, "105");
+        }
+        try (ImportJournal journal = ImportJournal.open(file, "file 1")) {
+            Assertions.assertEquals(3, journal.getCheckpoint());
+            // the rows up to the checkpoint are skipped so their gids are not kept
+            Assertions.assertNull(journal.getCreatedGid(2));
+            Assertions.assertEquals("105", journal.getCreatedGid(5));
+        }
+    }
+
+    @Test
+    void testOtherFileStartsOver() throws IOException {
+        Path file = directory.resolve("project.journal");
+        try (ImportJournal journal = ImportJournal.open(file, "file 1")) {
+            journal.created(5, "105");
+            journal.checkpoint(3);
+        }
+        try (ImportJournal journal = ImportJournal.open(file, "file 2")) {
+            Assertions.assertEquals(0, journal.getCheckpoint());
+            Assertions.assertNull(journal.getCreatedGid(5));
+        }
+        try (ImportJournal journal = ImportJournal.open(file, "file 1")) {
+            Assertions.assertEquals(0, journal.getCheckpoint());
+        }
+    }
+
+    @Test
+    void testPartialRecordDropped() throws IOException {
+        Path file = directory.resolve("project.journal");
+        try (ImportJournal journal = ImportJournal.open(file, "file 1")) {
+            journal.checkpoint(3);
+        }
+        long length = Files.size(file);
+        // a crash while appending leaves part of a record behind
+        Files.write(file, new byte[] {2, 0, 0, 0}, StandardOpenOption.APPEND);
+        try (ImportJournal journal = ImportJournal.open(file, "file 1")) {
+            Assertions.assertEquals(3, journal.getCheckpoint());
+            Assertions.assertEquals(length, Files.size(file));
+            journal.created(4, "104");
+        }
+        try (ImportJournal journal = ImportJournal.open(file, "file 1")) {
+            Assertions.assertEquals("104", journal.getCreatedGid(4));
+        }
+    }
+
+    @Test
+    void testDelete() throws IOException {
+        Path file = directory.resolve("project.journal");
+        ImportJournal journal = ImportJournal.open(file, "file 1");
+        journal.checkpoint(3);
+        journal.delete();
+        Assertions.assertFalse(Files.exists(file));
+        // closing again does nothing
+        journal.close();
+    }
+}
@@ -0,0 +1,782 @@
+package com.cappella.asana;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * An in-process stand-in for the Asana REST API, so the AsanaClient can be
+ * run end to end without a token or a real workspace, and fast enough to
+ * measure the AsanaClient rather than Asana.
+ * https://developers.asana.com/docs/overview
+ *
+ * Workspaces, projects, sections and tasks are kept in memory. Only the
+ * calls the AsanaClient makes are answered, with the java-asana Client or
+ * the AsanaAsyncTransport, directly or as actions of a batch:
+ *
+ * GET    /workspaces
+ * GET    /projects?workspace={gid} and /workspaces/{gid}/projects
+ * GET    /projects/{gid}/sections
+ * POST   /projects/{gid}/sections
+ * GET    /projects/{gid}/tasks
+ * POST   /tasks
+ * GET    /tasks/{gid}, PUT /tasks/{gid} and DELETE /tasks/{gid}
+ * GET    /tasks/{gid}/subtasks
+ * POST   /tasks/{gid}/subtasks
+ * GET    /sections/{gid}
+ * POST   /sections/{gid}/addTask
+ * POST   /webhooks and DELETE /webhooks/{gid}
+ * POST   /batch
+ *
+ * The opt_fields are ignored, every field the mock knows is returned.
+ * Lists are paged when the caller asks for a limit, with at most
+ * maxPageSize items a page, otherwise the whole list is returned.
+ * Every request waits latencyMillis before it is answered, and every
+ * rateLimitEvery'th call is answered 429 Too Many Requests with a
+ * Retry-After, each action of a batch being a call like it is for Asana.
+ * Once createsAllowed tasks have been created every further POST /tasks is
+ * answered 500, like Asana failing partway through an import, and every
+ * call of the failingRoute is answered 500.
+ * A webhook is only created once its target has answered the handshake,
+ * the mock does not send events by itself, a test sends them with deliver.
+ */
+class MockAsanaServer implements AutoCloseable {
+
+    static final String BASE_PATH = "/api/1.0";
+
+    private static final int OK = 200;
+    private static final int CREATED = 201;
+    private static final int BAD_REQUEST = 400;
+    private static final int NOT_FOUND = 404;
+    private static final int TOO_MANY_REQUESTS = 429;
+    private static final int SERVER_ERROR = 500;
+    // Asana rejects a batch of more actions and a limit above 100
+    private static final int MAX_BATCH_ACTIONS = 10;
+    private static final int MAX_LIMIT = 100;
+    private static final String GET = "GET";
+    private static final String POST = "POST";
+    private static final String PUT = "PUT";
+    private static final String DELETE = "DELETE";
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final AtomicLong nextGid = new AtomicLong(1000);
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicInteger calls = new AtomicInteger();
+    private final AtomicInteger rateLimited = new AtomicInteger();
+    // "GET /projects/{gid}/tasks" -> calls
+    private final Map<String, AtomicInteger> routes = new ConcurrentHashMap<>();
+    private final HttpClient http = HttpClient.newHttpClient();
+
+    // guarded by this
+    private final Map<String, String> workspaces = new LinkedHashMap<>();
+    private final Map<String, MockProject> projects = new LinkedHashMap<>();
+    private final Map<String, MockSection> sections = new HashMap<>();
+    private final Map<String, MockTask> tasks = new HashMap<>();
+    private final Map<String, MockWebhook> webhooks = new LinkedHashMap<>();
+    private int createsAllowed = -1;
+
+    private volatile long latencyMillis;
+    private volatile int maxPageSize = MAX_LIMIT;
+    private volatile int rateLimitEvery;
+    private volatile long retryAfterSeconds = 1;
+    private volatile String failingRoute;
+
+    MockAsanaServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext(BASE_PATH, this::handle);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    /**
+     * @return String for asana.base.url
+     */
+    String getBaseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + BASE_PATH;
+    }
+
+    void setLatencyMillis(long latencyMillis) {
+        this.latencyMillis = latencyMillis;
+    }
+
+    void setMaxPageSize(int maxPageSize) {
+        this.maxPageSize = maxPageSize;
+    }
+
+    /**
+     * @param every answer every nth call with 429, 0 to never do so
+     * @param retryAfterSeconds sent as the Retry-After
+     */
+    void setRateLimitEvery(int every, long retryAfterSeconds) {
+        this.rateLimitEvery = every;
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    /**
+     * @param creates the number of POST /tasks answered before the rest fail, -1 for no limit
+     */
+    synchronized void setCreatesAllowed(int creates) {
+        this.createsAllowed = creates;
+    }
+
+    /**
+     * @param route the method and path with the gids as {gid} to answer 500, null for none
+     */
+    void setFailingRoute(String route) {
+        this.failingRoute = route;
+    }
+
+    synchronized String addWorkspace(String name) {
+        String gid = newGid();
+        workspaces.put(gid, name);
+        return gid;
+    }
+
+    synchronized String addProject(String workspaceGid, String name) {
+        MockProject project = new MockProject(newGid(), name, workspaceGid);
+        projects.put(project.gid, project);
+        return project.gid;
+    }
+
+    synchronized String addSection(String projectGid, String name) {
+        MockSection section = new MockSection(newGid(), name, projectGid);
+        sections.put(section.gid, section);
+        projects.get(projectGid).sections.add(section.gid);
+        return section.gid;
+    }
+
+    /**
+     * The tasks of the project as they are returned by GET /tasks/{gid}.
+     *
+     * @param projectGid
+     * @return List<JsonObject>
+     */
+    synchronized List<JsonObject> getTasks(String projectGid) {
+        List<JsonObject> projectTasks = new ArrayList<>();
+        for (String taskGid : projects.get(projectGid).tasks) {
+            projectTasks.add(toJson(tasks.get(taskGid)));
+        }
+        return projectTasks;
+    }
+
+    synchronized List<JsonObject> getSubtasks(String taskGid) {
+        List<JsonObject> subtasks = new ArrayList<>();
+        for (String subtaskGid : tasks.get(taskGid).subtasks) {
+            subtasks.add(toJson(tasks.get(subtaskGid)));
+        }
+        return subtasks;
+    }
+
+    synchronized void setTaskDueOn(String taskGid, String dueOn) {
+        tasks.get(taskGid).dueOn = dueOn;
+    }
+
+    /**
+     * Adds a subtask before the other subtasks of the task, like one made in
+     * Asana before the task was imported.
+     *
+     * @param taskGid
+     * @param name
+     * @return String the gid of the subtask
+     */
+    synchronized String addSubtask(String taskGid, String name) {
+        MockTask task = tasks.get(taskGid);
+        MockTask subtask = new MockTask(newGid(), name, task.workspaceGid);
+        subtask.parentGid = task.gid;
+        tasks.put(subtask.gid, subtask);
+        task.subtasks.add(0, subtask.gid);
+        return subtask.gid;
+    }
+
+    synchronized void deleteTask(String taskGid) {
+        updateTask(DELETE, tasks.get(taskGid), null);
+    }
+
+    /**
+     * Sends the events to every webhook of the resource like Asana does,
+     * signed with the secret of the webhook.
+     *
+     * @param resourceGid
+     * @param events
+     * @return int the status the last webhook answered, 0 if the resource has no webhook
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    int deliver(String resourceGid, JsonArray events) throws IOException, InterruptedException {
+        List<MockWebhook> targets = new ArrayList<>();
+        synchronized (this) {
+            for (MockWebhook webhook : webhooks.values()) {
+                if (webhook.resourceGid.equals(resourceGid)) {
+                    targets.add(webhook);
+                }
+            }
+        }
+        JsonObject body = new JsonObject();
+        body.add("events", events);
+        byte[] bytes = body.toString().getBytes(StandardCharsets.UTF_8);
+        int status = 0;
+        for (MockWebhook webhook : targets) {
+            HttpRequest request = HttpRequest.newBuilder(URI.create(webhook.target))
+                    .header("Content-Type", "application/json")
+                    .header("X-Hook-Signature", AsanaWebhookService.sign(webhook.secret, bytes))
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(bytes))
+                    .build();
+            status = http.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+        }
+        return status;
+    }
+
+    synchronized int getWebhookCount() {
+        return webhooks.size();
+    }
+
+    /**
+     * @param route the method and path with the gids as {gid}, such as "GET /projects/{gid}/tasks"
+     * @return int calls received for the route
+     */
+    int getCalls(String route) {
+        AtomicInteger count = routes.get(route);
+        return count == null ? 0 : count.get();
+    }
+
+    /**
+     * @return int HTTP requests received, a batch being one request
+     */
+    int getRequests() {
+        return requests.get();
+    }
+
+    /**
+     * @return int calls received, each action of a batch being a call
+     */
+    int getCalls() {
+        return calls.get();
+    }
+
+    int getRateLimited() {
+        return rateLimited.get();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            requests.incrementAndGet();
+            if (latencyMillis > 0) {
+                Thread.sleep(latencyMillis);
+            }
+            String method = exchange.getRequestMethod();
+            String path = exchange.getRequestURI().getPath().substring(BASE_PATH.length());
+            Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+            JsonObject data = parseData(new String(exchange.getRequestBody().readAllBytes(),
+                    StandardCharsets.UTF_8));
+            Response response = POST.equals(method) && "/batch".equals(path)
+                    ? batch(data) : call(method, path, query, data);
+            if (response.status == TOO_MANY_REQUESTS) {
+                exchange.getResponseHeaders().add("Retry-After", String.valueOf(retryAfterSeconds));
+            }
+            exchange.getResponseHeaders().add("Content-Type", "application/json; charset=UTF-8");
+            byte[] bytes = response.body.toString().getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(response.status, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            byte[] bytes = error(e.toString()).toString().getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(BAD_REQUEST, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Answers the actions one by one, an action can be rate limited on its
+     * own like it can be by Asana.
+     */
+    private Response batch(JsonObject data) {
+        JsonArray actions = data == null ? null : data.getAsJsonArray("actions");
+        if (actions == null || actions.size() == 0 || actions.size() > MAX_BATCH_ACTIONS) {
+            return new Response(BAD_REQUEST, error("actions: 1 to " + MAX_BATCH_ACTIONS + " actions expected"));
+        }
+        JsonArray results = new JsonArray();
+        for (JsonElement element : actions) {
+            JsonObject action = element.getAsJsonObject();
+            Map<String, String> query = new HashMap<>();
+            if (action.has("options")) {
+                for (Map.Entry<String, JsonElement> option : action.getAsJsonObject("options").entrySet()) {
+                    if (option.getValue().isJsonPrimitive()) {
+                        query.put(option.getKey(), option.getValue().getAsString());
+                    }
+                }
+            }
+            JsonObject actionData = action.has("data") && action.get("data").isJsonObject()
+                    ? action.getAsJsonObject("data") : null;
+            Response response = call(action.get("method").getAsString().toUpperCase(),
+                    action.get("relative_path").getAsString(), query, actionData);
+            JsonObject result = new JsonObject();
+            result.addProperty("status_code", response.status);
+            JsonObject headers = new JsonObject();
+            if (response.status == TOO_MANY_REQUESTS) {
+                headers.addProperty("Retry-After", String.valueOf(retryAfterSeconds));
+            }
+            result.add("headers", headers);
+            result.add("body", response.body);
+            results.add(result);
+        }
+        JsonObject body = new JsonObject();
+        body.add("data", results);
+        return new Response(OK, body);
+    }
+
+    private Response call(String method, String path, Map<String, String> query, JsonObject data) {
+        int call = calls.incrementAndGet();
+        int every = rateLimitEvery;
+        if (every > 0 && call % every == 0) {
+            rateLimited.incrementAndGet();
+            return new Response(TOO_MANY_REQUESTS, error("You have made too many requests recently."));
+        }
+        String route = method + " " + path.replaceAll("/\\d+", "/{gid}");
+        routes.computeIfAbsent(route, key -> new AtomicInteger()).incrementAndGet();
+        if (route.equals(failingRoute)) {
+            return new Response(SERVER_ERROR, error("Server Error"));
+        }
+        String[] parts = path.substring(1).split("/");
+        if ("webhooks".equals(parts[0])) {
+            // not under the lock since the target is called during the handshake
+            return webhook(method, parts, data);
+        }
+        synchronized (this) {
+            switch (parts[0]) {
+                case "workspaces":
+                    if (parts.length == 1 && GET.equals(method)) {
+                        return page(new ArrayList<>(workspaces.keySet()), gid -> compact(gid, workspaces.get(gid)),
+                                query);
+                    }
+                    if (parts.length == 3 && "projects".equals(parts[2]) && GET.equals(method)) {
+                        return getProjects(parts[1], query);
+                    }
+                    break;
+                case "projects":
+                    if (parts.length == 1 && GET.equals(method)) {
+                        return getProjects(query.get("workspace"), query);
+                    }
+                    if (parts.length == 3) {
+                        MockProject project = projects.get(parts[1]);
+                        if (project == null) {
+                            return notFound("project", parts[1]);
+                        }
+                        if ("sections".equals(parts[2]) && GET.equals(method)) {
+                            return page(project.sections, gid -> compact(gid, sections.get(gid).name), query);
+                        }
+                        if ("sections".equals(parts[2]) && POST.equals(method)) {
+                            String gid = addSection(project.gid, getString(data, "name"));
+                            return created(compact(gid, sections.get(gid).name));
+                        }
+                        if ("tasks".equals(parts[2]) && GET.equals(method)) {
+                            return page(project.tasks, gid -> toJson(tasks.get(gid)), query);
+                        }
+                    }
+                    break;
+                case "tasks":
+                    if (parts.length == 1 && POST.equals(method)) {
+                        return createTask(data);
+                    }
+                    if (parts.length >= 2) {
+                        MockTask task = tasks.get(parts[1]);
+                        if (task == null) {
+                            return notFound("task", parts[1]);
+                        }
+                        if (parts.length == 2) {
+                            return updateTask(method, task, data);
+                        }
+                        if ("subtasks".equals(parts[2]) && GET.equals(method)) {
+                            return page(task.subtasks, gid -> toJson(tasks.get(gid)), query);
+                        }
+                        if ("subtasks".equals(parts[2]) && POST.equals(method)) {
+                            MockTask subtask = new MockTask(newGid(), getString(data, "name"), task.workspaceGid);
+                            subtask.dueOn = getString(data, "due_on");
+                            subtask.parentGid = task.gid;
+                            tasks.put(subtask.gid, subtask);
+                            task.subtasks.add(subtask.gid);
+                            return created(toJson(subtask));
+                        }
+                    }
+                    break;
+                case "sections":
+                    if (parts.length == 2 && GET.equals(method)) {
+                        MockSection section = sections.get(parts[1]);
+                        return section == null ? notFound("section", parts[1])
+                                : new Response(OK, withData(compact(section.gid, section.name)));
+                    }
+                    if (parts.length == 3 && "addTask".equals(parts[2]) && POST.equals(method)) {
+                        MockSection section = sections.get(parts[1]);
+                        if (section == null) {
+                            return notFound("section", parts[1]);
+                        }
+                        MockTask task = tasks.get(getString(data, "task"));
+                        if (task == null) {
+                            return notFound("task", getString(data, "task"));
+                        }
+                        if (!section.projectGid.equals(task.projectGid)) {
+                            return new Response(BAD_REQUEST, error("task: Not in the project of the section"));
+                        }
+                        task.sectionGid = section.gid;
+                        return new Response(OK, withData(new JsonObject()));
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+        return new Response(NOT_FOUND, error("No matching route for request " + method + " " + path));
+    }
+
+    /**
+     * Creates a webhook once its target echoes the X-Hook-Secret of the
+     * handshake, or deletes one.
+     */
+    private Response webhook(String method, String[] parts, JsonObject data) {
+        if (parts.length == 1 && POST.equals(method)) {
+            String resourceGid = getString(data, "resource");
+            String target = getString(data, "target");
+            synchronized (this) {
+                if (resourceGid == null || !projects.containsKey(resourceGid)) {
+                    return notFound("resource", resourceGid);
+                }
+            }
+            String secret = UUID.randomUUID().toString().replace("-", "");
+            try {
+                HttpRequest handshake = HttpRequest.newBuilder(URI.create(target))
+                        .header("X-Hook-Secret", secret)
+                        .POST(HttpRequest.BodyPublishers.noBody())
+                        .build();
+                HttpResponse<Void> response = http.send(handshake, HttpResponse.BodyHandlers.discarding());
+                if (response.statusCode() / 100 != 2
+                        || !secret.equals(response.headers().firstValue("X-Hook-Secret").orElse(null))) {
+                    return new Response(BAD_REQUEST,
+                            error("The remote server did not respond with the handshake secret."));
+                }
+            } catch (IOException e) {
+                return new Response(BAD_REQUEST, error("Could not connect to the target " + e));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return new Response(BAD_REQUEST, error("interrupted"));
+            }
+            MockWebhook webhook = new MockWebhook(newGid(), resourceGid, target, secret);
+            synchronized (this) {
+                webhooks.put(webhook.gid, webhook);
+            }
+            JsonObject json = new JsonObject();
+            json.addProperty("gid", webhook.gid);
+            json.addProperty("target", target);
+            json.addProperty("active", true);
+            JsonObject resource = new JsonObject();
+            resource.addProperty("gid", resourceGid);
+            json.add("resource", resource);
+            return created(json);
+        }
+        if (parts.length == 2 && DELETE.equals(method)) {
+            synchronized (this) {
+                return webhooks.remove(parts[1]) == null ? notFound("webhook", parts[1])
+                        : new Response(OK, withData(new JsonObject()));
+            }
+        }
+        return new Response(NOT_FOUND, error("No matching route for request " + method + " /webhooks"));
+    }
+
+    private Response getProjects(String workspaceGid, Map<String, String> query) {
+        if (workspaceGid == null || !workspaces.containsKey(workspaceGid)) {
+            return notFound("workspace", workspaceGid);
+        }
+        List<String> items = new ArrayList<>();
+        for (MockProject project : projects.values()) {
+            if (project.workspaceGid.equals(workspaceGid)) {
+                items.add(project.gid);
+            }
+        }
+        return page(items, gid -> compact(gid, projects.get(gid).name), query);
+    }
+
+    private Response createTask(JsonObject data) {
+        String workspaceGid = getString(data, "workspace");
+        JsonArray projectGids = data == null ? null : data.getAsJsonArray("projects");
+        if (workspaceGid == null && (projectGids == null || projectGids.size() == 0)) {
+            return new Response(BAD_REQUEST, error("workspace: Missing input"));
+        }
+        if (createsAllowed == 0) {
+            return new Response(SERVER_ERROR, error("Server Error"));
+        }
+        if (createsAllowed > 0) {
+            createsAllowed--;
+        }
+        MockTask task = new MockTask(newGid(), getString(data, "name"), workspaceGid);
+        task.dueOn = getString(data, "due_on");
+        if (projectGids != null && projectGids.size() > 0) {
+            MockProject project = projects.get(projectGids.get(0).getAsString());
+            if (project == null) {
+                return notFound("project", projectGids.get(0).getAsString());
+            }
+            task.projectGid = project.gid;
+            project.tasks.add(task.gid);
+        }
+        tasks.put(task.gid, task);
+        return created(toJson(task));
+    }
+
+    private Response updateTask(String method, MockTask task, JsonObject data) {
+        switch (method) {
+            case GET:
+                return new Response(OK, withData(toJson(task)));
+            case PUT:
+                if (data != null && data.has("name")) {
+                    task.name = getString(data, "name");
+                }
+                if (data != null && data.has("due_on")) {
+                    task.dueOn = getString(data, "due_on");
+                }
+                return new Response(OK, withData(toJson(task)));
+            case DELETE:
+                tasks.remove(task.gid);
+                if (task.projectGid != null) {
+                    projects.get(task.projectGid).tasks.remove(task.gid);
+                }
+                if (task.parentGid != null && tasks.containsKey(task.parentGid)) {
+                    tasks.get(task.parentGid).subtasks.remove(task.gid);
+                }
+                return new Response(OK, withData(new JsonObject()));
+            default:
+                return new Response(NOT_FOUND, error("No matching route for request " + method));
+        }
+    }
+
+    /**
+     * Pages like Asana, the offset being the index of the first item of
+     * the page. Only the items of the page are converted to JSON.
+     */
+    private Response page(List<String> gids, Function<String, JsonObject> toJson, Map<String, String> query) {
+        int size = gids.size();
+        int limit = size;
+        int offset = 0;
+        try {
+            if (query.containsKey("limit")) {
+                limit = Integer.parseInt(query.get("limit"));
+                if (limit < 1 || limit > MAX_LIMIT) {
+                    return new Response(BAD_REQUEST, error("limit: Must be between 1 and " + MAX_LIMIT));
+                }
+                limit = Math.min(limit, maxPageSize);
+            }
+            if (query.containsKey("offset")) {
+                offset = Integer.parseInt(query.get("offset"));
+            }
+        } catch (NumberFormatException e) {
+            return new Response(BAD_REQUEST, error("offset: Your pagination token is invalid."));
+        }
+        int end = Math.min(size, offset + limit);
+        JsonArray data = new JsonArray();
+        for (int i = offset; i < end; i++) {
+            data.add(toJson.apply(gids.get(i)));
+        }
+        JsonObject body = new JsonObject();
+        body.add("data", data);
+        if (end < size) {
+            JsonObject nextPage = new JsonObject();
+            nextPage.addProperty("offset", String.valueOf(end));
+            body.add("next_page", nextPage);
+        } else {
+            body.add("next_page", JsonNull.INSTANCE);
+        }
+        return new Response(OK, body);
+    }
+
+    /**
+     * Every field of the task the AsanaClient reads.
+     */
+    private JsonObject toJson(MockTask task) {
+        JsonObject json = compact(task.gid, task.name);
+        json.addProperty("resource_type", "task");
+        json.addProperty("due_on", task.dueOn);
+        json.addProperty("num_subtasks", task.subtasks.size());
+        JsonArray memberships = new JsonArray();
+        if (task.projectGid != null) {
+            MockProject project = projects.get(task.projectGid);
+            JsonObject membership = new JsonObject();
+            membership.add("project", compact(project.gid, project.name));
+            if (task.sectionGid != null) {
+                membership.add("section", compact(task.sectionGid, sections.get(task.sectionGid).name));
+            }
+            memberships.add(membership);
+        }
+        json.add("memberships", memberships);
+        if (task.parentGid != null) {
+            json.add("parent", compact(task.parentGid, tasks.get(task.parentGid).name));
+        }
+        return json;
+    }
+
+    private String newGid() {
+        return String.valueOf(nextGid.incrementAndGet());
+    }
+
+    private static JsonObject compact(String gid, String name) {
+        JsonObject json = new JsonObject();
+        json.addProperty("gid", gid);
+        json.addProperty("name", name);
+        return json;
+    }
+
+    private static Response created(JsonObject data) {
+        return new Response(CREATED, withData(data));
+    }
+
+    private static Response notFound(String type, String gid) {
+        return new Response(NOT_FOUND, error(type + ": Unknown object: " + gid));
+    }
+
+    private static JsonObject withData(JsonObject data) {
+        JsonObject body = new JsonObject();
+        body.add("data", data);
+        return body;
+    }
+
+    private static JsonObject error(String message) {
+        JsonObject error = new JsonObject();
+        error.addProperty("message", message);
+        JsonArray errors = new JsonArray();
+        errors.add(error);
+        JsonObject body = new JsonObject();
+        body.add("errors", errors);
+        return body;
+    }
+
+    private static String getString(JsonObject json, String member) {
+        if (json == null || !json.has(member) || json.get(member).isJsonNull()) {
+            return null;
+        }
+        return json.get(member).getAsString();
+    }
+
+    private static JsonObject parseData(String body) {
+        if (body.isBlank()) {
+            return null;
+        }
+        JsonElement data = JsonParser.parseString(body).getAsJsonObject().get("data");
+        return data != null && data.isJsonObject() ? data.getAsJsonObject() : null;
+    }
+
+    private static Map<String, String> parseQuery(String rawQuery) {
+        Map<String, String> query = new HashMap<>();
+        if (rawQuery != null) {
+            for (String parameter : rawQuery.split("&")) {
+                int equals = parameter.indexOf('=');
+                if (equals > 0) {
+                    query.put(URLDecoder.decode(parameter.substring(0, equals), StandardCharsets.UTF_8),
+                            URLDecoder.decode(parameter.substring(equals + 1), StandardCharsets.UTF_8));
+                }
+            }
+        }
+        return query;
+    }
+
+    private static class Response {
+        final int status;
+        final JsonObject body;
+
+        Response(int status, JsonObject body) {
+            this.status = status;
+            this.body = body;
+        }
+    }
+
+    private static class MockProject {
+        final String gid;
+        final String name;
+        final String workspaceGid;
+        final List<String> sections = new ArrayList<>();
+        final List<String> tasks = new ArrayList<>();
+
+        MockProject(String gid, String name, String workspaceGid) {
+            this.gid = gid;
+            this.name = name;
+            this.workspaceGid = workspaceGid;
+        }
+    }
+
+    private static class MockSection {
+        final String gid;
+        final String name;
+        final String projectGid;
+
+        MockSection(String gid, String name, String projectGid) {
+            this.gid = gid;
+            this.name = name;
+            this.projectGid = projectGid;
+        }
+    }
+
+    private static class MockWebhook {
+        final String gid;
+        final String resourceGid;
+        final String target;
+        final String secret;
+
+        MockWebhook(String gid, String resourceGid, String target, String secret) {
+            this.gid = gid;
+            this.resourceGid = resourceGid;
+            this.target = target;
+            this.secret = secret;
+        }
+    }
+
+    private static class MockTask {
+        final String gid;
+        final String workspaceGid;
+        final List<String> subtasks = new ArrayList<>();
+        String name;
+        String dueOn;
+        String projectGid;
+        String sectionGid;
+        String parentGid;
+
+        MockTask(String gid, String name, String workspaceGid) {
+            this.gid = gid;
+            this.name = name;
+            this.workspaceGid = workspaceGid;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.cappella.asana;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import com.asana.models.Section;
+import com.asana.models.Task;
+
+/**
+ * Testing the {@link ProjectMirror} full reads, the events applied during
+ * them and when the mirror can be used.
+ */
+class ProjectMirrorTests {
+
+    private static final long MAX_AGE = TimeUnit.MINUTES.toNanos(10);
+
+    @Test
+    void testNotFreshUntilRead() {
+        ProjectMirror mirror = new ProjectMirror("1", MAX_AGE);
+        mirror.putTask(task("2", "grant 1", null));
+        Assertions.assertFalse(mirror.isFresh());
+        mirror.replace(List.of(task("2", "grant 1", null)), List.of());
+        Assertions.assertTrue(mirror.isFresh());
+        mirror.markStale();
+        Assertions.assertFalse(mirror.isFresh());
+        mirror.replace(List.of(), List.of());
+        Assertions.assertTrue(mirror.isFresh());
+    }
+
+    @Test
+    void testNotFreshOnceOld() throws InterruptedException {
+        ProjectMirror mirror = new ProjectMirror("1", TimeUnit.MILLISECONDS.toNanos(1));
+        mirror.replace(List.of(), List.of());
+        Thread.sleep(5);
+        Assertions.assertFalse(mirror.isFresh());
+    }
+
+    @Test
+    void testReplace() {
+        ProjectMirror mirror = new ProjectMirror("1", MAX_AGE);
+        mirror.replace(List.of(task("2", "grant 1", null), task("3", "grant 2", null)),
+                List.of(section("4", "Open")));
+        mirror.replace(List.of(task("3", "grant 2", null)), List.of(section("5", "Closed")));
+        Assertions.assertEquals(1, mirror.size());
+        Assertions.assertNull(mirror.getTask("2"));
+        Assertions.assertEquals(Collections.singleton("grant 2"), mirror.getTaskMap().keySet());
+        Assertions.assertEquals(Collections.singleton("Closed"), mirror.getSectionMap().keySet());
+    }
+
+    @Test
+    void testEventsDuringResyncWin() {
+        ProjectMirror mirror = new ProjectMirror("1", MAX_AGE);
+        mirror.beginResync();
+        // the full read saw the project before these events
+        mirror.putTask(task("2", "grant 1 renamed", null));
+        mirror.removeTask("3");
+        mirror.removeSection("5");
+        mirror.replace(List.of(task("2", "grant 1", null), task("3", "grant 2", null)),
+                List.of(section("4", "Open"), section("5", "Closed")));
+        Assertions.assertEquals("grant 1 renamed", mirror.getTask("2").name);
+        Assertions.assertNull(mirror.getTask("3"));
+        Assertions.assertEquals(Collections.singleton("Open"), mirror.getSectionMap().keySet());
+
+        // once the read is done the events are no longer kept
+        mirror.removeTask("2");
+        mirror.replace(List.of(task("2", "grant 1", null)), List.of());
+        Assertions.assertEquals("grant 1", mirror.getTask("2").name);
+    }
+
+    @Test
+    void testAbortResync() {
+        ProjectMirror mirror = new ProjectMirror("1", MAX_AGE);
+        mirror.beginResync();
+        mirror.removeTask("2");
+        mirror.abortResync();
+        mirror.replace(List.of(task("2", "grant 1", null)), List.of());
+        Assertions.assertNotNull(mirror.getTask("2"));
+    }
+
+    @Test
+    void testRenamedSectionMovesTasks() {
+        ProjectMirror mirror = new ProjectMirror("1", MAX_AGE);
+        Section open = section("4", "Open");
+        mirror.replace(List.of(task("2", "grant 1", open)), List.of(open));
+        Task before = mirror.getTaskMap().get("grant 1");
+        mirror.putSection(section("4", "Submitted"));
+        Task task = mirror.getTaskMap().get("grant 1");
+        Assertions.assertEquals("Submitted", task.memberships.iterator().next().section.name);
+        // an import reading the task it was given meanwhile sees it unchanged
+        Assertions.assertEquals("Open", before.memberships.iterator().next().section.name);
+        Assertions.assertTrue(mirror.getSectionMap().containsKey("Submitted"));
+        Assertions.assertFalse(mirror.getSectionMap().containsKey("Open"));
+    }
+
+    private static Task task(String gid, String name, Section section) {
+        Task task = new Task();
+        task.gid = gid;
+        task.name = name;
+        if (section != null) {
+            Task.Membership membership = new Task.Membership();
+            membership.section = section;
+            task.memberships = List.of(membership);
+        }
+        return task;
+    }
+
+    private static Section section(String gid, String name) {
+        Section section = new Section();
+        section.gid = gid;
+        section.name = name;
+        return section;
+    }
+}
@@ -0,0 +1,54 @@
+package com.cappella.asana;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Testing the {@link TtlCache} expiry, eviction and stats.
+ */
+class TtlCacheTests {
+
+    @Test
+    void testHitAndMiss() {
+        TtlCache<String, String> cache = new TtlCache<>(60_000, 10);
+        Assertions.assertNull(cache.get("workspace"));
+        cache.put("workspace", "1");
+        Assertions.assertEquals("1", cache.get("workspace"));
+        Assertions.assertEquals(1, cache.getHits());
+        Assertions.assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    void testExpired() throws InterruptedException {
+        TtlCache<String, String> cache = new TtlCache<>(1, 10);
+        cache.put("workspace", "1");
+        Thread.sleep(5);
+        Assertions.assertNull(cache.get("workspace"));
+        Assertions.assertEquals(0, cache.size());
+        Assertions.assertEquals(1, cache.getEvictions());
+    }
+
+    @Test
+    void testLeastRecentlyUsedEvicted() {
+        TtlCache<String, String> cache = new TtlCache<>(60_000, 2);
+        cache.put("a", "1");
+        cache.put("b", "2");
+        // touch a so b is the least recently used
+        cache.get("a");
+        cache.put("c", "3");
+        Assertions.assertEquals("1", cache.get("a"));
+        Assertions.assertNull(cache.get("b"));
+        Assertions.assertEquals("3", cache.get("c"));
+        Assertions.assertEquals(1, cache.getEvictions());
+    }
+
+    @Test
+    void testInvalidateValues() {
+        TtlCache<String, String> cache = new TtlCache<>(60_000, 10);
+        cache.put("a", "gone");
+        cache.put("b", "kept");
+        cache.invalidateValues("gone"::equals);
+        Assertions.assertNull(cache.get("a"));
+        Assertions.assertEquals("kept", cache.get("b"));
+    }
+}
@@ -0,0 +1,137 @@
+package com.cappella.csv;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+class CsvChunkerTests {
+
+    private static final String CSV = "name,notes\r\n"
+            + "one,\"first line\nsecond line\"\r\n"
+            + "\r\n"
+            + "two,\"a \"\"quoted\"\" word\"\r\n"
+            + "three,\"ends with a newline\n\"\r\n"
+            + "four,last";
+
+    @Test
+    void testHeaderEnd() {
+        ByteBuffer bytes = ByteBuffer.wrap(CSV.getBytes(StandardCharsets.UTF_8));
+        Assertions.assertEquals("name,notes\r\n".length(), CsvChunker.headerEnd(bytes));
+        ByteBuffer headerOnly = ByteBuffer.wrap("name,notes".getBytes(StandardCharsets.UTF_8));
+        Assertions.assertEquals(headerOnly.limit(), CsvChunker.headerEnd(headerOnly));
+    }
+
+    @Test
+    void testChunksEndAtRecords() throws IOException {
+        ByteBuffer bytes = ByteBuffer.wrap(CSV.getBytes(StandardCharsets.UTF_8));
+        int start = CsvChunker.headerEnd(bytes);
+        // a chunk size of 1 ends a chunk at every newline outside quotes
+        List<CsvChunker.Chunk> chunks = CsvChunker.split(bytes, start, 1);
+        Assertions.assertEquals(5, chunks.size());
+        Assertions.assertEquals("one,\"first line\nsecond line\"\r\n", read(chunks.get(0)));
+        Assertions.assertEquals("\r\n", read(chunks.get(1)));
+        Assertions.assertEquals("two,\"a \"\"quoted\"\" word\"\r\n", read(chunks.get(2)));
+        Assertions.assertEquals("three,\"ends with a newline\n\"\r\n", read(chunks.get(3)));
+        Assertions.assertEquals("four,last", read(chunks.get(4)));
+        // the empty line is not a record
+        Assertions.assertEquals(0, chunks.get(0).getRecordsBefore());
+        Assertions.assertEquals(1, chunks.get(1).getRecordsBefore());
+        Assertions.assertEquals(1, chunks.get(2).getRecordsBefore());
+        Assertions.assertEquals(2, chunks.get(3).getRecordsBefore());
+        Assertions.assertEquals(3, chunks.get(4).getRecordsBefore());
+    }
+
+    @Test
+    void testOneChunkWhenSmallerThanChunkSize() throws IOException {
+        ByteBuffer bytes = ByteBuffer.wrap(CSV.getBytes(StandardCharsets.UTF_8));
+        int start = CsvChunker.headerEnd(bytes);
+        List<CsvChunker.Chunk> chunks = CsvChunker.split(bytes, start, 1 << 20);
+        Assertions.assertEquals(1, chunks.size());
+        Assertions.assertEquals(CSV.substring(start), read(chunks.get(0)));
+        Assertions.assertTrue(CsvChunker.split(bytes, bytes.limit(), 1).isEmpty());
+    }
+
+    @Test
+    void testQuoteInsideUnquotedFieldIsText() throws IOException {
+        // the quote in 5" binder does not start a quoted field, so the newline after it ends the record
+        String csv = "name,notes\n"
+                + "one,5\" binder\n"
+                + "two,\"first line\nsecond line\"\n"
+                + "three,say \"\"hi\"\"\n"
+                + "four, \"spaced\" \n"
+                + "five,\"a \"\"quoted\"\" word\" \n"
+                + "six,last\n";
+        ByteBuffer bytes = ByteBuffer.wrap(csv.getBytes(StandardCharsets.UTF_8));
+        int start = CsvChunker.headerEnd(bytes);
+        Assertions.assertEquals("name,notes\n".length(), start);
+        List<CsvChunker.Chunk> chunks = CsvChunker.split(bytes, start, 1);
+        Assertions.assertEquals(6, chunks.size());
+        Assertions.assertEquals("one,5\" binder\n", read(chunks.get(0)));
+        List<String> sequential = parse(new StringReader(csv), CSVFormat.DEFAULT.withFirstRecordAsHeader(), 0);
+        Assertions.assertEquals(6, sequential.size());
+        Assertions.assertEquals(sequential, parseChunks(chunks));
+    }
+
+    @Test
+    void testOneChunkWhenQuotesInvalid() throws IOException {
+        String[] invalid = { "name,notes\none,\"closed\" then text\ntwo,x\n",
+                "name,notes\none,\"never closed\ntwo,x\n" };
+        for (String csv : invalid) {
+            ByteBuffer bytes = ByteBuffer.wrap(csv.getBytes(StandardCharsets.UTF_8));
+            int start = CsvChunker.headerEnd(bytes);
+            List<CsvChunker.Chunk> chunks = CsvChunker.split(bytes, start, 1);
+            Assertions.assertEquals(1, chunks.size());
+            Assertions.assertEquals(csv.substring(start), read(chunks.get(0)));
+        }
+    }
+
+    /**
+     * The records of every chunk parsed on its own, each with the number it
+     * has in the file.
+     */
+    private List<String> parseChunks(List<CsvChunker.Chunk> chunks) throws IOException {
+        List<String> records = new ArrayList<>();
+        for (CsvChunker.Chunk chunk : chunks) {
+            records.addAll(parse(new InputStreamReader(chunk.open(), StandardCharsets.UTF_8),
+                    CSVFormat.DEFAULT.withHeader("name", "notes"), chunk.getRecordsBefore()));
+        }
+        return records;
+    }
+
+    /**
+     * The records with their numbers in the file, recordsBefore is the
+     * number of records before the ones the reader holds.
+     */
+    private List<String> parse(Reader reader, CSVFormat format, long recordsBefore) throws IOException {
+        List<String> records = new ArrayList<>();
+        try (CSVParser parser = new CSVParser(reader, format)) {
+            for (CSVRecord record : parser) {
+                records.add((recordsBefore + record.getRecordNumber()) + " " + record.get("name") + "="
+                        + record.get("notes"));
+            }
+        }
+        return records;
+    }
+
+    private String read(CsvChunker.Chunk chunk) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = chunk.open()) {
+            in.transferTo(out);
+        }
+        return out.toString(StandardCharsets.UTF_8);
+    }
+}
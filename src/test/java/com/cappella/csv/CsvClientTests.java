@@ -6,14 +6,23 @@ import com.cappella.model.TaskData;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.time.LocalDate;
+import java.util.Arrays;
 import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 
@@ -63,6 +72,15 @@ class CsvClientTests {
                 Assertions.assertTrue(this.problems.getErrors().containsKey(Problems.ERROR_PARSING_TASK_DUE_DATE));
         }
 
+        @Test
+        void testMalformedTaskDueDateRowRecorded() {
+                parseCsvFile("malformedTaskDueDate.csv");
+                Assertions.assertEquals(1L, this.problems.getErrorCounts().get(Problems.ERROR_PARSING_TASK_DUE_DATE));
+                Problems.Detail detail = this.problems.getErrorDetails(Problems.ERROR_PARSING_TASK_DUE_DATE).get(0);
+                Assertions.assertEquals(4, detail.getRow());
+                Assertions.assertEquals("Funder Full proposal deadline", detail.getColumn());
+        }
+
         @Test
         void testMalformedSubTaskDueDateCsvFile() {
                 List<TaskData> grantTasks = parseCsvFile("malformedSubTaskDueDate.csv");
@@ -93,12 +111,156 @@ class CsvClientTests {
                 // should also assert that it successfully parsed the grant tasks expected
         }
 
+        @Test
+        void testStreamMatchesParsedList() {
+                List<TaskData> grantTasks = parseCsvFile("production.csv");
+                InputStream is = this.getClass().getClassLoader().getResourceAsStream("production.csv");
+                List<TaskData> streamedTasks;
+                try (Stream<TaskData> stream = this.csv.streamGrantCsvToTasks(is, this.problems)) {
+                        streamedTasks = stream.collect(Collectors.toList());
+                }
+                Assertions.assertFalse(grantTasks.isEmpty());
+                Assertions.assertEquals(grantTasks.size(), streamedTasks.size());
+                for (int i = 0; i < grantTasks.size(); i++) {
+                        Assertions.assertEquals(grantTasks.get(i).getName(), streamedTasks.get(i).getName());
+                        Assertions.assertEquals(grantTasks.get(i).getDueDate(), streamedTasks.get(i).getDueDate());
+                }
+        }
+
+        @Test
+        void testMappedStreamMatchesParsedList() throws Exception {
+                List<TaskData> grantTasks = parseCsvFile("production.csv");
+                List<TaskData> streamedTasks;
+                try (InputStream is = this.csv.openMappedCsv(resourcePath("production.csv"));
+                     Stream<TaskData> stream = this.csv.streamGrantCsvToTasks(is, this.problems)) {
+                        streamedTasks = stream.collect(Collectors.toList());
+                }
+                Assertions.assertEquals(grantTasks.size(), streamedTasks.size());
+                for (int i = 0; i < grantTasks.size(); i++) {
+                        Assertions.assertEquals(grantTasks.get(i).getName(), streamedTasks.get(i).getName());
+                        Assertions.assertEquals(grantTasks.get(i).getRowNumber(), streamedTasks.get(i).getRowNumber());
+                        Assertions.assertEquals(grantTasks.get(i).getDueDate(), streamedTasks.get(i).getDueDate());
+                }
+        }
+
+        @Test
+        void testStreamMissingNameHeaderFailsFast() {
+                InputStream is = this.getClass().getClassLoader().getResourceAsStream("missingHeaderTaskName.csv");
+                Stream<TaskData> stream = this.csv.streamGrantCsvToTasks(is, this.problems);
+                Assertions.assertNull(stream);
+                Assertions.assertTrue(this.problems.getErrors().containsKey(Problems.ERROR_MISSING_GRANT_TASK_NAME_HEADER));
+        }
+
         private List<TaskData> parseCsvFile(String filename){
                 InputStream is = this.getClass().getClassLoader().getResourceAsStream(filename);
                 List<TaskData> grantTasks = this.csv.parseGrantCsvToTasks(is, this.problems);
                 return grantTasks;
         }
 
+        @Test
+        void testParallelMatchesSequential(@TempDir Path dir) throws Exception {
+                // production.csv has quoted fields with newlines, repeat its records until
+                // the file is split into several chunks
+                Path large = dir.resolve("large.csv");
+                byte[] production = Files.readAllBytes(resourcePath("production.csv"));
+                int headerEnd = new String(production, "UTF-8").indexOf('\n') + 1;
+                try (OutputStream out = Files.newOutputStream(large)) {
+                        out.write(production, 0, headerEnd);
+                        for (int i = 0; i < 50; i++) {
+                                out.write(production, headerEnd, production.length - headerEnd);
+                        }
+                }
+                List<TaskData> sequential;
+                try (InputStream is = Files.newInputStream(large)) {
+                        sequential = this.csv.parseGrantCsvToTasks(is, new Problems());
+                }
+                List<TaskData> parallel = this.csv.parseGrantCsvFilesToTasks(
+                                Arrays.asList(large, resourcePath("simple.csv")), this.problems);
+                List<TaskData> simple = parseCsvFile("simple.csv");
+                Assertions.assertNotNull(parallel);
+                Assertions.assertEquals(sequential.size() + simple.size(), parallel.size());
+                for (int i = 0; i < parallel.size(); i++) {
+                        TaskData expected = i < sequential.size() ? sequential.get(i) : simple.get(i - sequential.size());
+                        Assertions.assertEquals(expected.getName(), parallel.get(i).getName());
+                        Assertions.assertEquals(expected.getRowNumber(), parallel.get(i).getRowNumber());
+                        Assertions.assertEquals(expected.getDueDate(), parallel.get(i).getDueDate());
+                        Assertions.assertEquals(expected.getSection(), parallel.get(i).getSection());
+                }
+        }
+
+        @Test
+        void testParallelMissingNameHeader() throws Exception {
+                List<TaskData> grantTasks = this.csv.parseGrantCsvFilesToTasks(
+                                Arrays.asList(resourcePath("simple.csv"), resourcePath("missingHeaderTaskName.csv")),
+                                this.problems);
+                Assertions.assertNull(grantTasks);
+                Assertions.assertTrue(this.problems.getErrors().containsKey(Problems.ERROR_MISSING_GRANT_TASK_NAME_HEADER));
+        }
+
+        private Path resourcePath(String filename) throws Exception {
+                return Paths.get(this.getClass().getClassLoader().getResource(filename).toURI());
+        }
+
+        @Test
+        void testUnchangedRowsSkipped(@TempDir Path dir) throws Exception {
+                Path file = dir.resolve("fingerprints");
+                RowFingerprints fingerprints = RowFingerprints.load(file);
+                List<TaskData> grantTasks = parseChangedCsv(resourcePath("simple.csv"), fingerprints);
+                Assertions.assertEquals(10, grantTasks.size());
+                Assertions.assertTrue(fingerprints.isComplete());
+                fingerprints.save(file);
+
+                // the same export again has nothing to import
+                fingerprints = RowFingerprints.load(file);
+                Assertions.assertTrue(parseChangedCsv(resourcePath("simple.csv"), fingerprints).isEmpty());
+                Assertions.assertEquals(10, fingerprints.getUnchanged());
+                fingerprints.save(file);
+
+                // change a mapped column and an unmapped column, and remove a row
+                List<String> lines = Files.readAllLines(resourcePath("simple.csv"));
+                lines.set(1, lines.get(1).replace("\"Sep 1, 2022\"", "\"Sep 2, 2022\""));
+                lines.set(2, lines.get(2).replace("$ 10000", "$ 12000"));
+                lines.remove(3);
+                Path changed = dir.resolve("changed.csv");
+                Files.write(changed, lines);
+                fingerprints = RowFingerprints.load(file);
+                grantTasks = parseChangedCsv(changed, fingerprints);
+                Assertions.assertEquals(1, grantTasks.size());
+                Assertions.assertEquals("The Chisholm Foundation Grants", grantTasks.get(0).getName());
+                Assertions.assertEquals(LocalDate.of(2022, 9, 2), grantTasks.get(0).getDueDate());
+                Assertions.assertEquals(1, grantTasks.get(0).getRowNumber());
+                Assertions.assertEquals(8, fingerprints.getUnchanged());
+                Assertions.assertEquals(List.of("Oregon Arts Commission Operating Support Grant (Oregon Arts Commission)"),
+                                fingerprints.getRemoved());
+                Assertions.assertEquals(1L,
+                                this.problems.getWarningCounts().get(Problems.WARNING_GRANT_REMOVED_FROM_CSV));
+        }
+
+        @Test
+        void testRowsWithoutNamesNeverSkipped(@TempDir Path dir) throws Exception {
+                Path noName = dir.resolve("noName.csv");
+                Files.write(noName, List.of("Opportunity name,Funder name,Status", "grant 1,funder 1,Planned",
+                                ",funder 2,Planned"));
+                Path file = dir.resolve("fingerprints");
+                RowFingerprints fingerprints = new RowFingerprints();
+                Assertions.assertEquals(1, parseChangedCsv(noName, fingerprints).size());
+                fingerprints.save(file);
+                this.problems.clear();
+                fingerprints = RowFingerprints.load(file);
+                Assertions.assertTrue(parseChangedCsv(noName, fingerprints).isEmpty());
+                Assertions.assertEquals(1, fingerprints.getUnchanged());
+                Assertions.assertEquals(1L, this.problems.getErrorCounts().get(Problems.ERROR_MISSING_GRANT_TASK_NAME));
+                Assertions.assertEquals(2, this.problems.getErrorDetails(Problems.ERROR_MISSING_GRANT_TASK_NAME).get(0).getRow());
+        }
+
+        private List<TaskData> parseChangedCsv(Path file, RowFingerprints fingerprints) throws IOException {
+                try (InputStream is = Files.newInputStream(file);
+                                Stream<TaskData> stream = this.csv.streamChangedGrantCsvToTasks(is, fingerprints,
+                                                this.problems)) {
+                        return stream.collect(Collectors.toList());
+                }
+        }
+
         @Test
         void testParseGrantDueDateWrongFormat() {
                 String dateValue = "1/1/2001";
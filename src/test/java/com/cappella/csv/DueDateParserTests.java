@@ -0,0 +1,83 @@
+package com.cappella.csv;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+class DueDateParserTests {
+
+    private final DueDateParser parser = new DueDateParser();
+
+    @Test
+    void testGrantDatesMatchFormatter() {
+        for (LocalDate date = LocalDate.of(1999, 12, 1); date.isBefore(LocalDate.of(2031, 1, 1));
+                date = date.plusDays(1)) {
+            String value = CsvClient.TASK_DATE_FORMATTER.format(date);
+            Assertions.assertEquals(date, parser.parseGrantDate(value).getDate(), value);
+        }
+    }
+
+    @Test
+    void testUnusualGrantDatesMatchFormatter() {
+        List<String> values = Arrays.asList("Rolling", "March 15, 2022", "03 1, 2022", "3 15, 2023",
+                "Feb 30, 2022", "Feb 29, 2024", "Sep 31, 2022", "Jan 01, 2001", "jan 1, 2001", "Jan 1,2001",
+                "Jan 1, 01", "Jan 1, 20011", "Jan 1, 2001 ", "Jan 123, 2001", "Jan", "Jan 1", "1/1/2001");
+        for (String value : values) {
+            Assertions.assertEquals(formatterGrantDate(value), parser.parseGrantDate(value).getDate(), value);
+        }
+    }
+
+    @Test
+    void testSubTaskDatesMatchFormatter() {
+        for (LocalDate date = LocalDate.of(1999, 12, 1); date.isBefore(LocalDate.of(2031, 1, 1));
+                date = date.plusDays(1)) {
+            String value = "Milestone-" + CsvClient.SUB_TASK_DATE_FORMATTER.format(date);
+            Assertions.assertEquals(date, parser.parseSubTaskDate(value).getDate(), value);
+        }
+    }
+
+    @Test
+    void testUnusualSubTaskDatesMatchFormatter() {
+        List<String> values = Arrays.asList("Milestone", "Milestone-", "Milestone02/25/2022",
+                "Milestone--01/28/2022", "Milestone-01/28/2022-Draft", "-01/28/2022", "Draft-123456",
+                "Draft-02/30/2022", "Draft-1/28/2022", "Draft-13/01/2022", "Draft-01/28/22", "Draft-01/28/2022 ");
+        for (String value : values) {
+            Assertions.assertEquals(formatterSubTaskDate(value), parser.parseSubTaskDate(value).getDate(), value);
+        }
+    }
+
+    @Test
+    void testRepeatedDatesAreRemembered() {
+        DueDateParser.ParsedDate first = parser.parseGrantDate(new String("Sep 1, 2022"));
+        Assertions.assertSame(first, parser.parseGrantDate(new String("Sep 1, 2022")));
+        DueDateParser.ParsedDate failed = parser.parseGrantDate("Rolling");
+        Assertions.assertNull(failed.getDate());
+        Assertions.assertSame(failed, parser.parseGrantDate("Rolling"));
+        Assertions.assertEquals("Text 'Rolling' could not be parsed at index 0", failed.getError("Rolling"));
+    }
+
+    /**
+     * How the due date was parsed before DueDateParser.
+     */
+    private LocalDate formatterGrantDate(String value) {
+        try {
+            return LocalDate.parse(value, CsvClient.TASK_DATE_FORMATTER);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * How the subtask due date was parsed before DueDateParser.
+     */
+    private LocalDate formatterSubTaskDate(String value) {
+        try {
+            return LocalDate.parse(value.split("-")[1], CsvClient.SUB_TASK_DATE_FORMATTER);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+}
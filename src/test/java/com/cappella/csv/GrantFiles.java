@@ -0,0 +1,63 @@
+package com.cappella.csv;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVPrinter;
+import org.apache.commons.csv.CSVRecord;
+
+/**
+ * Writes grant CSV files of any number of rows for the load tests and the
+ * benchmarks. The files are made by repeating the records of production.csv
+ * with a row number added to the opportunity name, so every task name is
+ * different.
+ */
+public final class GrantFiles {
+
+    private static final String FIXTURE = "production.csv";
+
+    private GrantFiles() {
+    }
+
+    /**
+     * @param file overwritten if it exists
+     * @param rows
+     * @return Path the file
+     * @throws IOException
+     */
+    public static Path write(Path file, int rows) throws IOException {
+        List<CSVRecord> records;
+        List<String> headers;
+        try (InputStream is = GrantFiles.class.getClassLoader().getResourceAsStream(FIXTURE);
+             Reader reader = new InputStreamReader(is, StandardCharsets.UTF_8);
+             CSVParser parser = CSVFormat.DEFAULT.withFirstRecordAsHeader().parse(reader)) {
+            records = parser.getRecords();
+            headers = parser.getHeaderNames();
+        }
+        int nameColumn = headers.indexOf(CsvClient.GRANT_HEADER_TASK_NAME);
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8);
+             CSVPrinter printer = new CSVPrinter(writer,
+                     CSVFormat.DEFAULT.withHeader(headers.toArray(new String[0])))) {
+            for (int row = 0; row < rows; row++) {
+                CSVRecord record = records.get(row % records.size());
+                List<String> values = new ArrayList<>(headers.size());
+                for (int column = 0; column < headers.size(); column++) {
+                    String value = column < record.size() ? record.get(column) : "";
+                    values.add(column == nameColumn ? value + " " + row : value);
+                }
+                printer.printRecord(values);
+            }
+        }
+        return file;
+    }
+}
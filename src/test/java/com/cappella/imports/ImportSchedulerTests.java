@@ -0,0 +1,167 @@
+package com.cappella.imports;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import com.cappella.asana.AsanaClient;
+
+/**
+ * Testing that the {@link ImportScheduler} takes turns between lanes and
+ * keeps to the limits of each lane.
+ */
+class ImportSchedulerTests {
+
+    private static final long TIMEOUT_SECONDS = 10;
+
+    private ImportScheduler scheduler;
+
+    @AfterEach
+    void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdown();
+        }
+    }
+
+    @Test
+    void testLanesTakeTurns() throws InterruptedException {
+        scheduler = new ImportScheduler(1);
+        scheduler.addLane("large", 1, 10);
+        scheduler.addLane("small", 1, 10);
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(6);
+        scheduler.submit("large", () -> {
+            await(release);
+            order.add("large 1");
+            done.countDown();
+        });
+        for (int i = 2; i <= 4; i++) {
+            scheduler.submit("large", job(order, "large " + i, done));
+        }
+        scheduler.submit("small", job(order, "small 1", done));
+        scheduler.submit("small", job(order, "small 2", done));
+        Assertions.assertEquals(3, scheduler.getQueued("large"));
+        release.countDown();
+        Assertions.assertTrue(done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        // the large lane had queued first, after that the lanes take turns
+        Assertions.assertEquals(Arrays.asList("large 1", "large 2", "small 1", "large 3", "small 2", "large 4"),
+                order);
+    }
+
+    @Test
+    void testLaneConcurrencyLimited() throws InterruptedException {
+        scheduler = new ImportScheduler(2);
+        scheduler.addLane("a", 1, 10);
+        scheduler.addLane("b", 1, 10);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch done = new CountDownLatch(1);
+        scheduler.submit("a", () -> {
+            started.countDown();
+            await(release);
+        });
+        Assertions.assertTrue(started.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        scheduler.submit("a", job(order, "a 2", new CountDownLatch(1)));
+        // a thread is free but the lane is at its limit
+        scheduler.submit("b", job(order, "b 1", done));
+        Assertions.assertTrue(done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        Assertions.assertEquals(Collections.singletonList("b 1"), order);
+        Assertions.assertEquals(1, scheduler.getQueued("a"));
+        release.countDown();
+    }
+
+    @Test
+    void testSameSerialKeyRunsOneAtATime() throws InterruptedException {
+        scheduler = new ImportScheduler(2);
+        scheduler.addLane("a", 2, 10);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch other = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(2);
+        scheduler.submit("a", "tenant", () -> {
+            started.countDown();
+            await(release);
+            order.add("tenant 1");
+            done.countDown();
+        });
+        Assertions.assertTrue(started.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        scheduler.submit("a", "tenant", job(order, "tenant 2", done));
+        // the second job of the tenant waits without holding the lane's other slot
+        scheduler.submit("a", job(order, "other", other));
+        Assertions.assertTrue(other.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        Assertions.assertEquals(1, scheduler.getQueued("a"));
+        release.countDown();
+        Assertions.assertTrue(done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        Assertions.assertEquals(Arrays.asList("other", "tenant 1", "tenant 2"), order);
+    }
+
+    @Test
+    void testSameProjectRunsOneAtATime() throws InterruptedException {
+        AsanaClient asana = Mockito.mock(AsanaClient.class);
+        Mockito.when(asana.isIndexing()).thenReturn(true);
+        ImportTenant acme = new ImportTenant("acme", "a", asana, "workspace", "grants", "");
+        ImportTenant globex = new ImportTenant("globex", "a", asana, "workspace", "grants", "");
+        ImportTenant initech = new ImportTenant("initech", "a", asana, "workspace", "other grants", "");
+        scheduler = new ImportScheduler(3);
+        scheduler.addLane("a", 3, 10);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch other = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(2);
+        scheduler.submit(acme.getLane(), acme.getSerialKey(), () -> {
+            started.countDown();
+            await(release);
+            order.add("acme");
+            done.countDown();
+        });
+        Assertions.assertTrue(started.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        // another tenant importing into the same project waits, even though the lane has free slots
+        scheduler.submit(globex.getLane(), globex.getSerialKey(), job(order, "globex", done));
+        scheduler.submit(initech.getLane(), initech.getSerialKey(), job(order, "initech", other));
+        Assertions.assertTrue(other.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        Assertions.assertEquals(1, scheduler.getQueued("a"));
+        release.countDown();
+        Assertions.assertTrue(done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        Assertions.assertEquals(Arrays.asList("initech", "acme", "globex"), order);
+    }
+
+    @Test
+    void testFullQueueRejected() {
+        scheduler = new ImportScheduler(1);
+        scheduler.addLane("a", 1, 1);
+        CountDownLatch release = new CountDownLatch(1);
+        scheduler.submit("a", () -> await(release));
+        scheduler.submit("a", () -> { });
+        Assertions.assertThrows(RejectedExecutionException.class, () -> scheduler.submit("a", () -> { }));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> scheduler.submit("unknown", () -> { }));
+        release.countDown();
+    }
+
+    private static Runnable job(List<String> order, String name, CountDownLatch done) {
+        return () -> {
+            order.add(name);
+            done.countDown();
+        };
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
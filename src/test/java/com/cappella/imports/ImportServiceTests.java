@@ -0,0 +1,52 @@
+package com.cappella.imports;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Testing that the {@link ImportService} only imports local files in
+ * imports.local.directory.
+ */
+class ImportServiceTests {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void testLocalFileResolved() throws IOException {
+        Path grants = Files.createDirectories(directory.resolve("local/2024")).resolve("grants.csv");
+        Files.writeString(grants, "Opportunity name\ngrant 1\n");
+        String local = directory.resolve("local").toString();
+        Assertions.assertEquals(grants.toRealPath(), ImportService.resolveLocalFile(local, "2024/grants.csv"));
+        Assertions.assertThrows(NoSuchFileException.class,
+                () -> ImportService.resolveLocalFile(local, "missing.csv"));
+    }
+
+    @Test
+    void testFileOutsideDirectoryRejected() throws IOException {
+        Path secret = Files.writeString(directory.resolve("secret.csv"), "Opportunity name\n");
+        Path local = Files.createDirectories(directory.resolve("local"));
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> ImportService.resolveLocalFile(local.toString(), "../secret.csv"));
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> ImportService.resolveLocalFile(local.toString(), secret.toString()));
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> ImportService.resolveLocalFile(local.toString(), "."));
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> ImportService.resolveLocalFile("", "secret.csv"));
+        // a link in the directory to a file outside of it
+        try {
+            Files.createSymbolicLink(local.resolve("link.csv"), secret);
+        } catch (UnsupportedOperationException | IOException e) {
+            return;
+        }
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> ImportService.resolveLocalFile(local.toString(), "link.csv"));
+    }
+}
@@ -0,0 +1,63 @@
+package com.cappella.metrics;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import com.cappella.model.Problems;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class ImportMetricsTests {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final ImportMetrics metrics = new ImportMetrics(registry);
+
+    @Test
+    void testProblemsCountedByCategory() {
+        Problems problems = new Problems();
+        problems.addError(Problems.ERROR_PARSING_TASK_DUE_DATE, "Jan 32, 2022", 1, null);
+        problems.addError(Problems.ERROR_PARSING_TASK_DUE_DATE, "Feb 30, 2022", 2, null);
+        problems.addWarning(Problems.WARNING_TASKDATA_MISSING_NAME, null);
+        problems.addWarning(Problems.WARNING_JOURNAL_NOT_AVAILABLE, null);
+        problems.addWarning(Problems.WARNING_IMPORT_RESUMED, "Resumed after row 500");
+        problems.addError("an error without a category", null);
+        metrics.importStarted();
+        Assertions.assertEquals(1, registry.get("cappella.imports.active").gauge().value());
+        metrics.importFinished(1_000_000, ImportMetrics.OUTCOME_SUCCESS, problems);
+        Assertions.assertEquals(0, registry.get("cappella.imports.active").gauge().value());
+        Assertions.assertEquals(1, registry.get("cappella.imports").tag("outcome", "success").timer().count());
+        Assertions.assertEquals(2, registry.get("cappella.problems").tag("type", "error")
+                .tag("category", "task_due_date").counter().count());
+        Assertions.assertEquals(1, registry.get("cappella.problems").tag("type", "warning")
+                .tag("category", "task_missing_name").counter().count());
+        Assertions.assertEquals(1, registry.get("cappella.problems").tag("type", "warning")
+                .tag("category", "journal_not_available").counter().count());
+        Assertions.assertEquals(1, registry.get("cappella.problems").tag("type", "warning")
+                .tag("category", "import_resumed").counter().count());
+        Assertions.assertEquals(1, registry.get("cappella.problems").tag("category", "other").counter().count());
+    }
+
+    @Test
+    void testAsanaCalls() {
+        metrics.callStarted();
+        Assertions.assertEquals(1, registry.get("cappella.asana.in.flight").gauge().value());
+        metrics.callFinished();
+        metrics.asanaCall("createTask", 2_000_000, ImportMetrics.OUTCOME_SUCCESS);
+        metrics.asanaCall("createTask", 4_000_000, ImportMetrics.OUTCOME_SUCCESS);
+        metrics.asanaRetry("batch", "rate_limited");
+        Assertions.assertEquals(0, registry.get("cappella.asana.in.flight").gauge().value());
+        Assertions.assertEquals(2, registry.get("cappella.asana.calls").tag("operation", "createTask").timer()
+                .count());
+        Assertions.assertEquals(1, registry.get("cappella.asana.retries").tag("reason", "rate_limited").counter()
+                .count());
+    }
+
+    @Test
+    void testRows() {
+        metrics.rowParsed();
+        metrics.rowParsed();
+        metrics.rowUnchanged();
+        Assertions.assertEquals(2, registry.get("cappella.csv.rows").tag("result", "parsed").counter().count());
+        Assertions.assertEquals(1, registry.get("cappella.csv.rows").tag("result", "unchanged").counter().count());
+    }
+}
@@ -0,0 +1,26 @@
+package com.cappella.model;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+class Fnv1aTests {
+
+    @Test
+    void testValuesAreSeparated() {
+        long ab = Fnv1a.hash(Fnv1a.hash(Fnv1a.start(), "ab"), "c");
+        long bc = Fnv1a.hash(Fnv1a.hash(Fnv1a.start(), "a"), "bc");
+        Assertions.assertNotEquals(ab, bc);
+        Assertions.assertEquals(ab, Fnv1a.hash(Fnv1a.hash(Fnv1a.start(), "ab"), "c"));
+    }
+
+    @Test
+    void testNullDiffersFromEmpty() {
+        Assertions.assertNotEquals(Fnv1a.hash(Fnv1a.start(), null), Fnv1a.hash(Fnv1a.start(), ""));
+    }
+
+    @Test
+    void testEveryByteOfACharHashed() {
+        // the two chars only differ in their high byte
+        Assertions.assertNotEquals(Fnv1a.hash(Fnv1a.start(), "\u00e9"), Fnv1a.hash(Fnv1a.start(), "\u01e9"));
+    }
+}
@@ -0,0 +1,70 @@
+package com.cappella.model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+class ProblemsTests {
+
+    @Test
+    void testEveryOccurrenceCounted() {
+        Problems problems = new Problems();
+        for (int row = 1; row <= 500; row++) {
+            problems.addError(Problems.ERROR_PARSING_TASK_DUE_DATE, "bad date " + row, row,
+                    "Funder Full proposal deadline");
+        }
+        problems.addWarning(Problems.WARNING_TASKDATA_MISSING_NAME, null);
+        Assertions.assertEquals(500L, problems.getErrorCounts().get(Problems.ERROR_PARSING_TASK_DUE_DATE));
+        Assertions.assertEquals(1L, problems.getWarningCounts().get(Problems.WARNING_TASKDATA_MISSING_NAME));
+        // the old view keeps the most recent value
+        Assertions.assertEquals("bad date 500", problems.getErrors().get(Problems.ERROR_PARSING_TASK_DUE_DATE));
+        Assertions.assertTrue(problems.getWarnings().containsKey(Problems.WARNING_TASKDATA_MISSING_NAME));
+    }
+
+    @Test
+    void testDetailsKeepTheLastOccurrences() {
+        Problems problems = new Problems(10);
+        for (int row = 1; row <= 25; row++) {
+            problems.addError(Problems.ERROR_PARSING_SUB_TASK_DUE_DATE, "bad date", row, "Next task deadline");
+        }
+        List<Problems.Detail> details = problems.getErrorDetails(Problems.ERROR_PARSING_SUB_TASK_DUE_DATE);
+        Assertions.assertEquals(10, details.size());
+        Assertions.assertEquals(16, details.get(0).getRow());
+        Assertions.assertEquals(25, details.get(9).getRow());
+        Assertions.assertEquals("Next task deadline", details.get(9).getColumn());
+        Assertions.assertTrue(problems.getErrorDetails(Problems.ERROR_FROM_ASANA).isEmpty());
+    }
+
+    @Test
+    void testConcurrentAdds() throws Exception {
+        Problems problems = new Problems();
+        ExecutorService workers = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int worker = 0; worker < 8; worker++) {
+                futures.add(workers.submit(() -> {
+                    for (int row = 1; row <= 10_000; row++) {
+                        problems.addError(row % 2 == 0 ? Problems.ERROR_FROM_ASANA : Problems.ERROR_PARSING_CSV_FILE,
+                                "error", row, null);
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            workers.shutdown();
+        }
+        Assertions.assertEquals(40_000L, problems.getErrorCounts().get(Problems.ERROR_FROM_ASANA));
+        Assertions.assertEquals(40_000L, problems.getErrorCounts().get(Problems.ERROR_PARSING_CSV_FILE));
+        Assertions.assertEquals(Problems.DEFAULT_MAX_DETAILS,
+                problems.getErrorDetails(Problems.ERROR_FROM_ASANA).size());
+        problems.clear();
+        Assertions.assertTrue(problems.getErrors().isEmpty());
+    }
+}